@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.reific.jmh;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.reific.braid.BraidHashMap;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+/**
+ * {@link BraidHashMap} against {@link HashMap}, with long keys that share most of their characters. The footprint of
+ * each map is printed at the start of each trial, to weigh against its throughput: for the HashMap, an estimate of its
+ * entries, its table and its key Strings; for the BraidHashMap, its table and its (flushed) Knot.
+ */
+@State(Scope.Thread)
+public class BraidHashMapJmhBenchmarks {
+
+	private static final int NUM_KEYS = 1 << 16;
+
+	@Param({ "hashMap", "braidHashMap", "braidHashMapRecordHeaders" })
+	String map;
+
+	String[] storedKeys;
+	// copies of the stored keys, so that a lookup can't succeed just by comparing references
+	String[] keys;
+	String[] missingKeys;
+	Map<String, Integer> filledMap;
+	int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		storedKeys = new String[NUM_KEYS];
+		keys = new String[NUM_KEYS];
+		missingKeys = new String[NUM_KEYS];
+		for (int i = 0; i < NUM_KEYS; i++) {
+			storedKeys[i] = key(i);
+			keys[i] = new String(storedKeys[i]);
+			missingKeys[i] = key(NUM_KEYS + i);
+		}
+		filledMap = fill(newMap());
+		long footprint;
+		if (filledMap instanceof BraidHashMap) {
+			BraidHashMap<Integer> braidHashMap = (BraidHashMap<Integer>) filledMap;
+			braidHashMap.knot().flush();
+			footprint = braidHashMap.tableSpaceUsed() + braidHashMap.knot().spaceUsed();
+		}
+		else {
+			// 32 bytes per entry, a table of up to twice as many slots, and each String with its (Latin-1) array
+			footprint = NUM_KEYS * 32L + Integer.highestOneBit(NUM_KEYS * 4 / 3) * 2 * 4L;
+			for (String key : storedKeys) {
+				footprint += 24 + ((16 + key.length() + 7) & ~7);
+			}
+		}
+		System.out.println("footprint: " + footprint + " bytes, not including values");
+	}
+
+	private static String key(int i) {
+		return "/account/" + i + "/settings/notifications?user=" + (i * 7919);
+	}
+
+	private Map<String, Integer> newMap() {
+		if (map.equals("hashMap")) {
+			return new HashMap<String, Integer>();
+		}
+		Knot knot = map.equals("braidHashMapRecordHeaders") ? Knots.builder().recordHeaders().build() : Knots
+				.builder().build();
+		return new BraidHashMap<Integer>(knot);
+	}
+
+	private Map<String, Integer> fill(Map<String, Integer> emptyMap) {
+		for (int i = 0; i < NUM_KEYS; i++) {
+			emptyMap.put(storedKeys[i], i);
+		}
+		return emptyMap;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Integer getHit() {
+		next = (next + 1) & (NUM_KEYS - 1);
+		return filledMap.get(keys[next]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Integer getMiss() {
+		next = (next + 1) & (NUM_KEYS - 1);
+		return filledMap.get(missingKeys[next]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Map<String, Integer> fill() {
+		return fill(newMap());
+	}
+
+}
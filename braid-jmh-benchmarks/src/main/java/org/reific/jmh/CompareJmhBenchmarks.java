@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package org.reific.jmh;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+/**
+ * Sorting Braids with {@link Braid#compareTo(Braid)}, which only decompresses each value as far as its first
+ * difference, compared to sorting them by {@link Braid#get()}.
+ */
+@State(Scope.Thread)
+public class CompareJmhBenchmarks {
+
+	private static final int NUM_BRAIDS = 4096;
+	private static final String[] WORDS = { "the", "of", "and", "to", "in", "that", "is", "was", "he", "for", "it",
+			"with", "as", "his", "on", "be", "at", "by", "had", "not", "are", "but", "from", "or", "have", "an", "they",
+			"which", "one", "you", "were", "her", "all", "she", "there", "would", "their", "we", "him", "been" };
+
+	private static final Comparator<Braid> BY_GET = new Comparator<Braid>() {
+		@Override
+		public int compare(Braid braid, Braid anotherBraid) {
+			return braid.get().compareTo(anotherBraid.get());
+		}
+	};
+
+	/**
+	 * Number of characters in each Braid
+	 */
+	@Param({ "16", "256", "4096" })
+	int length;
+
+	Braid[] braids;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Knot knot = Knots.builder().build();
+		Random random = new Random(0);
+		braids = new Braid[NUM_BRAIDS];
+		for (int i = 0; i < NUM_BRAIDS; i++) {
+			StringBuilder builder = new StringBuilder(length);
+			while (builder.length() < length) {
+				builder.append(WORDS[random.nextInt(WORDS.length)]);
+				builder.append(' ');
+			}
+			builder.setLength(length);
+			braids[i] = knot.braid(builder.toString());
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Braid[] sort() {
+		Braid[] sorted = braids.clone();
+		Arrays.sort(sorted);
+		return sorted;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Braid[] sortByGet() {
+		Braid[] sorted = braids.clone();
+		Arrays.sort(sorted, BY_GET);
+		return sorted;
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.reific.jmh;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+/**
+ * Multi-threaded braiding throughput: a {@link Knots.KnotBuilder#concurrent()} Knot against a standard Knot that is
+ * shared by wrapping every call in a global lock.
+ */
+public class ConcurrentKnotJmhBenchmarks {
+
+	private static final int THREADS = 4;
+
+	@State(Scope.Benchmark)
+	public static class SharedKnots {
+		Knot concurrentKnot;
+		Knot lockedKnot;
+
+		// Start each iteration with empty Knots, so that the buffers don't grow without bound
+		@Setup(Level.Iteration)
+		public void setup() {
+			concurrentKnot = Knots.builder().concurrent(THREADS).lz78(1 << 20, 2.0f).build();
+			lockedKnot = Knots.builder().lz78(1 << 20, 2.0f).build();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class PermutedStringState {
+		String string = UUID.randomUUID().toString();
+		private long nextIndex = 0;
+
+		/**
+		 * return a new String with one of it's characters arbitrarily increased by one (mod 256, to keep the data in the UTF-8 range, to simulate english)
+		 */
+		String nextPermutation() {
+			char[] charArray = string.toCharArray();
+			int index = (int) (nextIndex++ % charArray.length);
+			charArray[index] = (char) ((charArray[index] + 1) % 256);
+			string = new String(charArray);
+			return string;
+		}
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Braid concurrentKnotBraid(SharedKnots knots, PermutedStringState state) {
+		return knots.concurrentKnot.braid(state.nextPermutation());
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Braid globallyLockedKnotBraid(SharedKnots knots, PermutedStringState state) {
+		String string = state.nextPermutation();
+		synchronized (knots.lockedKnot) {
+			return knots.lockedKnot.braid(string);
+		}
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String concurrentKnotBraidAndGet(SharedKnots knots, PermutedStringState state) {
+		return knots.concurrentKnot.braid(state.nextPermutation()).get();
+	}
+
+	@Benchmark
+	@Threads(THREADS)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String globallyLockedKnotBraidAndGet(SharedKnots knots, PermutedStringState state) {
+		String string = state.nextPermutation();
+		synchronized (knots.lockedKnot) {
+			return knots.lockedKnot.braid(string).get();
+		}
+	}
+
+}
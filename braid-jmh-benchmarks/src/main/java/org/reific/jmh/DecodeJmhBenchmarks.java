@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.reific.jmh;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+/**
+ * Cost of {@link Braid#get()}, including the garbage it creates. Run with the GC profiler ({@code -prof gc}), where
+ * {@code gc.alloc.rate.norm} is the number of bytes allocated per get(). Ideally that is only the resulting String,
+ * and nothing at all for {@link Braid#appendTo(Appendable)}.
+ */
+@State(Scope.Thread)
+public class DecodeJmhBenchmarks {
+
+	private static final int NUM_BRAIDS = 1024;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String[] WORDS = { "the", "of", "and", "to", "in", "that", "is", "was", "he", "for", "it",
+			"with", "as", "his", "on", "be", "at", "by", "had", "not", "are", "but", "from", "or", "have", "an", "they",
+			"which", "one", "you", "were", "her", "all", "she", "there", "would", "their", "we", "him", "been" };
+
+	/**
+	 * Number of characters in each Braid
+	 */
+	@Param({ "16", "256", "4096" })
+	int length;
+
+	/**
+	 * Whether every character is ASCII, or some need two or three bytes in UTF-8
+	 */
+	@Param({ "true", "false" })
+	boolean ascii;
+
+	/**
+	 * The LZ78 format: 1 for absolute prefix pointers, 2 for relative ones, 3 for absolute ones with phrase lengths
+	 */
+	@Param({ "1", "2", "3" })
+	int format;
+
+	Braid[] braids;
+	int next = 0;
+	final StringBuilder builder = new StringBuilder();
+	final ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * 4096);
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Knot knot = Knots.builder().lz78Format(format).build();
+		Random random = new Random(0);
+		braids = new Braid[NUM_BRAIDS];
+		for (int i = 0; i < NUM_BRAIDS; i++) {
+			StringBuilder builder = new StringBuilder(length);
+			while (builder.length() < length) {
+				builder.append(WORDS[random.nextInt(WORDS.length)]);
+				builder.append(ascii ? ' ' : random.nextBoolean() ? '\u00E9' : '\u20AC');
+			}
+			builder.setLength(length);
+			braids[i] = knot.braid(builder.toString());
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String get() {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		return braids[next].get();
+	}
+
+	/**
+	 * Decompress straight into a reused StringBuilder, with no intermediate String
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public StringBuilder appendTo() throws IOException {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		builder.setLength(0);
+		braids[next].appendTo(builder);
+		return builder;
+	}
+
+	/**
+	 * The usual way of sending a String over the network: decode to a String, and encode it to UTF-8 again
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public ByteBuffer getAndEncode() {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		byteBuffer.clear();
+		byteBuffer.put(braids[next].get().getBytes(UTF_8));
+		return byteBuffer;
+	}
+
+	/**
+	 * Copy the stored UTF-8 straight into the ByteBuffer
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public ByteBuffer writeUtf8() {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		byteBuffer.clear();
+		braids[next].writeUtf8(byteBuffer);
+		return byteBuffer;
+	}
+
+}
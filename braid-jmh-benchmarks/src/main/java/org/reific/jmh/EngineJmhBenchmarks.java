@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package org.reific.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+import org.reific.braid.Knots.KnotBuilder;
+
+/**
+ * The LZ77 and FSST engines against the LZ78 engine, on the same data, with and without entropy coding. The space
+ * used by each Knot is printed at the start of each trial, to weigh against its throughput. The compression ratio of
+ * each engine is also checked by CompressionRatioTest.
+ */
+@State(Scope.Thread)
+public class EngineJmhBenchmarks {
+
+	private static final int NUM_BRAIDS = 4096;
+	private static final String[] WORDS = { "the", "of", "and", "to", "in", "that", "is", "was", "he", "for", "it",
+			"with", "as", "his", "on", "be", "at", "by", "had", "not", "are", "but", "from", "or", "have", "an", "they",
+			"which", "one", "you", "were", "her", "all", "she", "there", "would", "their", "we", "him", "been" };
+	private static final String[] ACTIONS = { "logged in", "logged out", "viewed page /home",
+			"viewed page /account/settings", "purchased item", "failed login" };
+
+	@Param({ "lz78", "lz77", "fsst", "adaptive" })
+	String engine;
+
+	/**
+	 * Random words, or log lines that differ only in a few fields
+	 */
+	@Param({ "words", "logs" })
+	String data;
+
+	/**
+	 * Whether the compressed data is Huffman coded, in blocks
+	 */
+	@Param({ "false", "true" })
+	boolean entropyCoded;
+
+	String[] strings;
+	// FSST is trained on different Strings of the same kind
+	List<String> sample;
+	Braid[] braids;
+	Knot knot;
+	int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(0);
+		strings = new String[NUM_BRAIDS];
+		for (int i = 0; i < NUM_BRAIDS; i++) {
+			strings[i] = newString(random);
+		}
+		Random sampleRandom = new Random(1);
+		sample = new ArrayList<String>();
+		for (int i = 0; i < NUM_BRAIDS; i++) {
+			sample.add(newString(sampleRandom));
+		}
+		knot = newKnot();
+		braids = new Braid[NUM_BRAIDS];
+		for (int i = 0; i < NUM_BRAIDS; i++) {
+			braids[i] = knot.braid(strings[i]);
+		}
+		knot.flush();
+		System.out.println("spaceUsed: " + knot.spaceUsed() + " bytes, engine: " + knot.statistics().get("engine"));
+	}
+
+	private String newString(Random random) {
+		if (data.equals("logs")) {
+			return "2014-12-10 INFO user-" + random.nextInt(50000) + " " + ACTIONS[random.nextInt(ACTIONS.length)]
+					+ " from 10.0." + random.nextInt(256) + "." + random.nextInt(256);
+		}
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < 80) {
+			builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		return builder.toString();
+	}
+
+	private Knot newKnot() {
+		KnotBuilder builder = Knots.builder();
+		if (engine.equals("lz77")) {
+			builder.lz77();
+		}
+		else if (engine.equals("fsst")) {
+			builder.fsst(sample);
+		}
+		else if (engine.equals("adaptive")) {
+			builder.adaptive(NUM_BRAIDS / 4);
+		}
+		if (entropyCoded) {
+			builder.entropyCoded();
+		}
+		return builder.build();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String get() {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		return braids[next].get();
+	}
+
+	/**
+	 * Store every String in a new Knot. For FSST, this includes training the symbol table.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Knot store() {
+		Knot storeKnot = newKnot();
+		for (String string : strings) {
+			storeKnot.braid(string);
+		}
+		return storeKnot;
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package org.reific.jmh;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+import org.reific.braid.Knots.KnotBuilder;
+
+/**
+ * Decoding speed for each size of LZ78 phrase cache, to weigh the speedup against the memory it takes. Each Braid is
+ * read in turn, so the cache only helps once it holds the phrases shared by many Braids. The hits and misses of the
+ * cache are printed at the end of each trial.
+ */
+@State(Scope.Thread)
+public class PhraseCacheJmhBenchmarks {
+
+	private static final int NUM_BRAIDS = 1 << 15;
+	private static final String[] WORDS = { "the", "of", "and", "to", "in", "that", "is", "was", "he", "for", "it",
+			"with", "as", "his", "on", "be", "at", "by", "had", "not", "are", "but", "from", "or", "have", "an", "they",
+			"which", "one", "you", "were", "her", "all", "she", "there", "would", "their", "we", "him", "been" };
+	private static final String[] ACTIONS = { "logged in", "logged out", "viewed page /home",
+			"viewed page /account/settings", "purchased item", "failed login" };
+
+	/**
+	 * Size of the phrase cache in bytes, or 0 for none
+	 */
+	@Param({ "0", "65536", "1048576", "4194304" })
+	int phraseCacheBytes;
+
+	/**
+	 * Random words, or log lines that differ only in a few fields
+	 */
+	@Param({ "words", "logs" })
+	String data;
+
+	Braid[] braids;
+	Knot knot;
+	int next = 0;
+	final StringBuilder builder = new StringBuilder();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		KnotBuilder knotBuilder = Knots.builder();
+		if (phraseCacheBytes != 0) {
+			knotBuilder.lz78PhraseCache(phraseCacheBytes);
+		}
+		knot = knotBuilder.build();
+		Random random = new Random(0);
+		braids = new Braid[NUM_BRAIDS];
+		for (int i = 0; i < NUM_BRAIDS; i++) {
+			braids[i] = knot.braid(newString(random));
+		}
+	}
+
+	private String newString(Random random) {
+		if (data.equals("logs")) {
+			return "2014-12-10 INFO user-" + random.nextInt(50000) + " " + ACTIONS[random.nextInt(ACTIONS.length)]
+					+ " from 10.0." + random.nextInt(256) + "." + random.nextInt(256);
+		}
+		StringBuilder builder = new StringBuilder();
+		while (builder.length() < 256) {
+			builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		return builder.toString();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.out.println("phrase cache hits: " + knot.statistics().get("lz78PhraseCache.hits") + ", misses: "
+				+ knot.statistics().get("lz78PhraseCache.misses"));
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public StringBuilder appendTo() throws IOException {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		builder.setLength(0);
+		braids[next].appendTo(builder);
+		return builder;
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String get() {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		return braids[next].get();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+
+package org.reific.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+import org.reific.braid.Knots.KnotBuilder;
+
+/**
+ * The latency of {@link Braid#get()} for each maximum LZ78 phrase length, sampled so that JMH reports its percentiles.
+ * The space used by the Knot, and the histogram of the longest phrase in each String, are printed at the start of each
+ * trial, to weigh against the tail latency.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+public class PhraseLengthJmhBenchmarks {
+
+	private static final int NUM_BRAIDS = 1 << 14;
+	private static final String[] WORDS = { "the", "of", "and", "to", "in", "that", "is", "was", "he", "for", "it",
+			"with", "as", "his", "on", "be", "at", "by", "had", "not", "are", "but", "from", "or", "have", "an", "they",
+			"which", "one", "you", "were", "her", "all", "she", "there", "would", "their", "we", "him", "been" };
+
+	/**
+	 * The longest phrase allowed, or 0 for no limit
+	 */
+	@Param({ "0", "16", "64", "256" })
+	int maxPhraseLength;
+
+	/**
+	 * Random words, or records where one in ten has a long repeated run (as in a text table or a padded field)
+	 */
+	@Param({ "words", "runs" })
+	String data;
+
+	Braid[] braids;
+	int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		KnotBuilder builder = Knots.builder();
+		if (maxPhraseLength != 0) {
+			builder.lz78MaxPhraseLength(maxPhraseLength);
+		}
+		Knot knot = builder.build();
+		Random random = new Random(0);
+		braids = new Braid[NUM_BRAIDS];
+		for (int i = 0; i < NUM_BRAIDS; i++) {
+			braids[i] = knot.braid(newString(random, i));
+		}
+		System.out.println("spaceUsed: " + knot.spaceUsed() + " bytes, longest phrases: "
+				+ knot.statistics().get("longestPhraseHistogram"));
+	}
+
+	private String newString(Random random, int i) {
+		StringBuilder builder = new StringBuilder();
+		if (data.equals("runs")) {
+			builder.append("record ").append(i).append(' ');
+			if (i % 10 == 0) {
+				for (int j = 0, length = 200 + random.nextInt(2000); j < length; j++) {
+					builder.append(j % 2 == 0 ? '-' : '=');
+				}
+			}
+			return builder.append(" value ").append(random.nextInt(100000)).toString();
+		}
+		while (builder.length() < 256) {
+			builder.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		return builder.toString();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String get() {
+		next = (next + 1) & (NUM_BRAIDS - 1);
+		return braids[next].get();
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014, Oracle America, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  * Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  * Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ *  * Neither the name of Oracle nor the names of its contributors may be used
+ *    to endorse or promote products derived from this software without
+ *    specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF
+ * THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.reific.jmh;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+/**
+ * Read scaling of a {@link Knots.KnotBuilder#singleWriter()} Knot. The read-only benchmark can be run with an increasing
+ * number of threads (for example {@code -t 1}, {@code -t 2}, {@code -t 4}, {@code -t 8}) to show how
+ * {@link Braid#get()} scales. The group benchmark reads while a single thread keeps appending to the same Knot.
+ */
+public class SingleWriterKnotJmhBenchmarks {
+
+	private static final int NUM_BRAIDS = 10000;
+
+	@State(Scope.Group)
+	public static class SharedKnot {
+		Knot knot;
+		Braid[] braids;
+		String string = UUID.randomUUID().toString();
+		private long nextIndex = 0;
+
+		// Start each iteration with a fresh Knot, so that the writer doesn't grow the buffer without bound
+		@Setup(Level.Iteration)
+		public void setup() {
+			knot = Knots.builder().singleWriter().lz78(1 << 20, 2.0f).build();
+			braids = new Braid[NUM_BRAIDS];
+			for (int i = 0; i < NUM_BRAIDS; i++) {
+				braids[i] = knot.braid(nextPermutation());
+			}
+		}
+
+		/**
+		 * return a new String with one of it's characters arbitrarily increased by one (mod 256, to keep the data in the UTF-8 range, to simulate english)
+		 */
+		String nextPermutation() {
+			char[] charArray = string.toCharArray();
+			int index = (int) (nextIndex++ % charArray.length);
+			charArray[index] = (char) ((charArray[index] + 1) % 256);
+			string = new String(charArray);
+			return string;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class ReadOnlyKnot {
+		Knot knot;
+		Braid[] braids;
+
+		@Setup(Level.Trial)
+		public void setup() {
+			SharedKnot shared = new SharedKnot();
+			shared.setup();
+			knot = shared.knot;
+			braids = shared.braids;
+		}
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String readOnly(ReadOnlyKnot state) {
+		return state.braids[ThreadLocalRandom.current().nextInt(NUM_BRAIDS)].get();
+	}
+
+	@Benchmark
+	@Group("readWhileWriting")
+	@GroupThreads(3)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public String reader(SharedKnot state) {
+		return state.braids[ThreadLocalRandom.current().nextInt(NUM_BRAIDS)].get();
+	}
+
+	@Benchmark
+	@Group("readWhileWriting")
+	@GroupThreads(1)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Braid writer(SharedKnot state) {
+		return state.knot.braid(state.nextPermutation());
+	}
+
+}
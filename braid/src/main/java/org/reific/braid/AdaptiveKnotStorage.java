@@ -0,0 +1,405 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A {@link KnotStorage} that chooses its compression engine from the data itself. The first Strings stored (the
+ * sample) are held as they are, then stored by each candidate engine in turn, and each candidate's size and time to
+ * read the sample back are measured. The size is the bytes written to its buffer, plus the LZ78 dictionary, which grows
+ * with the data (the LZ77 hash table and the FSST symbol table have a fixed size, which a small sample would
+ * overstate).
+ * <p>
+ * Every candidate within 10% of the smallest is a contender. Of those, the first in the order raw, LZ78 (sparse, then
+ * dense dictionary, then relative pointers), LZ77, FSST is chosen, unless a later one read the sample back in less
+ * than half the time, in which case the fastest is chosen. So timing noise can't change the choice between candidates
+ * of about the same speed. The other candidates are discarded, and later Strings go straight to the chosen storage,
+ * which is already warmed up by the sample.
+ * <p>
+ * An index below the sample size is a String of the sample, which is at {@link #sampleIndexes}[index] in the chosen
+ * storage. Any other index is the sample size plus an index of the chosen storage.
+ * <p>
+ * The measurements of each candidate are kept for {@link Knot#statistics()}, under {@code adaptive.<engine>.*}.
+ * <p>
+ * Not thread safe, but safe for a single writer with concurrent readers, in the same way as the storages it chooses
+ * between (the switch from the sample to the chosen storage is a volatile write).
+ */
+final class AdaptiveKnotStorage implements KnotStorage {
+
+	static final String RAW = "raw";
+	static final String LZ78 = "lz78";
+	// LZ78 with a fuller, so smaller, dictionary
+	static final String LZ78_DENSE_DICTIONARY = "lz78-dense-dictionary";
+	static final String LZ78_RELATIVE_POINTERS = "lz78-relative-pointers";
+	static final String LZ77 = "lz77";
+	static final String FSST = "fsst";
+	private static final String[] CANDIDATES = { RAW, LZ78, LZ78_DENSE_DICTIONARY, LZ78_RELATIVE_POINTERS, LZ77, FSST };
+	// A candidate within this fraction of the smallest can win by being earlier in CANDIDATES, or faster to read
+	private static final double SIZE_TOLERANCE = 0.1;
+	// A contender later in CANDIDATES only wins if it reads the sample back in less than this fraction of the time
+	private static final double FASTER_FRACTION = 0.5;
+	private static final int LZ78_DICTIONARY_CAPACITY = 2;
+	private static final float LZ78_DICTIONARY_LOAD_FACTOR = 0.5f;
+	private static final float LZ78_DENSE_DICTIONARY_LOAD_FACTOR = 0.9f;
+
+	private final int sampleSize;
+	private final BufferFactory bufferFactory;
+	private final boolean recordHeaders;
+	// The Strings stored so far, until the engine is chosen, then null
+	private volatile String[] sample;
+	private int sampleCount;
+	private KnotStorage chosen;
+	private String chosenEngine;
+	private int[] sampleIndexes;
+	private final Map<String, Object> candidateStatistics = new LinkedHashMap<String, Object>();
+
+	/**
+	 * @param sampleSize
+	 *            the number of Strings to store before choosing an engine
+	 * @param bufferFactory
+	 *            creates the buffers of the candidates
+	 * @param recordHeaders
+	 *            if true, each String is stored with its hash code, length in chars, and whether it is all ASCII.
+	 */
+	AdaptiveKnotStorage(int sampleSize, BufferFactory bufferFactory, boolean recordHeaders) {
+		if (sampleSize < 1) {
+			throw new IllegalArgumentException("sampleSize must be positive: " + sampleSize);
+		}
+		this.sampleSize = sampleSize;
+		this.bufferFactory = bufferFactory;
+		this.recordHeaders = recordHeaders;
+		this.sample = new String[sampleSize];
+	}
+
+	@Override
+	public int store(String string) {
+		if (sample != null) {
+			int index = sampleCount;
+			sample[sampleCount++] = string;
+			if (sampleCount == sampleSize) {
+				choose();
+			}
+			return index;
+		}
+		int index = chosen.store(string);
+		if (index > Integer.MAX_VALUE - sampleSize) {
+			throw new IllegalStateException("Knot is full. The " + chosenEngine + " storage has reached " + index
+					+ " bytes");
+		}
+		return sampleSize + index;
+	}
+
+	private void choose() {
+		String[] strings = Arrays.copyOf(sample, sampleCount);
+		KnotStorage[] candidates = new KnotStorage[CANDIDATES.length];
+		int[][] candidateIndexes = new int[CANDIDATES.length][];
+		long[] sizes = new long[CANDIDATES.length];
+		long[] lookupNanos = new long[CANDIDATES.length];
+		long smallest = Long.MAX_VALUE;
+		for (int c = 0; c < CANDIDATES.length; c++) {
+			Buffer buffer = bufferFactory.newBuffer(0);
+			candidates[c] = newCandidate(CANDIDATES[c], buffer, strings);
+			candidateIndexes[c] = new int[strings.length];
+			long start = System.nanoTime();
+			for (int i = 0; i < strings.length; i++) {
+				candidateIndexes[c][i] = candidates[c].store(strings[i]);
+			}
+			long storeNanos = System.nanoTime() - start;
+			DecodeScratch scratch = new DecodeScratch();
+			// once to warm up, then timed
+			lookupAll(candidates[c], candidateIndexes[c], scratch);
+			start = System.nanoTime();
+			lookupAll(candidates[c], candidateIndexes[c], scratch);
+			lookupNanos[c] = System.nanoTime() - start;
+			// Not counting the spare capacity of the buffer, which depends on how it happens to have grown
+			sizes[c] = buffer.nextWritePosition();
+			if (indexGrowsWithData(CANDIDATES[c])) {
+				sizes[c] += candidates[c].spaceUsed() - buffer.getSize();
+			}
+			smallest = Math.min(smallest, sizes[c]);
+			candidateStatistics.put("adaptive." + CANDIDATES[c] + ".size", sizes[c]);
+			candidateStatistics.put("adaptive." + CANDIDATES[c] + ".storeNanos", storeNanos);
+			candidateStatistics.put("adaptive." + CANDIDATES[c] + ".lookupNanos", lookupNanos[c]);
+		}
+		int preferred = -1;
+		int fastest = -1;
+		for (int c = 0; c < CANDIDATES.length; c++) {
+			if (sizes[c] <= smallest * (1 + SIZE_TOLERANCE)) {
+				if (preferred == -1) {
+					preferred = c;
+				}
+				if (fastest == -1 || lookupNanos[c] < lookupNanos[fastest]) {
+					fastest = c;
+				}
+			}
+		}
+		int best = lookupNanos[fastest] < lookupNanos[preferred] * FASTER_FRACTION ? fastest : preferred;
+		for (int c = 0; c < CANDIDATES.length; c++) {
+			if (c != best) {
+				candidates[c].close();
+			}
+		}
+		chosen = candidates[best];
+		chosenEngine = CANDIDATES[best];
+		sampleIndexes = candidateIndexes[best];
+		// release
+		sample = null;
+	}
+
+	/**
+	 * The LZ78 dictionary grows with the data, so it is part of the cost of each String. The LZ77 hash table and the
+	 * FSST symbol table have a fixed maximum size, which a small sample would overstate.
+	 */
+	private static boolean indexGrowsWithData(String engine) {
+		return engine.startsWith(LZ78);
+	}
+
+	private static void lookupAll(KnotStorage storage, int[] indexes, DecodeScratch scratch) {
+		for (int index : indexes) {
+			storage.lookupUtf8(index, scratch);
+		}
+	}
+
+	private LZ78KnotStorage.Options lz78Options(float dictionaryLoadFactor) {
+		return new LZ78KnotStorage.Options(LZ78_DICTIONARY_CAPACITY, dictionaryLoadFactor).directDictionary(
+				bufferFactory.isDirect()).recordHeaders(recordHeaders);
+	}
+
+	private KnotStorage newCandidate(String engine, Buffer buffer, String[] strings) {
+		if (engine.equals(RAW)) {
+			return new RawKnotStorage(buffer, recordHeaders);
+		}
+		if (engine.equals(LZ78)) {
+			return new LZ78KnotStorage(buffer, lz78Options(LZ78_DICTIONARY_LOAD_FACTOR));
+		}
+		if (engine.equals(LZ78_DENSE_DICTIONARY)) {
+			return new LZ78KnotStorage(buffer, lz78Options(LZ78_DENSE_DICTIONARY_LOAD_FACTOR));
+		}
+		if (engine.equals(LZ78_RELATIVE_POINTERS)) {
+			return new LZ78KnotStorage(buffer, lz78Options(LZ78_DICTIONARY_LOAD_FACTOR).format(
+					LZ78KnotStorage.RELATIVE_POINTERS));
+		}
+		if (engine.equals(LZ77)) {
+			return new LZ77KnotStorage(buffer, LZ77KnotStorage.DEFAULT_MAX_TABLE_SIZE, recordHeaders);
+		}
+		return new FSSTKnotStorage(buffer, FSSTSymbolTable.train(Arrays.asList(strings)), recordHeaders);
+	}
+
+	private int chosenIndex(int index) {
+		return index < sampleSize ? sampleIndexes[index] : index - sampleSize;
+	}
+
+	/**
+	 * @return the UTF-8 bytes of a String of the sample, as any storage would return them (with '?' in place of an
+	 *         unpaired surrogate)
+	 */
+	private static byte[] utf8(String[] sample, int index) {
+		return sample[index].getBytes(Utf8.CHARSET);
+	}
+
+	@Override
+	public String lookup(int index) {
+		String[] sample = this.sample;
+		if (sample != null) {
+			return new String(utf8(sample, index), Utf8.CHARSET);
+		}
+		return chosen.lookup(chosenIndex(index));
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		String[] sample = this.sample;
+		if (sample != null) {
+			scratch.setBytes(utf8(sample, index));
+			return;
+		}
+		chosen.lookupUtf8(chosenIndex(index), scratch);
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		String[] sample = this.sample;
+		if (sample != null) {
+			final byte[] bytes = utf8(sample, index);
+			return new ByteCursor() {
+				private int position = 0;
+
+				@Override
+				public int next() {
+					return position < bytes.length ? bytes[position++] & 0xFF : -1;
+				}
+			};
+		}
+		return chosen.cursor(chosenIndex(index));
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return false;
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		return recordHeaders;
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		String[] sample = this.sample;
+		if (sample != null) {
+			return lookup(index).hashCode();
+		}
+		return chosen.storedHashCode(chosenIndex(index));
+	}
+
+	@Override
+	public int storedLength(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		String[] sample = this.sample;
+		if (sample != null) {
+			return lookup(index).length();
+		}
+		return chosen.storedLength(chosenIndex(index));
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		String[] sample = this.sample;
+		if (sample != null) {
+			return utf8(sample, index).length == sample[index].length();
+		}
+		return chosen.storedAscii(chosenIndex(index));
+	}
+
+	/**
+	 * Until the engine is chosen, the chars of the sample.
+	 */
+	@Override
+	public long spaceUsed() {
+		String[] sample = this.sample;
+		if (sample != null) {
+			long spaceUsed = 0;
+			for (int i = 0; i < sampleCount; i++) {
+				spaceUsed += 2L * sample[i].length();
+			}
+			return spaceUsed;
+		}
+		return chosen.spaceUsed() + sampleIndexes.length * 4L;
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		statistics.put("adaptive.sampleSize", sampleSize);
+		if (sample != null) {
+			statistics.put("adaptive.sampled", sampleCount);
+			return;
+		}
+		statistics.put("adaptive.engine", chosenEngine);
+		statistics.putAll(candidateStatistics);
+		chosen.addStatistics(statistics);
+	}
+
+	/**
+	 * Chooses the engine straight away, from the Strings stored so far.
+	 */
+	@Override
+	public void flush() {
+		if (sample != null) {
+			if (sampleCount == 0) {
+				return;
+			}
+			choose();
+		}
+		chosen.flush();
+	}
+
+	@Override
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(KnotSnapshot.ADAPTIVE_STORAGE);
+		out.writeInt(sampleSize);
+		out.writeBoolean(recordHeaders);
+		String[] sample = this.sample;
+		if (sample != null) {
+			out.writeBoolean(false);
+			out.writeInt(sampleCount);
+			for (int i = 0; i < sampleCount; i++) {
+				byte[] bytes = sample[i].getBytes(Utf8.CHARSET);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			return;
+		}
+		out.writeBoolean(true);
+		out.writeUTF(chosenEngine);
+		out.writeInt(sampleIndexes.length);
+		KnotSnapshot.writeInts(out, sampleIndexes);
+		chosen.save(out);
+	}
+
+	static AdaptiveKnotStorage load(DataInput in, BufferFactory bufferFactory) throws IOException {
+		int sampleSize = in.readInt();
+		boolean recordHeaders = in.readBoolean();
+		AdaptiveKnotStorage storage = new AdaptiveKnotStorage(sampleSize, bufferFactory, recordHeaders);
+		if (!in.readBoolean()) {
+			int sampleCount = in.readInt();
+			if (sampleCount < 0 || sampleCount >= sampleSize) {
+				throw new IOException("Corrupt Knot snapshot. Invalid adaptive sample count: " + sampleCount);
+			}
+			for (int i = 0; i < sampleCount; i++) {
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				storage.sample[i] = new String(bytes, Utf8.CHARSET);
+			}
+			storage.sampleCount = sampleCount;
+			return storage;
+		}
+		storage.chosenEngine = in.readUTF();
+		int[] sampleIndexes = new int[in.readInt()];
+		if (sampleIndexes.length > sampleSize) {
+			throw new IOException("Corrupt Knot snapshot. Invalid adaptive sample count: " + sampleIndexes.length);
+		}
+		KnotSnapshot.readInts(in, sampleIndexes);
+		storage.sampleIndexes = sampleIndexes;
+		storage.chosen = KnotSnapshot.loadStorage(in, bufferFactory);
+		storage.sample = null;
+		return storage;
+	}
+
+	@Override
+	public void close() {
+		if (chosen != null) {
+			chosen.close();
+		}
+	}
+
+}
@@ -3,6 +3,11 @@ package org.reific.braid;
 import java.io.DataInput;
 import java.io.DataOutput;
 
+/**
+ * Not thread safe. A record is never modified once written, and the segments and their positions only ever grow, so
+ * readers in other threads are safe as long as they synchronize with the writer after the record they are reading was
+ * written (see {@link SingleWriterKnotStorage}).
+ */
 final class AutoGrowingByteArray implements Buffer {
 
 	// When an underlying buffer fills, an additional buffer GROWTH_FACTOR times the
@@ -20,7 +25,7 @@ final class AutoGrowingByteArray implements Buffer {
 	private int currentBuffer = 0;
 	private int totalSizeOfPreviousBuffers = 0;
 
-	private int[] positions = new int[MAX_NUM_OF_BYTE_BUFFERS];
+	private final int[] positions = new int[MAX_NUM_OF_BYTE_BUFFERS];
 
 	public AutoGrowingByteArray(int initialCapacity, float growthFactor) {
 		if (initialCapacity < MIN_SIZE) {
@@ -83,6 +88,42 @@ final class AutoGrowingByteArray implements Buffer {
 		return dataArray[bufferNumber][logicalIndex];
 	}
 
+	@Override
+	public void putBytes(byte[] source, int offset, int length) {
+		while (length > 0) {
+			growIfNeeded(1);
+			int count = Math.min(length, dataArray[currentBuffer].length - positions[currentBuffer]);
+			System.arraycopy(source, offset, dataArray[currentBuffer], positions[currentBuffer], count);
+			positions[currentBuffer] += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	@Override
+	public void getBytes(int logicalIndex, byte[] destination, int offset, int length) {
+		int bufferNumber = 0;
+		while (logicalIndex >= positions[bufferNumber]) {
+			logicalIndex -= positions[bufferNumber++];
+		}
+		while (length > 0) {
+			int count = Math.min(length, positions[bufferNumber] - logicalIndex);
+			System.arraycopy(dataArray[bufferNumber], logicalIndex, destination, offset, count);
+			offset += count;
+			length -= count;
+			logicalIndex = 0;
+			bufferNumber++;
+		}
+	}
+
+	@Override
+	public void close() {
+		// Nothing to free explicitly, but let the segments be collected even if this buffer is still referenced
+		for (int i = 0; i <= currentBuffer; i++) {
+			dataArray[i] = null;
+		}
+	}
+
 	private void growIfNeeded(int neededSpace) {
 		if (positions[currentBuffer] + neededSpace > dataArray[currentBuffer].length) {
 			totalSizeOfPreviousBuffers += positions[currentBuffer];
@@ -23,15 +23,27 @@ class AutoGrowingByteBuffer implements Buffer {
 	private int totalSizeOfPreviousBuffers = 0;
 
 	public AutoGrowingByteBuffer(int initialCapacity, float growthFactor, boolean direct) {
-		if (initialCapacity < MIN_SIZE) {
-			initialCapacity = MIN_SIZE;
-		}
+		this(growthFactor, direct);
+		allocateFirstSegment(initialCapacity);
+	}
+
+	/**
+	 * For a subclass that allocates its own segments, which must call {@link #allocateFirstSegment(int)} once its own
+	 * fields are set.
+	 */
+	AutoGrowingByteBuffer(float growthFactor, boolean direct) {
 		this.growthFactor = growthFactor < MIN_GROWTH_FACTOR ? MIN_GROWTH_FACTOR : growthFactor;
 		this.direct = direct;
+	}
+
+	final void allocateFirstSegment(int initialCapacity) {
 		data[currentBuffer] = allocate(initialCapacity < MIN_SIZE ? MIN_SIZE : initialCapacity);
 	}
 
-	private ByteBuffer allocate(int capacity) {
+	/**
+	 * @return a new, empty segment
+	 */
+	ByteBuffer allocate(int capacity) {
 		if (direct) {
 			return ByteBuffer.allocateDirect(capacity);
 		} else {
@@ -96,10 +108,51 @@ class AutoGrowingByteBuffer implements Buffer {
 		return data[bufferNumber].get(logicalIndex);
 	}
 
+	@Override
+	public void putBytes(byte[] source, int offset, int length) {
+		while (length > 0) {
+			growIfNeeded(1);
+			int count = Math.min(length, data[currentBuffer].remaining());
+			data[currentBuffer].put(source, offset, count);
+			offset += count;
+			length -= count;
+		}
+	}
+
+	@Override
+	public void getBytes(int logicalIndex, byte[] destination, int offset, int length) {
+		int bufferNumber = 0;
+		while (logicalIndex >= data[bufferNumber].position()) {
+			logicalIndex -= data[bufferNumber++].position();
+		}
+		while (length > 0) {
+			// absolute gets, so that concurrent readers neither share a position nor allocate a duplicate per call
+			ByteBuffer buffer = data[bufferNumber];
+			int count = Math.min(length, buffer.position() - logicalIndex);
+			for (int i = 0; i < count; i++) {
+				destination[offset + i] = buffer.get(logicalIndex + i);
+			}
+			offset += count;
+			length -= count;
+			logicalIndex = 0;
+			bufferNumber++;
+		}
+	}
+
+	@Override
+	public void close() {
+		for (int i = 0; i <= currentBuffer; i++) {
+			ByteBuffer segment = data[i];
+			data[i] = null;
+			DirectBuffers.free(segment);
+		}
+	}
+
 	private void growIfNeeded(int neededSpace) {
 		if (data[currentBuffer].position() + neededSpace > data[currentBuffer].capacity()) {
 			totalSizeOfPreviousBuffers += data[currentBuffer].position();
-			data[currentBuffer + 1] = allocate((int) (data[currentBuffer].capacity() * growthFactor));
+			long newCapacity = (long) (data[currentBuffer].capacity() * growthFactor);
+			data[currentBuffer + 1] = allocate((int) Math.min(newCapacity, Integer.MAX_VALUE));
 			currentBuffer++;
 
 		}
@@ -1,5 +1,9 @@
 package org.reific.braid;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 /**
  * <p align="left">
  * <img src="logo.jpg"/>
@@ -49,7 +53,7 @@ package org.reific.braid;
  *
  *
  */
-public interface Braid {
+public interface Braid extends Comparable<Braid> {
 
 	// All Braid implementations must return this hashcode if their String value is null
 	static final int SET_TO_NULL_HASH = 0;
@@ -62,4 +66,59 @@ public interface Braid {
 	 */
 	String get();
 
+	/**
+	 * Append the {@link String} data of this {@link Braid} to {@code appendable}, with the same result as
+	 * {@code appendable.append(get())} (so a null value is appended as "null"). The characters are decompressed
+	 * straight into the {@link Appendable}, without creating a String. {@link StringBuilder}, {@link StringBuffer} and
+	 * {@link java.io.Writer} receive the characters in bulk.
+	 * 
+	 * @throws IOException
+	 *             if the {@link Appendable} throws it
+	 */
+	void appendTo(Appendable appendable) throws IOException;
+
+	/**
+	 * @return the {@link String} data of this {@link Braid} as a {@link CharSequence}, or null if the value is null.
+	 *         The data is decompressed once, when this is called, and is held as compactly as a String would hold it.
+	 *         Changes to a {@link MutableBraid} are not reflected in a {@link CharSequence} that was already returned.
+	 */
+	CharSequence asCharSequence();
+
+	/**
+	 * Copy the {@link String} data of this {@link Braid}, encoded as UTF-8, into {@code buffer}, starting at its current
+	 * position. The Knot holds its data as UTF-8, so this avoids decoding to a String and encoding it again.
+	 * 
+	 * @return the number of bytes written, or -1 (with nothing written) if the value is null.
+	 * @throws java.nio.BufferOverflowException
+	 *             if there is not enough room in the buffer, in which case nothing is written.
+	 */
+	int writeUtf8(ByteBuffer buffer);
+
+	/**
+	 * Write the {@link String} data of this {@link Braid}, encoded as UTF-8, to {@code out}. See
+	 * {@link #writeUtf8(ByteBuffer)}.
+	 * 
+	 * @return the number of bytes written, or -1 (with nothing written) if the value is null.
+	 * @throws IOException
+	 *             if the {@link OutputStream} throws it
+	 */
+	int writeUtf8(OutputStream out) throws IOException;
+
+	/**
+	 * @return the number of chars in the {@link String} data of this {@link Braid}, the same as
+	 *         {@code get().length()}, or -1 if the value is null. If the Knot was built with
+	 *         {@link Knots.KnotBuilder#recordHeaders()}, this (and {@link #hashCode()}) are answered without
+	 *         decompressing the data.
+	 */
+	int length();
+
+	/**
+	 * Compare the {@link String} data of this and another {@link Braid}, with the same sign as
+	 * {@code get().compareTo(other.get())}, and a null value before every String. The two Braids may belong to
+	 * different Knots. Each value is only decompressed as far as the first difference between them, so sorting Braids
+	 * usually decompresses just the first few bytes of each.
+	 */
+	@Override
+	int compareTo(Braid other);
+
 }
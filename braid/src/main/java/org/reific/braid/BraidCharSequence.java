@@ -0,0 +1,85 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A {@link CharSequence} of the decompressed value of a {@link Braid}. If every character is ASCII, it holds the UTF-8
+ * bytes as they are, so it is no larger than the equivalent String, otherwise it holds the decoded chars.
+ */
+final class BraidCharSequence implements CharSequence {
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	// exactly one of these is non-null
+	private final byte[] ascii;
+	private final char[] chars;
+
+	/**
+	 * Copies the decoded value out of {@code scratch}
+	 */
+	BraidCharSequence(DecodeScratch scratch) {
+		this(scratch, Utf8.isAscii(scratch.bytes, scratch.length));
+	}
+
+	/**
+	 * @param ascii
+	 *            true if every byte in {@code scratch} is already known to be ASCII
+	 */
+	BraidCharSequence(DecodeScratch scratch, boolean ascii) {
+		if (ascii) {
+			this.ascii = Arrays.copyOf(scratch.bytes, scratch.length);
+			this.chars = null;
+		}
+		else {
+			this.ascii = null;
+			this.chars = Arrays.copyOf(scratch.chars, scratch.decodeChars());
+		}
+	}
+
+	@Override
+	public int length() {
+		return ascii != null ? ascii.length : chars.length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return ascii != null ? (char) ascii[index] : chars[index];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString(start, end);
+	}
+
+	@Override
+	public String toString() {
+		return toString(0, length());
+	}
+
+	private String toString(int start, int end) {
+		if (ascii != null) {
+			return new String(ascii, start, end - start, ASCII);
+		}
+		return new String(chars, start, end - start);
+	}
+
+}
@@ -0,0 +1,370 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A {@link Map} with String keys that are stored in a {@link Knot}. Null keys and values are allowed.
+ * <p>
+ * This is an open addressing hash table, with linear probing. Each slot is the key's handle (see
+ * {@link Knot#store(String)}), its {@link String#hashCode()}, and its value, each in its own array. A lookup compares
+ * the hash codes, and only reads a key from the Knot when its hash code matches, with
+ * {@link Knot#handleEquals(int, String)}, which decompresses it only as far as its first difference from the key being
+ * looked up. Resizing uses the stored hash codes, and never reads the keys.
+ * <p>
+ * A slot takes 12 bytes (with compressed references), and the table is between 3/8 and 3/4 full, so an entry takes 16
+ * to 32 bytes, plus its compressed key. A {@link java.util.HashMap} entry takes 32 bytes, plus its slot in the table,
+ * plus a String object and its chars. A Knot never forgets what it has stored, so removing an entry doesn't free the
+ * space its key took in the Knot. For a map that is filled once and then read, flushing the Knot after filling it frees
+ * the LZ78 dictionary, which is otherwise most of the Knot.
+ * <p>
+ * As for {@link java.util.HashMap}, this is not thread safe, and its iterators are fail-fast. The iterators visit the
+ * slots from a free slot backwards, so that removing an entry through an iterator (which shifts later entries of its
+ * cluster back into the gap) only ever moves entries that have already been visited.
+ */
+public final class BraidHashMap<V> extends AbstractMap<String, V> {
+
+	private static final float LOAD_FACTOR = 0.75f;
+	// A key handle that marks a free slot. Handles are never less than Knot.EMPTY_STRING_HANDLE.
+	private static final int FREE = Integer.MIN_VALUE;
+
+	private final Knot knot;
+	private int[] keys;
+	private int[] hashes;
+	private Object[] values;
+	private int mask;
+	private int size = 0;
+	private int resizeAt;
+	private int modCount = 0;
+	private Set<Map.Entry<String, V>> entrySet = null;
+
+	public BraidHashMap(Knot knot) {
+		this(knot, 16);
+	}
+
+	/**
+	 * @param expectedSize
+	 *            the number of entries the map can hold before it has to grow.
+	 */
+	public BraidHashMap(Knot knot, int expectedSize) {
+		if (knot == null) {
+			throw new NullPointerException("null Knot");
+		}
+		if (expectedSize < 0) {
+			throw new IllegalArgumentException("Negative expected size: " + expectedSize);
+		}
+		this.knot = knot;
+		int capacity = Integer.highestOneBit(Math.max((int) Math.ceil(expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		Arrays.fill(keys, FREE);
+		hashes = new int[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		resizeAt = (int) (capacity * LOAD_FACTOR);
+	}
+
+	/**
+	 * @return the Knot the keys are stored in.
+	 */
+	public Knot knot() {
+		return knot;
+	}
+
+	private static int hash(String key) {
+		return key == null ? Braid.SET_TO_NULL_HASH : key.hashCode();
+	}
+
+	private int home(int hash) {
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * @return the slot holding {@code key}, or -1 if it isn't in the map.
+	 */
+	private int slotOf(Object key) {
+		if (key != null && !(key instanceof String)) {
+			return -1;
+		}
+		String string = (String) key;
+		int hash = hash(string);
+		for (int slot = home(hash); keys[slot] != FREE; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && knot.handleEquals(keys[slot], string)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return slotOf(key) != -1;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		int slot = slotOf(key);
+		return slot == -1 ? null : (V) values[slot];
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V put(String key, V value) {
+		int hash = hash(key);
+		int slot = home(hash);
+		for (; keys[slot] != FREE; slot = (slot + 1) & mask) {
+			if (hashes[slot] == hash && knot.handleEquals(keys[slot], key)) {
+				V previous = (V) values[slot];
+				values[slot] = value;
+				return previous;
+			}
+		}
+		if (size == resizeAt) {
+			resize();
+			for (slot = home(hash); keys[slot] != FREE; slot = (slot + 1) & mask) {
+				// find the free slot in the new table
+			}
+		}
+		keys[slot] = knot.store(key);
+		hashes[slot] = hash;
+		values[slot] = value;
+		size++;
+		modCount++;
+		return null;
+	}
+
+	private void resize() {
+		int[] oldKeys = keys;
+		int[] oldHashes = hashes;
+		Object[] oldValues = values;
+		allocate(keys.length * 2);
+		for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+			if (oldKeys[oldSlot] != FREE) {
+				int slot = home(oldHashes[oldSlot]);
+				while (keys[slot] != FREE) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[oldSlot];
+				hashes[slot] = oldHashes[oldSlot];
+				values[slot] = oldValues[oldSlot];
+			}
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V remove(Object key) {
+		int slot = slotOf(key);
+		if (slot == -1) {
+			return null;
+		}
+		V previous = (V) values[slot];
+		removeSlot(slot);
+		return previous;
+	}
+
+	/**
+	 * Later entries of the slot's cluster are shifted back into the gap, so every entry can still be reached by probing
+	 * from its home slot.
+	 */
+	private void removeSlot(int hole) {
+		for (int slot = (hole + 1) & mask; keys[slot] != FREE; slot = (slot + 1) & mask) {
+			int home = home(hashes[slot]);
+			// The entry can fill the hole unless its home is (cyclically) after the hole
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				keys[hole] = keys[slot];
+				hashes[hole] = hashes[slot];
+				values[hole] = values[slot];
+				hole = slot;
+			}
+		}
+		keys[hole] = FREE;
+		values[hole] = null;
+		size--;
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		Arrays.fill(values, null);
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * @return roughly the number of bytes taken by the table, not including the values themselves. The keys are counted
+	 *         by {@link Knot#spaceUsed()}.
+	 */
+	public long tableSpaceUsed() {
+		// array headers are 16 bytes, and references 4 bytes
+		return 3 * 16 + 12L * keys.length;
+	}
+
+	@Override
+	public Set<Map.Entry<String, V>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new EntrySet();
+		}
+		return entrySet;
+	}
+
+	private final class EntrySet extends AbstractSet<Map.Entry<String, V>> {
+
+		@Override
+		public Iterator<Map.Entry<String, V>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public void clear() {
+			BraidHashMap.this.clear();
+		}
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, V>> {
+
+		private int expectedModCount = modCount;
+		private int remaining = size;
+		private int slot;
+		private int current = -1;
+
+		EntryIterator() {
+			// The table is never full, so there is always a free slot to start from
+			slot = 0;
+			while (keys[slot] != FREE) {
+				slot++;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public Map.Entry<String, V> next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (remaining == 0) {
+				throw new NoSuchElementException();
+			}
+			do {
+				slot = (slot - 1) & mask;
+			} while (keys[slot] == FREE);
+			remaining--;
+			current = slot;
+			return new Entry(slot);
+		}
+
+		@Override
+		public void remove() {
+			if (current == -1) {
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			removeSlot(current);
+			current = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	/**
+	 * An entry of the table. The key is only read from the Knot when it is asked for.
+	 */
+	private final class Entry implements Map.Entry<String, V> {
+
+		private final int slot;
+		private final int key;
+		private final int hash;
+
+		Entry(int slot) {
+			this.slot = slot;
+			this.key = keys[slot];
+			this.hash = hashes[slot];
+		}
+
+		@Override
+		public String getKey() {
+			return knot.get(key);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public V getValue() {
+			return (V) values[slot];
+		}
+
+		@Override
+		public V setValue(V value) {
+			V previous = getValue();
+			values[slot] = value;
+			return previous;
+		}
+
+		@Override
+		public boolean equals(Object object) {
+			if (!(object instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+			Object value = getValue();
+			return (entry.getKey() == null || entry.getKey() instanceof String)
+					&& knot.handleEquals(key, (String) entry.getKey())
+					&& (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = getValue();
+			return hash ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+}
@@ -1,5 +1,9 @@
 package org.reific.braid;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 /**
  * A note on memory usage. 
  * 
@@ -42,6 +46,18 @@ final class BraidImpl implements Braid {
 		this.index = this.knot.addString(string);
 	}
 
+	/**
+	 * For a String that has already been added to the Knot.
+	 */
+	BraidImpl(InternalKnot knot, int index) {
+		this.knot = knot;
+		this.index = index;
+	}
+
+	int index() {
+		return index;
+	}
+
 	@Override
 	/**
 	 * {@inheritDoc}
@@ -51,17 +67,79 @@ final class BraidImpl implements Braid {
 		return knot.lookupString(index);
 	}
 
+	@Override
+	public void appendTo(Appendable appendable) throws IOException {
+		knot.appendString(index, appendable);
+	}
+
+	@Override
+	public CharSequence asCharSequence() {
+		return knot.lookupCharSequence(index);
+	}
+
+	@Override
+	public int writeUtf8(ByteBuffer buffer) {
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knot.lookupUtf8(index, scratch);
+			return scratch.writeTo(buffer);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public int writeUtf8(OutputStream out) throws IOException {
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knot.lookupUtf8(index, scratch);
+			return scratch.writeTo(out);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public int length() {
+		return knot.lengthOf(index);
+	}
+
+	CharCursor charCursor() {
+		return knot.charCursor(index);
+	}
+
+	@Override
+	public int compareTo(Braid other) {
+		if (other instanceof BraidImpl) {
+			BraidImpl anotherBraid = (BraidImpl) other;
+			if (anotherBraid.knot == knot && anotherBraid.index == index) {
+				return 0;
+			}
+		}
+		return BraidUtil.compare(this, other);
+	}
+
 	@Override
 	public int hashCode() {
 		if (hash == 0) {
-			hash = get().hashCode();
+			hash = knot.hashCodeOf(index);
 		}
 		return hash;
 	}
 
 	@Override
 	public boolean equals(Object anObject) {
-		//TODO: if other instance is a BraidImpl, and knots are the same, just check the indexes, or maybe delegate this to the braid?
+		if (anObject instanceof BraidImpl) {
+			BraidImpl anotherBraid = (BraidImpl) anObject;
+			if (anotherBraid.knot == knot) {
+				if (anotherBraid.index == index) {
+					return true;
+				}
+				if (knot.uniqueIndexes()) {
+					return false;
+				}
+			}
+		}
 		return BraidUtil.equals(this, anObject);
 	}
 
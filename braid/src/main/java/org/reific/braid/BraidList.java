@@ -0,0 +1,195 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+/**
+ * A {@link java.util.List} of Strings that are stored in a {@link Knot}, holding only the int handle of each one (see
+ * {@link Knot#store(String)}) rather than a {@link Braid} object. Null and the empty String are allowed.
+ * <p>
+ * Each element is decompressed when it is read, and stored when it is added or set. A Knot never forgets what it has
+ * stored, so replacing or removing an element doesn't free the space its String took in the Knot.
+ * <p>
+ * The handles can also be bit-packed (see {@link #BraidList(Knot, boolean)}), which for Strings added one after another
+ * usually takes 12 to 16 bits per element, rather than 32. Reading an element is then a little slower, and inserting
+ * or removing anywhere except at the end is much slower.
+ * <p>
+ * As for {@link java.util.ArrayList}, this is not thread safe, and its iterators are fail-fast.
+ */
+public final class BraidList extends AbstractList<String> implements RandomAccess {
+
+	private final Knot knot;
+	private final HandleArray handles;
+
+	/**
+	 * A list with an int array of handles.
+	 */
+	public BraidList(Knot knot) {
+		this(knot, false);
+	}
+
+	/**
+	 * @param packedHandles
+	 *            if true, bit-pack the array of handles.
+	 */
+	public BraidList(Knot knot, boolean packedHandles) {
+		if (knot == null) {
+			throw new NullPointerException("null Knot");
+		}
+		this.knot = knot;
+		this.handles = packedHandles ? new PackedHandleArray() : new IntHandleArray();
+	}
+
+	/**
+	 * @return the Knot the elements are stored in.
+	 */
+	public Knot knot() {
+		return knot;
+	}
+
+	@Override
+	public int size() {
+		return handles.size();
+	}
+
+	@Override
+	public String get(int index) {
+		return knot.get(handles.get(checkIndex(index)));
+	}
+
+	@Override
+	public String set(int index, String element) {
+		String previous = get(index);
+		handles.set(index, knot.store(element));
+		return previous;
+	}
+
+	@Override
+	public boolean add(String element) {
+		handles.add(knot.store(element));
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public void add(int index, String element) {
+		checkPositionIndex(index);
+		handles.insert(index, new int[] { knot.store(element) });
+		modCount++;
+	}
+
+	/**
+	 * Stores all of the elements, and then inserts their handles in one go.
+	 */
+	@Override
+	public boolean addAll(int index, Collection<? extends String> elements) {
+		checkPositionIndex(index);
+		int[] newHandles = storeAll(elements);
+		handles.insert(index, newHandles);
+		modCount++;
+		return newHandles.length != 0;
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends String> elements) {
+		return addAll(handles.size(), elements);
+	}
+
+	private int[] storeAll(Collection<? extends String> elements) {
+		int[] newHandles = new int[elements.size()];
+		int i = 0;
+		for (String element : elements) {
+			newHandles[i++] = knot.store(element);
+		}
+		return newHandles;
+	}
+
+	@Override
+	public String remove(int index) {
+		String previous = get(index);
+		handles.remove(index);
+		modCount++;
+		return previous;
+	}
+
+	@Override
+	public void clear() {
+		handles.clear();
+		modCount++;
+	}
+
+	/**
+	 * @return true if this list and the other are both {@link BraidList}s with the same Knot, and have equal elements,
+	 *         using {@link Knot#handleEquals(int, int)}. Otherwise, the same as {@link AbstractList#equals(Object)}.
+	 */
+	@Override
+	public boolean equals(Object object) {
+		if (object instanceof BraidList && ((BraidList) object).knot == knot) {
+			HandleArray otherHandles = ((BraidList) object).handles;
+			if (otherHandles.size() != handles.size()) {
+				return false;
+			}
+			for (int i = 0; i < handles.size(); i++) {
+				if (!knot.handleEquals(handles.get(i), otherHandles.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return super.equals(object);
+	}
+
+	/**
+	 * The same as {@link AbstractList#hashCode()}, without decompressing the elements if the Knot was built with
+	 * {@link Knots.KnotBuilder#recordHeaders()}.
+	 */
+	@Override
+	public int hashCode() {
+		int hashCode = 1;
+		for (int i = 0; i < handles.size(); i++) {
+			hashCode = 31 * hashCode + knot.handleHashCode(handles.get(i));
+		}
+		return hashCode;
+	}
+
+	/**
+	 * @return roughly the number of bytes taken by the handles of this list. The Strings themselves are counted by
+	 *         {@link Knot#spaceUsed()}.
+	 */
+	public long handleSpaceUsed() {
+		return handles.spaceUsed();
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= handles.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + handles.size());
+		}
+		return index;
+	}
+
+	private void checkPositionIndex(int index) {
+		if (index < 0 || index > handles.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + handles.size());
+		}
+	}
+
+}
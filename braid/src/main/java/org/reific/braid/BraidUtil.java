@@ -18,8 +18,6 @@
  */
 package org.reific.braid;
 
-import java.util.Objects;
-
 final class BraidUtil {
 	static boolean equals(Braid braid, Object otherPossibleBraid) {
 		if (braid == otherPossibleBraid) {
@@ -33,10 +31,54 @@ final class BraidUtil {
 			if (braid.hashCode() != anotherBraid.hashCode()) {
 				return false;
 			}
-			// Only if the hashcodes are equal do we de-compress the braids and compare the strings.
-			return Objects.equals(braid.get(), anotherBraid.get());
+			// Only if the hashcodes are equal do we de-compress the braids, and then only up to the first difference.
+			return compare(braid, anotherBraid) == 0;
 		}
 		return false;
 	}
 
+	/**
+	 * Compare two Braids as {@link Braid#compareTo(Braid)} describes. Braids of a Knot are read through a
+	 * {@link CharCursor}, so they are decompressed only as far as the first difference.
+	 */
+	static int compare(Braid braid, Braid anotherBraid) {
+		if (braid == anotherBraid) {
+			return 0;
+		}
+		CharCursor cursor = charCursor(braid);
+		CharCursor anotherCursor = charCursor(anotherBraid);
+		if (cursor == null || anotherCursor == null) {
+			// null comes first
+			return cursor == anotherCursor ? 0 : cursor == null ? -1 : 1;
+		}
+		while (true) {
+			int c = cursor.next();
+			int anotherC = anotherCursor.next();
+			if (c != anotherC) {
+				// END is less than any char, so a prefix comes first
+				return c - anotherC;
+			}
+			if (c == CharCursor.END) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * @return null if the value of the Braid is null
+	 */
+	private static CharCursor charCursor(Braid braid) {
+		if (braid instanceof BraidImpl) {
+			return ((BraidImpl) braid).charCursor();
+		}
+		if (braid instanceof InlineBraid) {
+			return ((InlineBraid) braid).charCursor();
+		}
+		if (braid instanceof MutableBraidImpl) {
+			return ((MutableBraidImpl) braid).charCursor();
+		}
+		String string = braid.get();
+		return string == null ? null : CharCursor.of(string);
+	}
+
 }
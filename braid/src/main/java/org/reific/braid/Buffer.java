@@ -38,4 +38,20 @@ public interface Buffer {
 
 	public abstract byte getByte(int logicalIndex);
 
+	/**
+	 * Append {@code length} bytes from {@code source}, starting at {@code offset}. The bytes may be split over more than
+	 * one underlying segment, but will occupy consecutive logical positions.
+	 */
+	public abstract void putBytes(byte[] source, int offset, int length);
+
+	/**
+	 * Copy {@code length} bytes, starting at the given logical position, into {@code destination}.
+	 */
+	public abstract void getBytes(int logicalIndex, byte[] destination, int offset, int length);
+
+	/**
+	 * Release the memory (or files) used by this buffer. The buffer must not be used afterwards.
+	 */
+	public abstract void close();
+
 }
\ No newline at end of file
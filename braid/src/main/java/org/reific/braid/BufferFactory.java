@@ -0,0 +1,34 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+interface BufferFactory {
+
+	/**
+	 * @return a new, empty {@link Buffer}, with an initial segment that can hold at least {@code minimumCapacity} bytes.
+	 */
+	Buffer newBuffer(int minimumCapacity);
+
+	/**
+	 * @return true if the other parts of a loaded storage (such as the LZ78 dictionary) should also be held outside the
+	 *         Java heap.
+	 */
+	boolean isDirect();
+
+}
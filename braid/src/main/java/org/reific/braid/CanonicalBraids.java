@@ -0,0 +1,107 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+/**
+ * The single {@link Braid} instance for each index of a Knot. Combined with a storage with
+ * {@link KnotStorage#uniqueIndexes()}, braiding equal Strings returns the same Braid instance.
+ * <p>
+ * Every Braid handed out is kept, so this costs a Braid (and a table slot) per distinct String, for as long as the
+ * Knot is reachable, even if the caller has discarded the Braid.
+ * <p>
+ * Thread safe. The table is split into segments, each with its own lock, so concurrent writers rarely wait for each
+ * other.
+ */
+final class CanonicalBraids {
+
+	private static final int SEGMENT_BITS = 4;
+	private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+	private final InternalKnot knot;
+	private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+	CanonicalBraids(InternalKnot knot) {
+		this.knot = knot;
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * @return the Braid for the given index, creating it if this is the first time the index has been seen.
+	 */
+	Braid braidFor(int index) {
+		int hash = hash(index);
+		Segment segment = segments[hash & (segments.length - 1)];
+		synchronized (segment) {
+			return segment.braidFor(index, hash >>> SEGMENT_BITS);
+		}
+	}
+
+	/**
+	 * Part of the Murmur3 finalizer. Indexes are positions in the buffer, so their low bits alone aren't well
+	 * distributed.
+	 */
+	private static int hash(int index) {
+		int hash = index;
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		return hash;
+	}
+
+	private final class Segment {
+		private BraidImpl[] braids = new BraidImpl[INITIAL_SEGMENT_CAPACITY];
+		private int size = 0;
+
+		Braid braidFor(int index, int hash) {
+			int mask = braids.length - 1;
+			int slot = hash & mask;
+			BraidImpl braid;
+			while ((braid = braids[slot]) != null) {
+				if (braid.index() == index) {
+					return braid;
+				}
+				slot = (slot + 1) & mask;
+			}
+			braid = new BraidImpl(knot, index);
+			braids[slot] = braid;
+			if (++size > braids.length / 2) {
+				resize();
+			}
+			return braid;
+		}
+
+		private void resize() {
+			BraidImpl[] oldBraids = braids;
+			braids = new BraidImpl[oldBraids.length * 2];
+			int mask = braids.length - 1;
+			for (BraidImpl braid : oldBraids) {
+				if (braid != null) {
+					int slot = (hash(braid.index()) >>> SEGMENT_BITS) & mask;
+					while (braids[slot] != null) {
+						slot = (slot + 1) & mask;
+					}
+					braids[slot] = braid;
+				}
+			}
+		}
+	}
+
+}
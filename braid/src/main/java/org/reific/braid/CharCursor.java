@@ -0,0 +1,108 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+/**
+ * Reads the chars of a {@link Braid} one at a time, in the order of {@link String#charAt(int)}.
+ */
+abstract class CharCursor {
+
+	static final int END = -1;
+
+	/**
+	 * @return the next char, or {@link #END} after the last one.
+	 */
+	abstract int next();
+
+	/**
+	 * @return true if the rest of the chars are those of {@code string}. Reads only as far as the first difference.
+	 */
+	final boolean matches(String string) {
+		for (int i = 0; i < string.length(); i++) {
+			if (next() != string.charAt(i)) {
+				return false;
+			}
+		}
+		return next() == END;
+	}
+
+	static CharCursor of(String string) {
+		return new StringCursor(string);
+	}
+
+	/**
+	 * Decodes the bytes of {@code bytes} as they are read. As for {@link Utf8}, they must be well-formed.
+	 */
+	static CharCursor of(ByteCursor bytes) {
+		return new Utf8Cursor(bytes);
+	}
+
+	private static final class StringCursor extends CharCursor {
+
+		private final String string;
+		private int position = 0;
+
+		StringCursor(String string) {
+			this.string = string;
+		}
+
+		@Override
+		int next() {
+			return position < string.length() ? string.charAt(position++) : END;
+		}
+	}
+
+	private static final class Utf8Cursor extends CharCursor {
+
+		private final ByteCursor bytes;
+		// the second half of a surrogate pair, or 0 if there is none waiting
+		private char lowSurrogate = 0;
+
+		Utf8Cursor(ByteCursor bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		int next() {
+			if (lowSurrogate != 0) {
+				char c = lowSurrogate;
+				lowSurrogate = 0;
+				return c;
+			}
+			int b = bytes.next();
+			if (b < 0x80) {
+				// ASCII, or the end
+				return b;
+			}
+			if ((b & 0xE0) == 0xC0) {
+				return ((b & 0x1F) << 6) | (bytes.next() & 0x3F);
+			}
+			if ((b & 0xF0) == 0xE0) {
+				int c = ((b & 0x0F) << 12) | ((bytes.next() & 0x3F) << 6);
+				return c | (bytes.next() & 0x3F);
+			}
+			int codePoint = ((b & 0x07) << 18) | ((bytes.next() & 0x3F) << 12);
+			codePoint |= (bytes.next() & 0x3F) << 6;
+			codePoint |= bytes.next() & 0x3F;
+			lowSurrogate = Character.lowSurrogate(codePoint);
+			return Character.highSurrogate(codePoint);
+		}
+	}
+
+}
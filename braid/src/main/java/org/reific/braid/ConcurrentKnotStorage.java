@@ -0,0 +1,288 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A {@link KnotStorage} that accepts many concurrent writers, by striping the data over several independent
+ * {@link KnotStorage}s, each guarded by its own lock.
+ * <p>
+ * An LZ78 record can't be encoded independently of where it is placed in the buffer (every token points at the absolute
+ * position of its prefix, which may be in the same record), so a stripe is the unit of atomic space reservation. A writer
+ * starts at the stripe associated with its thread, and moves on to the next stripe if that one is busy, only blocking
+ * if every stripe is busy.
+ * <p>
+ * The returned index is the index within the stripe, shifted left, with the stripe number in the low-order bits.
+ * <p>
+ * If the stripes deduplicate their Strings, a String must always go to the same stripe, so instead the stripe is chosen
+ * by the hash code of the String, and a writer waits if that stripe is busy.
+ * <p>
+ * Each stripe is a {@link SingleWriterKnotStorage}, where the stripe's lock ensures there is only a single writer at a
+ * time. Lookups never take a lock.
+ */
+final class ConcurrentKnotStorage implements KnotStorage {
+
+	private final Stripe[] stripes;
+	private final int stripeBits;
+	private final int stripeMask;
+	private final int maxStripeIndex;
+	private final boolean stripeByHash;
+
+	private static final class Stripe {
+		final SingleWriterKnotStorage storage;
+		final ReentrantLock lock = new ReentrantLock();
+
+		Stripe(SingleWriterKnotStorage storage) {
+			this.storage = storage;
+		}
+	}
+
+	/**
+	 * @param stripeStorages
+	 *            the underlying storages. The number of storages must be a power of two.
+	 * @param stripeByHash
+	 *            if true, the stripe for a String is chosen by its hash code, rather than by availability.
+	 */
+	ConcurrentKnotStorage(KnotStorage[] stripeStorages, boolean stripeByHash) {
+		this(singleWriter(stripeStorages), stripeByHash);
+	}
+
+	private static SingleWriterKnotStorage[] singleWriter(KnotStorage[] stripeStorages) {
+		SingleWriterKnotStorage[] singleWriterStorages = new SingleWriterKnotStorage[stripeStorages.length];
+		for (int i = 0; i < stripeStorages.length; i++) {
+			singleWriterStorages[i] = new SingleWriterKnotStorage(stripeStorages[i]);
+		}
+		return singleWriterStorages;
+	}
+
+	private ConcurrentKnotStorage(SingleWriterKnotStorage[] stripeStorages, boolean stripeByHash) {
+		int numStripes = stripeStorages.length;
+		if (numStripes < 1 || Integer.bitCount(numStripes) != 1) {
+			throw new IllegalArgumentException("Number of stripes must be a power of two: " + numStripes);
+		}
+		this.stripes = new Stripe[numStripes];
+		for (int i = 0; i < numStripes; i++) {
+			stripes[i] = new Stripe(stripeStorages[i]);
+		}
+		this.stripeBits = Integer.numberOfTrailingZeros(numStripes);
+		this.stripeMask = numStripes - 1;
+		this.maxStripeIndex = Integer.MAX_VALUE >>> stripeBits;
+		this.stripeByHash = stripeByHash;
+	}
+
+	/**
+	 * @return the smallest power of two that is at least {@code concurrencyLevel}.
+	 */
+	static int stripesFor(int concurrencyLevel) {
+		if (concurrencyLevel <= 1) {
+			return 1;
+		}
+		return Math.min(Integer.highestOneBit(concurrencyLevel - 1) << 1, 1 << 16);
+	}
+
+	@Override
+	public int store(String string) {
+		if (stripeByHash) {
+			int hash = string.hashCode();
+			int stripeNumber = (hash ^ (hash >>> 16)) & stripeMask;
+			Stripe stripe = stripes[stripeNumber];
+			stripe.lock.lock();
+			try {
+				return storeLocked(stripe, stripeNumber, string);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		int home = (int) Thread.currentThread().getId() & stripeMask;
+		// Try each stripe once without blocking
+		for (int i = 0; i < stripes.length; i++) {
+			int stripeNumber = (home + i) & stripeMask;
+			Stripe stripe = stripes[stripeNumber];
+			if (stripe.lock.tryLock()) {
+				try {
+					return storeLocked(stripe, stripeNumber, string);
+				} finally {
+					stripe.lock.unlock();
+				}
+			}
+		}
+		// All stripes are busy, so queue up on our own
+		Stripe stripe = stripes[home];
+		stripe.lock.lock();
+		try {
+			return storeLocked(stripe, home, string);
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	private int storeLocked(Stripe stripe, int stripeNumber, String string) {
+		int index = stripe.storage.store(string);
+		if (index > maxStripeIndex) {
+			throw new IllegalStateException("Knot is full. Stripe " + stripeNumber + " has reached " + index
+					+ " bytes");
+		}
+		return (index << stripeBits) | stripeNumber;
+	}
+
+	@Override
+	public String lookup(int index) {
+		return stripes[index & stripeMask].storage.lookup(index >>> stripeBits);
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		stripes[index & stripeMask].storage.lookupUtf8(index >>> stripeBits, scratch);
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		return stripes[index & stripeMask].storage.cursor(index >>> stripeBits);
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		if (!stripeByHash) {
+			return false;
+		}
+		for (Stripe stripe : stripes) {
+			if (!stripe.storage.uniqueIndexes()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		// every stripe is built the same way
+		return stripes[0].storage.hasRecordHeaders();
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		return stripes[index & stripeMask].storage.storedHashCode(index >>> stripeBits);
+	}
+
+	@Override
+	public int storedLength(int index) {
+		return stripes[index & stripeMask].storage.storedLength(index >>> stripeBits);
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		return stripes[index & stripeMask].storage.storedAscii(index >>> stripeBits);
+	}
+
+	@Override
+	public long spaceUsed() {
+		long spaceUsed = 0;
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				spaceUsed += stripe.storage.spaceUsed();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return spaceUsed;
+	}
+
+	/**
+	 * Each stripe's statistics, with keys prefixed by its stripe number (such as {@code stripe0.engine}).
+	 */
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		statistics.put("stripes", stripes.length);
+		for (int i = 0; i < stripes.length; i++) {
+			Map<String, Object> stripeStatistics = new LinkedHashMap<String, Object>();
+			stripes[i].lock.lock();
+			try {
+				stripes[i].storage.addStatistics(stripeStatistics);
+			} finally {
+				stripes[i].lock.unlock();
+			}
+			for (Map.Entry<String, Object> entry : stripeStatistics.entrySet()) {
+				statistics.put("stripe" + i + "." + entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.storage.flush();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.storage.close();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Each stripe is locked while it is being saved, so writers can continue using the other stripes. Strings stored
+	 * in a stripe after it has been saved will not be in the snapshot.
+	 */
+	@Override
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(stripeByHash ? KnotSnapshot.HASH_STRIPED_CONCURRENT_STORAGE : KnotSnapshot.CONCURRENT_STORAGE);
+		out.writeInt(stripes.length);
+		for (Stripe stripe : stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.storage.save(out);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	static ConcurrentKnotStorage load(DataInput in, BufferFactory bufferFactory, boolean stripeByHash)
+			throws IOException {
+		SingleWriterKnotStorage[] stripeStorages = new SingleWriterKnotStorage[in.readInt()];
+		for (int i = 0; i < stripeStorages.length; i++) {
+			KnotStorage stripeStorage = KnotSnapshot.loadStorage(in, bufferFactory);
+			if (!(stripeStorage instanceof SingleWriterKnotStorage)) {
+				throw new IOException("Corrupt Knot snapshot. Unexpected stripe type " + stripeStorage.getClass());
+			}
+			stripeStorages[i] = (SingleWriterKnotStorage) stripeStorage;
+		}
+		return new ConcurrentKnotStorage(stripeStorages, stripeByHash);
+	}
+
+}
@@ -0,0 +1,276 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache of decoded values, by their index in a {@link KnotStorage}: whole Strings, for Knots where a few
+ * Strings are read far more often than the rest, or the phrases of {@link LZ78KnotStorage} tokens. Each entry can
+ * also have a weight (such as its size in bytes), and the total weight is bounded as well as the number of entries.
+ * <p>
+ * When it is full, an entry is evicted with the CLOCK algorithm: a hit marks an entry as referenced, and the clock
+ * hand sweeps the table, clearing the mark of each referenced entry it passes, and evicting the first entry that isn't
+ * marked. An entry that is read again before the hand comes round is kept.
+ * <p>
+ * The table is open addressing, with linear probing, and two to four times as many slots as entries. Lookups never
+ * take a lock. Each entry is immutable (apart from its mark), so a lookup that races with an add or an eviction can
+ * miss an entry that was being moved, but can never return the wrong value. Adding takes a lock, but if another thread
+ * holds it, the value is just not cached, so readers never wait for each other. Nor do they write to the same memory
+ * on every hit: an entry's mark is only written if it isn't already set, and the hits and misses are counted in
+ * stripes, by thread.
+ */
+final class DecodeCache<V> {
+
+	private static final class Entry<V> {
+		final int index;
+		final V value;
+		final int weight;
+		// Set by a hit, and cleared by the clock hand. Not volatile: a lost update only makes eviction less exact.
+		boolean referenced = false;
+
+		Entry(int index, V value, int weight) {
+			this.index = index;
+			this.value = value;
+			this.weight = weight;
+		}
+	}
+
+	/**
+	 * A count that is updated by many threads, in stripes (chosen by thread, like the stripes of a
+	 * {@link ConcurrentKnotStorage}) that are a cache line apart, so threads on different cores rarely write to the same
+	 * line. (LongAdder needs Java 8.)
+	 */
+	private static final class Counter {
+		private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+		// longs in a cache line
+		private static final int PADDING = 8;
+
+		private final AtomicLongArray counts = new AtomicLongArray(STRIPES * PADDING);
+
+		void increment() {
+			counts.incrementAndGet(((int) Thread.currentThread().getId() & (STRIPES - 1)) * PADDING);
+		}
+
+		long get() {
+			long sum = 0;
+			for (int stripe = 0; stripe < STRIPES; stripe++) {
+				sum += counts.get(stripe * PADDING);
+			}
+			return sum;
+		}
+	}
+
+	// the prefix of the statistics keys
+	private final String name;
+	private final int capacity;
+	private final long maxWeight;
+	private final boolean weighted;
+	private final Entry<V>[] table;
+	private final int mask;
+	private final int shift;
+	private final Counter hits = new Counter();
+	private final Counter misses = new Counter();
+
+	// The rest are guarded by the lock
+	private final ReentrantLock lock = new ReentrantLock();
+	private int size = 0;
+	private long weight = 0;
+	private int hand = 0;
+	private long evictions = 0;
+
+	/**
+	 * A cache where every entry has a weight of 1.
+	 * 
+	 * @param capacity
+	 *            the maximum number of entries to keep.
+	 */
+	DecodeCache(String name, int capacity) {
+		this(name, capacity, capacity, false);
+	}
+
+	/**
+	 * @param maxWeight
+	 *            the maximum total weight of the entries.
+	 */
+	DecodeCache(String name, int capacity, long maxWeight) {
+		this(name, capacity, maxWeight, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private DecodeCache(String name, int capacity, long maxWeight, boolean weighted) {
+		if (capacity < 1 || capacity > 1 << 28) {
+			throw new IllegalArgumentException("Decode cache capacity must be from 1 to 2^28: " + capacity);
+		}
+		this.name = name;
+		this.capacity = capacity;
+		this.maxWeight = maxWeight;
+		this.weighted = weighted;
+		int tableSize = Integer.highestOneBit(capacity) << 2;
+		this.table = (Entry<V>[]) new Entry<?>[tableSize];
+		this.mask = tableSize - 1;
+		this.shift = Integer.numberOfLeadingZeros(tableSize) + 1;
+	}
+
+	private int home(int index) {
+		// Fibonacci hashing, since the indexes of a buffer are far from random
+		return (index * 0x9E3779B9) >>> shift;
+	}
+
+	/**
+	 * @return the value with the given index, or null if it isn't cached.
+	 */
+	V get(int index) {
+		for (int slot = home(index), probes = 0; probes < table.length; slot = (slot + 1) & mask, probes++) {
+			Entry<V> entry = table[slot];
+			if (entry == null) {
+				break;
+			}
+			if (entry.index == index) {
+				// Only written when it changes, so that hits on a popular entry don't keep invalidating its cache line
+				if (!entry.referenced) {
+					entry.referenced = true;
+				}
+				hits.increment();
+				return entry.value;
+			}
+		}
+		misses.increment();
+		return null;
+	}
+
+	/**
+	 * Cache a value that {@link #get(int)} missed, with a weight of 1, unless another thread is adding one.
+	 */
+	void put(int index, V value) {
+		put(index, value, 1);
+	}
+
+	/**
+	 * Cache a value that {@link #get(int)} missed, unless another thread is adding one, or it weighs more than the
+	 * whole cache.
+	 */
+	void put(int index, V value, int valueWeight) {
+		if (valueWeight > maxWeight || !lock.tryLock()) {
+			return;
+		}
+		try {
+			int slot = freeSlot(index);
+			if (slot == -1) {
+				// another thread added it since the miss
+				return;
+			}
+			if (size == capacity || weight + valueWeight > maxWeight) {
+				do {
+					evict();
+				} while (weight + valueWeight > maxWeight);
+				slot = freeSlot(index);
+			}
+			table[slot] = new Entry<V>(index, value, valueWeight);
+			size++;
+			weight += valueWeight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the slot to add the index at, or -1 if it is already there.
+	 */
+	private int freeSlot(int index) {
+		int slot = home(index);
+		while (table[slot] != null) {
+			if (table[slot].index == index) {
+				return -1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void evict() {
+		while (true) {
+			Entry<V> entry = table[hand];
+			if (entry != null) {
+				if (!entry.referenced) {
+					remove(hand);
+					evictions++;
+					return;
+				}
+				entry.referenced = false;
+			}
+			hand = (hand + 1) & mask;
+		}
+	}
+
+	/**
+	 * Later entries of the slot's cluster are shifted back into the gap, so every entry can still be reached by probing
+	 * from its home slot.
+	 */
+	private void remove(int hole) {
+		weight -= table[hole].weight;
+		for (int slot = (hole + 1) & mask; table[slot] != null; slot = (slot + 1) & mask) {
+			int home = home(table[slot].index);
+			// The entry can fill the hole unless its home is (cyclically) after the hole
+			if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+				table[hole] = table[slot];
+				hole = slot;
+			}
+		}
+		table[hole] = null;
+		size--;
+	}
+
+	/**
+	 * Remove every entry, so the values can be collected.
+	 */
+	void clear() {
+		lock.lock();
+		try {
+			Arrays.fill(table, null);
+			size = 0;
+			weight = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void addStatistics(Map<String, Object> statistics) {
+		statistics.put(name + ".capacity", capacity);
+		if (weighted) {
+			statistics.put(name + ".maxWeight", maxWeight);
+		}
+		statistics.put(name + ".hits", hits.get());
+		statistics.put(name + ".misses", misses.get());
+		lock.lock();
+		try {
+			statistics.put(name + ".size", size);
+			if (weighted) {
+				statistics.put(name + ".weight", weight);
+			}
+			statistics.put(name + ".evictions", evictions);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
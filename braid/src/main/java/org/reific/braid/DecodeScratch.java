@@ -0,0 +1,156 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable space to decompress the UTF-8 bytes of a String into, so that a lookup doesn't allocate anything apart
+ * from the String itself.
+ * <p>
+ * Each thread has its own instance, obtained with {@link #acquire()} and handed back with {@link #release()}. If the
+ * thread's instance is already in use (a lookup that calls back into a Knot before it finishes) a new instance is
+ * returned instead, so the two never overwrite each other.
+ */
+final class DecodeScratch {
+
+	private static final int INITIAL_SIZE = 256;
+	// Don't let one huge String pin a huge array to the thread forever
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<DecodeScratch> PER_THREAD = new ThreadLocal<DecodeScratch>() {
+		@Override
+		protected DecodeScratch initialValue() {
+			return new DecodeScratch();
+		}
+	};
+
+	byte[] bytes = new byte[INITIAL_SIZE];
+	// number of valid bytes at the start of 'bytes'
+	int length = 0;
+	// UTF-16 decoding of 'bytes', filled by decodeChars()
+	char[] chars = new char[INITIAL_SIZE];
+	private boolean inUse = false;
+
+	static DecodeScratch acquire() {
+		DecodeScratch scratch = PER_THREAD.get();
+		if (scratch.inUse) {
+			return new DecodeScratch();
+		}
+		scratch.inUse = true;
+		return scratch;
+	}
+
+	void release() {
+		inUse = false;
+		if (bytes.length > MAX_RETAINED_SIZE) {
+			bytes = new byte[INITIAL_SIZE];
+		}
+		if (chars.length > MAX_RETAINED_SIZE) {
+			chars = new char[INITIAL_SIZE];
+		}
+	}
+
+	/**
+	 * @return {@link #bytes}, replaced with a larger array (without copying the old contents) if it is smaller than
+	 *         {@code capacity}.
+	 */
+	byte[] ensureCapacity(int capacity) {
+		if (bytes.length < capacity) {
+			bytes = new byte[Math.max(capacity, Math.min(bytes.length * 2, MAX_RETAINED_SIZE))];
+		}
+		return bytes;
+	}
+
+	/**
+	 * Copy the given UTF-8 bytes into {@link #bytes}, for values that aren't stored in compressed form.
+	 */
+	void setBytes(byte[] utf8) {
+		System.arraycopy(utf8, 0, ensureCapacity(utf8.length), 0, utf8.length);
+		length = utf8.length;
+	}
+
+	/**
+	 * @return the number of bytes written
+	 * @throws java.nio.BufferOverflowException
+	 *             if there is not enough room in {@code buffer}, in which case nothing is written.
+	 */
+	int writeTo(ByteBuffer buffer) {
+		buffer.put(bytes, 0, length);
+		return length;
+	}
+
+	/**
+	 * @return the number of bytes written
+	 */
+	int writeTo(OutputStream out) throws IOException {
+		out.write(bytes, 0, length);
+		return length;
+	}
+
+	/**
+	 * Decode the UTF-8 {@link #bytes} into {@link #chars}.
+	 * 
+	 * @return the number of chars
+	 */
+	int decodeChars() {
+		if (chars.length < length) {
+			chars = new char[Math.max(length, Math.min(chars.length * 2, MAX_RETAINED_SIZE))];
+		}
+		return Utf8.decode(bytes, length, chars);
+	}
+
+	/**
+	 * @return the {@link String#hashCode()} of the decoded {@link #bytes}, without creating the String.
+	 */
+	int stringHashCode() {
+		int numChars = decodeChars();
+		int hash = 0;
+		for (int i = 0; i < numChars; i++) {
+			hash = 31 * hash + chars[i];
+		}
+		return hash;
+	}
+
+	/**
+	 * Decode the UTF-8 {@link #bytes}, and append them to {@code appendable}, in bulk where the type of Appendable
+	 * allows it.
+	 */
+	void appendTo(Appendable appendable) throws IOException {
+		int numChars = decodeChars();
+		if (appendable instanceof StringBuilder) {
+			((StringBuilder) appendable).append(chars, 0, numChars);
+		}
+		else if (appendable instanceof Writer) {
+			((Writer) appendable).write(chars, 0, numChars);
+		}
+		else if (appendable instanceof StringBuffer) {
+			((StringBuffer) appendable).append(chars, 0, numChars);
+		}
+		else {
+			for (int i = 0; i < numChars; i++) {
+				appendable.append(chars[i]);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Wraps a {@link KnotStorage} so that each distinct String is only stored once. Storing a String that has already been
+ * stored returns the index of the existing copy.
+ * <p>
+ * The index is an open addressing hash table of the stored indexes, along with the {@link String#hashCode()} of each.
+ * The Strings themselves aren't kept, (which would defeat the point of compressing them), so a matching hash is
+ * confirmed by decoding the stored String a char at a time, only as far as its first difference. The table costs
+ * roughly 16 bytes per distinct String.
+ * <p>
+ * The table is kept when the storage is {@link #flush()}ed, so equal Strings always have the same index.
+ * <p>
+ * Not thread safe. All calls to {@link #store(String)} must be made by a single thread (or be externally
+ * synchronized), although lookups don't touch the table.
+ */
+final class DeduplicatingKnotStorage implements KnotStorage {
+
+	private static final int INITIAL_CAPACITY = 16;
+	// The table is doubled when it is more than half full
+	private static final int MAX_CAPACITY = 1 << 30;
+
+	private final KnotStorage storage;
+	// index + 1 of each stored String, so that zero means an empty slot
+	private int[] indexes;
+	private int[] hashes;
+	private int size = 0;
+
+	DeduplicatingKnotStorage(KnotStorage storage) {
+		this(storage, new int[INITIAL_CAPACITY], new int[INITIAL_CAPACITY], 0);
+	}
+
+	private DeduplicatingKnotStorage(KnotStorage storage, int[] indexes, int[] hashes, int size) {
+		this.storage = storage;
+		this.indexes = indexes;
+		this.hashes = hashes;
+		this.size = size;
+	}
+
+	@Override
+	public int store(String string) {
+		int hash = string.hashCode();
+		int mask = indexes.length - 1;
+		int slot = spread(hash) & mask;
+		boolean recordHeaders = storage.hasRecordHeaders();
+		while (indexes[slot] != 0) {
+			if (hashes[slot] == hash && (!recordHeaders || storage.storedLength(indexes[slot] - 1) == string.length())
+					&& CharCursor.of(storage.cursor(indexes[slot] - 1)).matches(string)) {
+				return indexes[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+		int index = storage.store(string);
+		indexes[slot] = index + 1;
+		hashes[slot] = hash;
+		if (++size > indexes.length / 2 && indexes.length < MAX_CAPACITY) {
+			resize();
+		}
+		return index;
+	}
+
+	private void resize() {
+		int[] oldIndexes = indexes;
+		int[] oldHashes = hashes;
+		indexes = new int[oldIndexes.length * 2];
+		hashes = new int[oldIndexes.length * 2];
+		int mask = indexes.length - 1;
+		for (int i = 0; i < oldIndexes.length; i++) {
+			if (oldIndexes[i] != 0) {
+				int slot = spread(oldHashes[i]) & mask;
+				while (indexes[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				indexes[slot] = oldIndexes[i];
+				hashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	/**
+	 * String hash codes of similar Strings differ mostly in their low bits, so mix in the high bits too (as
+	 * {@link java.util.HashMap} does).
+	 */
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	@Override
+	public String lookup(int index) {
+		return storage.lookup(index);
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		storage.lookupUtf8(index, scratch);
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		return storage.cursor(index);
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return true;
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		return storage.hasRecordHeaders();
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		return storage.storedHashCode(index);
+	}
+
+	@Override
+	public int storedLength(int index) {
+		return storage.storedLength(index);
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		return storage.storedAscii(index);
+	}
+
+	@Override
+	public long spaceUsed() {
+		return storage.spaceUsed() + indexes.length * 8L;
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		storage.addStatistics(statistics);
+		statistics.put("distinctStrings", size);
+	}
+
+	/**
+	 * Flushes the wrapped storage, but keeps the deduplication table, so Strings stored before the flush are still
+	 * found.
+	 */
+	@Override
+	public void flush() {
+		storage.flush();
+	}
+
+	@Override
+	public void close() {
+		storage.close();
+		indexes = null;
+		hashes = null;
+	}
+
+	@Override
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(KnotSnapshot.DEDUPLICATING_STORAGE);
+		out.writeInt(indexes.length);
+		out.writeInt(size);
+		KnotSnapshot.writeInts(out, indexes);
+		KnotSnapshot.writeInts(out, hashes);
+		storage.save(out);
+	}
+
+	static DeduplicatingKnotStorage load(DataInput in, BufferFactory bufferFactory) throws IOException {
+		int capacity = in.readInt();
+		if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+			throw new IOException("Corrupt Knot snapshot. Invalid deduplication table size: " + capacity);
+		}
+		int size = in.readInt();
+		int[] indexes = new int[capacity];
+		int[] hashes = new int[capacity];
+		KnotSnapshot.readInts(in, indexes);
+		KnotSnapshot.readInts(in, hashes);
+		return new DeduplicatingKnotStorage(KnotSnapshot.loadStorage(in, bufferFactory), indexes, hashes, size);
+	}
+
+}
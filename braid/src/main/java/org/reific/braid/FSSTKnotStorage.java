@@ -0,0 +1,220 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A {@link KnotStorage} that compresses each String on its own with a static {@link FSSTSymbolTable} trained from a
+ * sample, rather than with a dictionary that learns from the Strings stored so far. Short Strings (keys, codes, URLs)
+ * compress well from the very first one, and decoding is a simple table-driven loop over the codes of one record.
+ * <p>
+ * A record is the VInt length of the String in UTF-8 bytes, an optional {@link RecordHeader}, the VInt number of bytes
+ * of codes, then the codes.
+ * <p>
+ * Not thread safe.
+ */
+final class FSSTKnotStorage implements KnotStorage {
+
+	private final Buffer byteBuffer;
+	private final FSSTSymbolTable symbolTable;
+	private final boolean recordHeaders;
+	// Reused by each store, since there is a single writer
+	private byte[] codes = new byte[256];
+
+	/**
+	 * @param recordHeaders
+	 *            if true, each String is stored with its hash code, length in chars, and whether it is all ASCII.
+	 */
+	FSSTKnotStorage(Buffer buffer, FSSTSymbolTable symbolTable, boolean recordHeaders) {
+		this.byteBuffer = buffer;
+		this.symbolTable = symbolTable;
+		this.recordHeaders = recordHeaders;
+	}
+
+	@Override
+	public int store(String string) {
+		int startingBufferPosition = byteBuffer.nextWritePosition();
+		byte[] stringBytes = string.getBytes(Utf8.CHARSET);
+		byteBuffer.putVInt(stringBytes.length);
+		if (recordHeaders) {
+			RecordHeader.put(byteBuffer, string, stringBytes);
+		}
+		// every byte could be an escape
+		if (codes.length < stringBytes.length * 2) {
+			codes = new byte[stringBytes.length * 2];
+		}
+		int codesLength = symbolTable.encode(stringBytes, codes);
+		byteBuffer.putVInt(codesLength);
+		byteBuffer.putBytes(codes, 0, codesLength);
+		return startingBufferPosition;
+	}
+
+	@Override
+	public String lookup(int index) {
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			lookupUtf8(index, scratch);
+			return new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		final long sizeOfStringVInt = byteBuffer.getVInt(index);
+		final int sizeOfString = (int) sizeOfStringVInt;
+		int position = skipRecordHeader(index + (int) (sizeOfStringVInt >> 32));
+		final long codesLengthVInt = byteBuffer.getVInt(position);
+		final int codesLength = (int) codesLengthVInt;
+		// The codes are read into the scratch just past where the String is decoded to, in one bulk read
+		final byte[] result = scratch.ensureCapacity(sizeOfString + codesLength);
+		if (codesLength > 0) {
+			byteBuffer.getBytes(position + (int) (codesLengthVInt >> 32), result, sizeOfString, codesLength);
+			symbolTable.decode(result, sizeOfString, codesLength, result, 0);
+		}
+		scratch.length = sizeOfString;
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		final long sizeOfStringVInt = byteBuffer.getVInt(index);
+		int position = skipRecordHeader(index + (int) (sizeOfStringVInt >> 32));
+		final long codesLengthVInt = byteBuffer.getVInt(position);
+		position += (int) (codesLengthVInt >> 32);
+		return new Cursor(position, position + (int) codesLengthVInt);
+	}
+
+	private int skipRecordHeader(int position) {
+		return recordHeaders ? RecordHeader.skip(byteBuffer, position) : position;
+	}
+
+	/**
+	 * Expands one code at a time
+	 */
+	private final class Cursor implements ByteCursor {
+
+		// the next code
+		private int position;
+		private final int end;
+		private int symbol;
+		private int symbolIndex = 0;
+		private int symbolLength = 0;
+
+		Cursor(int position, int end) {
+			this.position = position;
+			this.end = end;
+		}
+
+		@Override
+		public int next() {
+			if (symbolIndex < symbolLength) {
+				return symbolTable.symbolByte(symbol, symbolIndex++) & 0xFF;
+			}
+			if (position == end) {
+				return -1;
+			}
+			int code = byteBuffer.getByte(position++) & 0xFF;
+			if (code == FSSTSymbolTable.ESCAPE) {
+				return byteBuffer.getByte(position++) & 0xFF;
+			}
+			symbol = code;
+			symbolIndex = 1;
+			symbolLength = symbolTable.symbolLength(code);
+			return symbolTable.symbolByte(code, 0) & 0xFF;
+		}
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return false;
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		return recordHeaders;
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.hashCode(byteBuffer, index);
+	}
+
+	@Override
+	public int storedLength(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.length(byteBuffer, index);
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.isAscii(byteBuffer, index);
+	}
+
+	@Override
+	public long spaceUsed() {
+		return byteBuffer.getSize() + symbolTable.spaceUsed();
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		statistics.put("engine", "fsst");
+		statistics.put("bytesStored", byteBuffer.nextWritePosition());
+		statistics.put("fsstSymbols", symbolTable.numSymbols());
+	}
+
+	/**
+	 * Nothing to do, since no state is kept between Strings
+	 */
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(KnotSnapshot.FSST_STORAGE);
+		out.writeBoolean(recordHeaders);
+		symbolTable.save(out);
+		KnotSnapshot.writeBuffer(out, byteBuffer);
+	}
+
+	static FSSTKnotStorage load(DataInput in, BufferFactory bufferFactory) throws IOException {
+		boolean recordHeaders = in.readBoolean();
+		FSSTSymbolTable symbolTable = FSSTSymbolTable.load(in);
+		return new FSSTKnotStorage(KnotSnapshot.readBuffer(in, bufferFactory), symbolTable, recordHeaders);
+	}
+
+	@Override
+	public void close() {
+		byteBuffer.close();
+	}
+
+}
@@ -0,0 +1,263 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The static symbol table of {@link FSSTKnotStorage}: up to 255 symbols of 1 to 8 bytes, each encoded as a one byte
+ * code. Code 255 is the escape, followed by a single byte that isn't the start of any symbol. Immutable once trained,
+ * so it can be shared by any number of storages and threads.
+ * <p>
+ * Training follows the FSST paper (Boncz, Neumann and Leis, 2020): starting from an empty table, the sample is
+ * compressed with the current table a few times over, counting how often each symbol, and each pair of adjacent
+ * symbols, occurs. The next table holds the candidates that would have saved the most bytes (their count times their
+ * length), and pairs of symbols that often occur together grow into longer symbols from one generation to the next.
+ */
+final class FSSTSymbolTable {
+
+	static final int MAX_SYMBOLS = 255;
+	static final int MAX_SYMBOL_LENGTH = 8;
+	static final int ESCAPE = 255;
+	// Enough of a sample to find the common symbols, without training taking long
+	private static final int MAX_SAMPLE_BYTES = 64 * 1024;
+	private static final int GENERATIONS = 5;
+	// Keys of the candidate symbol counts, one char per byte
+	private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+	private static final int[] NO_CODES = new int[0];
+
+	// MAX_SYMBOL_LENGTH bytes for each code, so a symbol is copied from a fixed offset
+	private final byte[] symbolBytes;
+	private final byte[] symbolLengths;
+	private final int numSymbols;
+	// For each first byte, the codes of the symbols that start with it, longest first
+	private final int[][] codesByFirstByte = new int[256][];
+
+	private FSSTSymbolTable(byte[][] symbols) {
+		this.numSymbols = symbols.length;
+		this.symbolBytes = new byte[numSymbols * MAX_SYMBOL_LENGTH];
+		this.symbolLengths = new byte[numSymbols];
+		for (int code = 0; code < numSymbols; code++) {
+			System.arraycopy(symbols[code], 0, symbolBytes, code * MAX_SYMBOL_LENGTH, symbols[code].length);
+			symbolLengths[code] = (byte) symbols[code].length;
+		}
+		List<List<Integer>> codeLists = new ArrayList<List<Integer>>(256);
+		for (int b = 0; b < 256; b++) {
+			codeLists.add(new ArrayList<Integer>());
+		}
+		for (int code = 0; code < numSymbols; code++) {
+			codeLists.get(symbols[code][0] & 0xFF).add(code);
+		}
+		for (int b = 0; b < 256; b++) {
+			List<Integer> codes = codeLists.get(b);
+			Collections.sort(codes, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer code1, Integer code2) {
+					return symbolLengths[code2] - symbolLengths[code1];
+				}
+			});
+			int[] codeArray = codes.isEmpty() ? NO_CODES : new int[codes.size()];
+			for (int i = 0; i < codeArray.length; i++) {
+				codeArray[i] = codes.get(i);
+			}
+			codesByFirstByte[b] = codeArray;
+		}
+	}
+
+	/**
+	 * Train a table on {@code sample}. Only the first 64KB (in UTF-8) of the sample are used.
+	 */
+	static FSSTSymbolTable train(Iterable<String> sample) {
+		List<byte[]> sampleBytes = new ArrayList<byte[]>();
+		int totalBytes = 0;
+		for (String string : sample) {
+			if (totalBytes >= MAX_SAMPLE_BYTES) {
+				break;
+			}
+			byte[] bytes = string.getBytes(Utf8.CHARSET);
+			sampleBytes.add(bytes);
+			totalBytes += bytes.length;
+		}
+		FSSTSymbolTable table = new FSSTSymbolTable(new byte[0][]);
+		for (int generation = 0; generation < GENERATIONS; generation++) {
+			table = new FSSTSymbolTable(table.nextGeneration(sampleBytes));
+		}
+		return table;
+	}
+
+	private byte[][] nextGeneration(List<byte[]> sampleBytes) {
+		Map<String, int[]> counts = new HashMap<String, int[]>();
+		for (byte[] bytes : sampleBytes) {
+			int previousStart = -1;
+			int position = 0;
+			while (position < bytes.length) {
+				int code = findSymbol(bytes, position);
+				int length = code == ESCAPE ? 1 : symbolLengths[code];
+				count(counts, bytes, position, length);
+				if (previousStart >= 0 && position + length - previousStart <= MAX_SYMBOL_LENGTH) {
+					count(counts, bytes, previousStart, position + length - previousStart);
+				}
+				previousStart = position;
+				position += length;
+			}
+		}
+		List<Map.Entry<String, int[]>> candidates = new ArrayList<Map.Entry<String, int[]>>(counts.entrySet());
+		Collections.sort(candidates, new Comparator<Map.Entry<String, int[]>>() {
+			@Override
+			public int compare(Map.Entry<String, int[]> candidate1, Map.Entry<String, int[]> candidate2) {
+				long gain1 = (long) candidate1.getValue()[0] * candidate1.getKey().length();
+				long gain2 = (long) candidate2.getValue()[0] * candidate2.getKey().length();
+				if (gain1 != gain2) {
+					return gain1 > gain2 ? -1 : 1;
+				}
+				// deterministic, whatever the order of the HashMap
+				return candidate1.getKey().compareTo(candidate2.getKey());
+			}
+		});
+		byte[][] symbols = new byte[Math.min(candidates.size(), MAX_SYMBOLS)][];
+		for (int i = 0; i < symbols.length; i++) {
+			symbols[i] = candidates.get(i).getKey().getBytes(LATIN_1);
+		}
+		return symbols;
+	}
+
+	private static void count(Map<String, int[]> counts, byte[] bytes, int offset, int length) {
+		String key = new String(bytes, offset, length, LATIN_1);
+		int[] count = counts.get(key);
+		if (count == null) {
+			counts.put(key, new int[] { 1 });
+		}
+		else {
+			count[0]++;
+		}
+	}
+
+	/**
+	 * @return the code of the longest symbol at {@code position} in {@code bytes}, or {@link #ESCAPE} if there is none.
+	 */
+	int findSymbol(byte[] bytes, int position) {
+		int[] codes = codesByFirstByte[bytes[position] & 0xFF];
+		int remaining = bytes.length - position;
+		codes: for (int code : codes) {
+			int length = symbolLengths[code];
+			if (length > remaining) {
+				continue;
+			}
+			int symbolOffset = code * MAX_SYMBOL_LENGTH;
+			for (int i = 1; i < length; i++) {
+				if (symbolBytes[symbolOffset + i] != bytes[position + i]) {
+					continue codes;
+				}
+			}
+			return code;
+		}
+		return ESCAPE;
+	}
+
+	/**
+	 * Encode {@code bytes} into {@code codes}, which must have room for twice as many bytes.
+	 * 
+	 * @return the number of bytes of codes
+	 */
+	int encode(byte[] bytes, byte[] codes) {
+		int codesLength = 0;
+		int position = 0;
+		while (position < bytes.length) {
+			int code = findSymbol(bytes, position);
+			codes[codesLength++] = (byte) code;
+			if (code == ESCAPE) {
+				codes[codesLength++] = bytes[position++];
+			}
+			else {
+				position += symbolLengths[code];
+			}
+		}
+		return codesLength;
+	}
+
+	/**
+	 * Decode {@code codesLength} bytes of codes, starting at {@code codesOffset} in {@code codes}, into
+	 * {@code destination}.
+	 * 
+	 * @return the number of bytes decoded
+	 */
+	int decode(byte[] codes, int codesOffset, int codesLength, byte[] destination, int destinationOffset) {
+		int codesEnd = codesOffset + codesLength;
+		int position = destinationOffset;
+		while (codesOffset < codesEnd) {
+			int code = codes[codesOffset++] & 0xFF;
+			if (code == ESCAPE) {
+				destination[position++] = codes[codesOffset++];
+			}
+			else {
+				int length = symbolLengths[code];
+				System.arraycopy(symbolBytes, code * MAX_SYMBOL_LENGTH, destination, position, length);
+				position += length;
+			}
+		}
+		return position - destinationOffset;
+	}
+
+	int symbolLength(int code) {
+		return symbolLengths[code];
+	}
+
+	byte symbolByte(int code, int index) {
+		return symbolBytes[code * MAX_SYMBOL_LENGTH + index];
+	}
+
+	int numSymbols() {
+		return numSymbols;
+	}
+
+	long spaceUsed() {
+		return symbolBytes.length + symbolLengths.length;
+	}
+
+	void save(DataOutput out) throws IOException {
+		out.writeByte(numSymbols);
+		for (int code = 0; code < numSymbols; code++) {
+			out.writeByte(symbolLengths[code]);
+			out.write(symbolBytes, code * MAX_SYMBOL_LENGTH, symbolLengths[code]);
+		}
+	}
+
+	static FSSTSymbolTable load(DataInput in) throws IOException {
+		byte[][] symbols = new byte[in.readUnsignedByte()][];
+		for (int code = 0; code < symbols.length; code++) {
+			int length = in.readUnsignedByte();
+			if (length < 1 || length > MAX_SYMBOL_LENGTH) {
+				throw new IOException("Corrupt Knot snapshot. Invalid FSST symbol length: " + length);
+			}
+			symbols[code] = new byte[length];
+			in.readFully(symbols[code]);
+		}
+		return new FSSTSymbolTable(symbols);
+	}
+
+}
@@ -0,0 +1,48 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+/**
+ * The handles of a {@link BraidList}, in list order.
+ */
+interface HandleArray {
+
+	int size();
+
+	int get(int index);
+
+	void set(int index, int handle);
+
+	void add(int handle);
+
+	/**
+	 * Insert {@code handles} before {@code index}, moving the handles from there on along.
+	 */
+	void insert(int index, int[] handles);
+
+	void remove(int index);
+
+	void clear();
+
+	/**
+	 * @return roughly the number of bytes the handles take, including the arrays holding them.
+	 */
+	long spaceUsed();
+
+}
@@ -0,0 +1,416 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A {@link Buffer} that Huffman codes its contents in blocks of 4KB, trading decoding speed for space. The LZ78 literals
+ * and pointers it holds are far from uniformly distributed (mostly ASCII letters, and VInts with small high-order
+ * bytes), which a Huffman code squeezes out.
+ * <p>
+ * Bytes are appended to an open block, which is kept as it is. Once the open block is full, it gets its own Huffman
+ * code (so the code adapts as the data changes), and is coded into the underlying buffer as:
+ * 
+ * <pre>
+ * RAW | the 4096 bytes
+ * HUFFMAN | bitmap of the byte values used (32 bytes) | their code lengths (4 bits each) | code bits
+ * </pre>
+ * 
+ * Random access still works, a block at a time: reading a byte decodes its whole block, into a cache of the
+ * {@link #CACHED_BLOCKS} most recently decoded blocks. The cache is shared by every thread that reads this buffer, is
+ * included in {@link #getSize()}, and is emptied by {@link #close()}. Strings whose data is spread over many blocks, such as LZ78 Strings that refer back to
+ * older phrases all over the buffer, can need a block decoded for every few bytes, so decoding is many times slower.
+ * <p>
+ * Safe for a single writer with concurrent readers, in the same way as the other buffers. The block positions are
+ * published along with the open block, so a reader that sees the open block has moved on (a volatile read) also sees
+ * where the block that was sealed is.
+ */
+final class HuffmanBlockBuffer implements Buffer {
+
+	private static final int BLOCK_BITS = 12;
+	static final int BLOCK_SIZE = 1 << BLOCK_BITS;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+	// Limited, so that a symbol can be decoded with a single table lookup
+	private static final int MAX_CODE_LENGTH = 12;
+	private static final int CACHED_BLOCKS = 16;
+	// The decoded blocks, plus roughly the cache's table and entries
+	static final int CACHE_SIZE = CACHED_BLOCKS * (BLOCK_SIZE + 64);
+	private static final byte RAW = 0;
+	private static final byte HUFFMAN = 1;
+
+	private final Buffer blocks;
+	private volatile OpenBlock openBlock = new OpenBlock(0, new int[16]);
+	// bytes written to the open block. Only used by the writer.
+	private int openBlockLength = 0;
+	// Decoded blocks, by block number
+	private final DecodeCache<byte[]> cache = new DecodeCache<byte[]>("huffmanBlockCache", CACHED_BLOCKS);
+	// Small, and shared by every buffer, so kept for each thread rather than allocated for each block decoded
+	private static final ThreadLocal<DecodeTables> DECODE_TABLES = new ThreadLocal<DecodeTables>() {
+		@Override
+		protected DecodeTables initialValue() {
+			return new DecodeTables();
+		}
+	};
+
+	private static final class OpenBlock {
+		final int number;
+		final byte[] bytes = new byte[BLOCK_SIZE];
+		// The position in 'blocks' of each sealed block, and of the end of the last one. Only written by the writer,
+		// before it publishes the next open block.
+		final int[] blockPositions;
+
+		OpenBlock(int number, int[] blockPositions) {
+			this.number = number;
+			this.blockPositions = blockPositions;
+		}
+	}
+
+	/**
+	 * Reused to hold a coded block, and to decode it
+	 */
+	private static final class DecodeTables {
+		final byte[] coded = new byte[BLOCK_SIZE + 1];
+		final short[] table = new short[1 << MAX_CODE_LENGTH];
+		final int[] lengths = new int[256];
+		final int[] codes = new int[256];
+	}
+
+	/**
+	 * @param blocks
+	 *            the buffer to hold the coded blocks
+	 */
+	HuffmanBlockBuffer(Buffer blocks) {
+		this.blocks = blocks;
+	}
+
+	@Override
+	public int getSize() {
+		return blocks.getSize() + BLOCK_SIZE + openBlock.blockPositions.length * 4 + CACHE_SIZE;
+	}
+
+	@Override
+	public int nextWritePosition() {
+		return (openBlock.number << BLOCK_BITS) + openBlockLength;
+	}
+
+	@Override
+	public void putVInt(int value) {
+		while ((value & ~0x7F) != 0) {
+			putByte((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		putByte((byte) value);
+	}
+
+	@Override
+	public void putByte(byte value) {
+		openBlock.bytes[openBlockLength++] = value;
+		if (openBlockLength == BLOCK_SIZE) {
+			seal();
+		}
+	}
+
+	@Override
+	public void putBytes(byte[] source, int offset, int length) {
+		while (length > 0) {
+			int count = Math.min(length, BLOCK_SIZE - openBlockLength);
+			System.arraycopy(source, offset, openBlock.bytes, openBlockLength, count);
+			openBlockLength += count;
+			offset += count;
+			length -= count;
+			if (openBlockLength == BLOCK_SIZE) {
+				seal();
+			}
+		}
+	}
+
+	/**
+	 * See {@link AutoGrowingByteArray} for the format.
+	 */
+	@Override
+	public long getVInt(int logicalIndex) {
+		int value = 0;
+		for (int numBytes = 1; numBytes <= 5; numBytes++) {
+			byte b = getByte(logicalIndex++);
+			value |= (b & 0x7F) << (7 * (numBytes - 1));
+			if (b >= 0) {
+				return (long) numBytes << 32 | value & 0xFFFFFFFFL;
+			}
+		}
+		throw new RuntimeException("Invalid vInt detected (too many bits)");
+	}
+
+	@Override
+	public byte getByte(int logicalIndex) {
+		return block(logicalIndex >>> BLOCK_BITS)[logicalIndex & BLOCK_MASK];
+	}
+
+	@Override
+	public void getBytes(int logicalIndex, byte[] destination, int offset, int length) {
+		while (length > 0) {
+			int blockOffset = logicalIndex & BLOCK_MASK;
+			int count = Math.min(length, BLOCK_SIZE - blockOffset);
+			System.arraycopy(block(logicalIndex >>> BLOCK_BITS), blockOffset, destination, offset, count);
+			logicalIndex += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	/**
+	 * @return the bytes of the given block, decoding it if it has been sealed
+	 */
+	private byte[] block(int blockNumber) {
+		// acquire, so a sealed block's position and data are visible
+		OpenBlock open = openBlock;
+		if (blockNumber == open.number) {
+			return open.bytes;
+		}
+		byte[] block = cache.get(blockNumber);
+		if (block == null) {
+			// A new array, since readers of the one it evicts may still be using it
+			block = new byte[BLOCK_SIZE];
+			decode(open.blockPositions, blockNumber, DECODE_TABLES.get(), block);
+			cache.put(blockNumber, block);
+		}
+		return block;
+	}
+
+	@Override
+	public void close() {
+		cache.clear();
+		blocks.close();
+	}
+
+	private void seal() {
+		OpenBlock sealed = openBlock;
+		int number = sealed.number;
+		int[] blockPositions = sealed.blockPositions;
+		if (number + 2 > blockPositions.length) {
+			// Readers still using the old array only look up blocks sealed before it was copied
+			blockPositions = Arrays.copyOf(blockPositions, blockPositions.length * 2);
+		}
+		blockPositions[number] = blocks.nextWritePosition();
+		encode(sealed.bytes);
+		blockPositions[number + 1] = blocks.nextWritePosition();
+		openBlockLength = 0;
+		// release
+		openBlock = new OpenBlock(number + 1, blockPositions);
+	}
+
+	private void encode(byte[] block) {
+		int[] frequencies = new int[256];
+		for (byte b : block) {
+			frequencies[b & 0xFF]++;
+		}
+		int[] lengths = codeLengths(frequencies);
+		int[] codes = canonicalCodes(lengths);
+		byte[] header = new byte[32 + 128];
+		int headerLength = 32;
+		int numSymbols = 0;
+		long codedBits = 0;
+		for (int symbol = 0; symbol < 256; symbol++) {
+			if (lengths[symbol] != 0) {
+				header[symbol >>> 3] |= 1 << (symbol & 7);
+				// two lengths to a byte, high nibble first
+				header[32 + numSymbols / 2] |= lengths[symbol] << ((numSymbols & 1) == 0 ? 4 : 0);
+				numSymbols++;
+				codedBits += (long) frequencies[symbol] * lengths[symbol];
+			}
+		}
+		headerLength += (numSymbols + 1) / 2;
+		int codedLength = headerLength + (int) ((codedBits + 7) / 8);
+		if (codedLength >= BLOCK_SIZE) {
+			blocks.putByte(RAW);
+			blocks.putBytes(block, 0, BLOCK_SIZE);
+			return;
+		}
+		byte[] coded = new byte[codedLength];
+		System.arraycopy(header, 0, coded, 0, headerLength);
+		int position = headerLength;
+		long bitBuffer = 0;
+		int bitCount = 0;
+		for (byte b : block) {
+			int symbol = b & 0xFF;
+			bitBuffer = bitBuffer << lengths[symbol] | codes[symbol];
+			bitCount += lengths[symbol];
+			while (bitCount >= 8) {
+				bitCount -= 8;
+				coded[position++] = (byte) (bitBuffer >>> bitCount);
+			}
+		}
+		if (bitCount > 0) {
+			coded[position] = (byte) (bitBuffer << (8 - bitCount));
+		}
+		blocks.putByte(HUFFMAN);
+		blocks.putBytes(coded, 0, codedLength);
+	}
+
+	private void decode(int[] blockPositions, int blockNumber, DecodeTables tables, byte[] destination) {
+		int position = blockPositions[blockNumber];
+		int codedLength = blockPositions[blockNumber + 1] - position - 1;
+		if (blocks.getByte(position) == RAW) {
+			blocks.getBytes(position + 1, destination, 0, BLOCK_SIZE);
+			return;
+		}
+		byte[] coded = tables.coded;
+		blocks.getBytes(position + 1, coded, 0, codedLength);
+		int[] lengths = tables.lengths;
+		int numSymbols = 0;
+		for (int symbol = 0; symbol < 256; symbol++) {
+			if ((coded[symbol >>> 3] & 1 << (symbol & 7)) != 0) {
+				lengths[symbol] = (coded[32 + numSymbols / 2] >>> ((numSymbols & 1) == 0 ? 4 : 0)) & 0x0F;
+				numSymbols++;
+			} else {
+				lengths[symbol] = 0;
+			}
+		}
+		// Every code that starts with the bits of a symbol's code decodes to that symbol. Entries left over from the
+		// previous block are only reached by codes that aren't in this one.
+		int[] codes = canonicalCodes(lengths, tables.codes);
+		short[] table = tables.table;
+		for (int symbol = 0; symbol < 256; symbol++) {
+			int length = lengths[symbol];
+			if (length != 0) {
+				int first = codes[symbol] << (MAX_CODE_LENGTH - length);
+				Arrays.fill(table, first, first + (1 << (MAX_CODE_LENGTH - length)), (short) (symbol | length << 8));
+			}
+		}
+		int codedPosition = 32 + (numSymbols + 1) / 2;
+		long bitBuffer = 0;
+		int bitCount = 0;
+		for (int i = 0; i < BLOCK_SIZE; i++) {
+			while (bitCount < MAX_CODE_LENGTH) {
+				// past the end, pad with zeroes
+				int next = codedPosition < codedLength ? coded[codedPosition] & 0xFF : 0;
+				codedPosition++;
+				bitBuffer = bitBuffer << 8 | next;
+				bitCount += 8;
+			}
+			int entry = table[(int) (bitBuffer >>> (bitCount - MAX_CODE_LENGTH)) & ((1 << MAX_CODE_LENGTH) - 1)];
+			destination[i] = (byte) entry;
+			bitCount -= entry >>> 8;
+		}
+	}
+
+	/**
+	 * @return the length of the Huffman code of each symbol, or zero for symbols that don't occur, with no code longer
+	 *         than {@link #MAX_CODE_LENGTH}.
+	 */
+	static int[] codeLengths(int[] frequencies) {
+		int numSymbols = frequencies.length;
+		int[] lengths = new int[numSymbols];
+		// Leaves, then internal nodes. Each entry in the queue is the node's weight, and then its number.
+		int[] parents = new int[2 * numSymbols];
+		PriorityQueue<Long> queue = new PriorityQueue<Long>();
+		for (int symbol = 0; symbol < numSymbols; symbol++) {
+			if (frequencies[symbol] != 0) {
+				queue.add((long) frequencies[symbol] << 32 | symbol);
+			}
+		}
+		if (queue.size() == 1) {
+			// A single symbol still needs a one bit code
+			lengths[(int) (long) queue.peek()] = 1;
+			return lengths;
+		}
+		int nextNode = numSymbols;
+		while (queue.size() > 1) {
+			long first = queue.poll();
+			long second = queue.poll();
+			parents[(int) first] = nextNode;
+			parents[(int) second] = nextNode;
+			queue.add(((first >>> 32) + (second >>> 32)) << 32 | nextNode++);
+		}
+		int root = nextNode - 1;
+		for (int symbol = 0; symbol < numSymbols; symbol++) {
+			if (frequencies[symbol] != 0) {
+				int length = 0;
+				for (int node = symbol; node != root; node = parents[node]) {
+					length++;
+				}
+				lengths[symbol] = length;
+			}
+		}
+		limitLengths(lengths);
+		return lengths;
+	}
+
+	/**
+	 * Shorten codes that are too long, then lengthen the longest of the remaining codes until the lengths are a valid
+	 * prefix code again (the Kraft inequality holds).
+	 */
+	private static void limitLengths(int[] lengths) {
+		long kraft = 0;
+		boolean tooLong = false;
+		for (int symbol = 0; symbol < lengths.length; symbol++) {
+			if (lengths[symbol] > MAX_CODE_LENGTH) {
+				lengths[symbol] = MAX_CODE_LENGTH;
+				tooLong = true;
+			}
+			if (lengths[symbol] != 0) {
+				kraft += 1 << (MAX_CODE_LENGTH - lengths[symbol]);
+			}
+		}
+		if (!tooLong) {
+			return;
+		}
+		while (kraft > 1 << MAX_CODE_LENGTH) {
+			int longest = -1;
+			for (int symbol = 0; symbol < lengths.length; symbol++) {
+				if (lengths[symbol] != 0 && lengths[symbol] < MAX_CODE_LENGTH
+						&& (longest == -1 || lengths[symbol] > lengths[longest])) {
+					longest = symbol;
+				}
+			}
+			kraft -= 1 << (MAX_CODE_LENGTH - lengths[longest] - 1);
+			lengths[longest]++;
+		}
+	}
+
+	/**
+	 * @return the canonical Huffman code for each symbol, where codes of the same length are in symbol order.
+	 */
+	private static int[] canonicalCodes(int[] lengths) {
+		return canonicalCodes(lengths, new int[lengths.length]);
+	}
+
+	/**
+	 * @return {@code codes}, filled with the canonical Huffman code for each symbol
+	 */
+	private static int[] canonicalCodes(int[] lengths, int[] codes) {
+		int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+		for (int length : lengths) {
+			lengthCounts[length]++;
+		}
+		lengthCounts[0] = 0;
+		int[] nextCode = new int[MAX_CODE_LENGTH + 1];
+		int code = 0;
+		for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+			code = (code + lengthCounts[length - 1]) << 1;
+			nextCode[length] = code;
+		}
+		for (int symbol = 0; symbol < lengths.length; symbol++) {
+			codes[symbol] = lengths[symbol] != 0 ? nextCode[lengths[symbol]]++ : 0;
+		}
+		return codes;
+	}
+
+}
@@ -0,0 +1,170 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link Braid} for a String of at most {@link #MAX_LENGTH} chars, each of them Latin-1 (below 256). The chars are
+ * packed into a single long, so nothing is stored in the Knot, and nothing needs to be decompressed.
+ * <p>
+ * Char {@code i} is in bits {@code 8*i} to {@code 8*i+7}, and the length is in the top byte. Two inline Braids are
+ * therefore equal exactly when their longs are equal. With the object header, this takes 24 bytes, the same as a
+ * {@link BraidImpl}, but short Strings are common enough (flags, currency codes, status codes) that skipping the Knot
+ * is worth it.
+ */
+final class InlineBraid implements Braid {
+
+	static final int MAX_LENGTH = 7;
+
+	private final long packed;
+
+	private InlineBraid(long packed) {
+		this.packed = packed;
+	}
+
+	/**
+	 * @return an inline Braid for {@code string}, or null if it is too long, or has a char outside of Latin-1.
+	 */
+	static InlineBraid of(String string) {
+		int length = string.length();
+		if (length > MAX_LENGTH) {
+			return null;
+		}
+		long packed = (long) length << 56;
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (c > 0xFF) {
+				return null;
+			}
+			packed |= (long) c << (8 * i);
+		}
+		return new InlineBraid(packed);
+	}
+
+	private char charAt(int index) {
+		return (char) ((packed >>> (8 * index)) & 0xFF);
+	}
+
+	@Override
+	public String get() {
+		int length = length();
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = charAt(i);
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public void appendTo(Appendable appendable) throws IOException {
+		int length = length();
+		for (int i = 0; i < length; i++) {
+			appendable.append(charAt(i));
+		}
+	}
+
+	@Override
+	public CharSequence asCharSequence() {
+		return get();
+	}
+
+	private int utf8Length() {
+		int length = length();
+		int utf8Length = length;
+		for (int i = 0; i < length; i++) {
+			if (charAt(i) >= 0x80) {
+				utf8Length++;
+			}
+		}
+		return utf8Length;
+	}
+
+	@Override
+	public int writeUtf8(ByteBuffer buffer) {
+		int utf8Length = utf8Length();
+		if (buffer.remaining() < utf8Length) {
+			throw new BufferOverflowException();
+		}
+		int length = length();
+		for (int i = 0; i < length; i++) {
+			char c = charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			}
+			else {
+				buffer.put((byte) (0xC0 | (c >> 6)));
+				buffer.put((byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		return utf8Length;
+	}
+
+	@Override
+	public int writeUtf8(OutputStream out) throws IOException {
+		byte[] utf8 = new byte[utf8Length()];
+		writeUtf8(ByteBuffer.wrap(utf8));
+		out.write(utf8);
+		return utf8.length;
+	}
+
+	@Override
+	public int length() {
+		return (int) (packed >>> 56);
+	}
+
+	CharCursor charCursor() {
+		return new CharCursor() {
+			private int position = 0;
+
+			@Override
+			int next() {
+				return position < length() ? charAt(position++) : END;
+			}
+		};
+	}
+
+	@Override
+	public int compareTo(Braid other) {
+		return BraidUtil.compare(this, other);
+	}
+
+	@Override
+	public int hashCode() {
+		// the same as String.hashCode()
+		int hash = 0;
+		int length = length();
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + charAt(i);
+		}
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object anObject) {
+		if (anObject instanceof InlineBraid) {
+			return ((InlineBraid) anObject).packed == packed;
+		}
+		return BraidUtil.equals(this, anObject);
+	}
+
+}
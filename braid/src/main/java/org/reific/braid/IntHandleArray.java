@@ -0,0 +1,82 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.util.Arrays;
+
+/**
+ * A {@link HandleArray} that is just an int array, like the one inside an {@link java.util.ArrayList}.
+ */
+final class IntHandleArray implements HandleArray {
+
+	private int[] handles = new int[10];
+	private int size = 0;
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int index) {
+		return handles[index];
+	}
+
+	@Override
+	public void set(int index, int handle) {
+		handles[index] = handle;
+	}
+
+	@Override
+	public void add(int handle) {
+		ensureCapacity(size + 1);
+		handles[size++] = handle;
+	}
+
+	@Override
+	public void insert(int index, int[] newHandles) {
+		ensureCapacity(size + newHandles.length);
+		System.arraycopy(handles, index, handles, index + newHandles.length, size - index);
+		System.arraycopy(newHandles, 0, handles, index, newHandles.length);
+		size += newHandles.length;
+	}
+
+	@Override
+	public void remove(int index) {
+		System.arraycopy(handles, index + 1, handles, index, size - index - 1);
+		size--;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > handles.length) {
+			handles = Arrays.copyOf(handles, Math.max(capacity, handles.length + (handles.length >> 1)));
+		}
+	}
+
+	@Override
+	public long spaceUsed() {
+		return 16 + 4L * handles.length;
+	}
+
+}
@@ -1,6 +1,28 @@
 package org.reific.braid;
 
+import java.io.IOException;
+
 interface InternalKnot {
 	public int addString(String string);
 	public String lookupString(int index);
+	public void appendString(int index, Appendable appendable) throws IOException;
+	public CharSequence lookupCharSequence(int index);
+	public void lookupUtf8(int index, DecodeScratch scratch);
+
+	public CharCursor charCursor(int index);
+
+	/**
+	 * @return the {@link String#hashCode()} of the String at the given index
+	 */
+	public int hashCodeOf(int index);
+
+	/**
+	 * @return the {@link String#length()} of the String at the given index
+	 */
+	public int lengthOf(int index);
+	/**
+	 * @return true if equal Strings always have the same index, so Braids from this Knot with different indexes are
+	 *         never equal.
+	 */
+	public boolean uniqueIndexes();
 }
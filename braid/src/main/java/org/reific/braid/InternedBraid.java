@@ -18,19 +18,67 @@
  */
 package org.reific.braid;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 
 final class InternedBraid implements Braid {
 
 	private final String string;
+	// Interned values are common, so it is worth encoding them once
+	private final byte[] utf8;
 
 	InternedBraid(String string) {
 		this.string = string;
+		this.utf8 = string == null ? null : string.getBytes(Utf8.CHARSET);
 	}
 	@Override
 	public String get() {
 		return string;
 	}
 
+	@Override
+	public void appendTo(Appendable appendable) throws IOException {
+		appendable.append(string);
+	}
+
+	@Override
+	public CharSequence asCharSequence() {
+		return string;
+	}
+
+	@Override
+	public int writeUtf8(ByteBuffer buffer) {
+		if (utf8 == null) {
+			return -1;
+		}
+		buffer.put(utf8);
+		return utf8.length;
+	}
+
+	@Override
+	public int writeUtf8(OutputStream out) throws IOException {
+		if (utf8 == null) {
+			return -1;
+		}
+		out.write(utf8);
+		return utf8.length;
+	}
+
+	@Override
+	public int length() {
+		if (string == null) {
+			return -1;
+		}
+		return string.length();
+	}
+
+	@Override
+	public int compareTo(Braid other) {
+		return BraidUtil.compare(this, other);
+	}
+
 	@Override
 	public int hashCode() {
 		if (string == null) {
@@ -1,10 +1,92 @@
 package org.reific.braid;
 
-public interface Knot {
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+public interface Knot extends AutoCloseable {
+
+	/**
+	 * The handle {@link #store(String)} returns for a null String.
+	 */
+	static final int NULL_HANDLE = -1;
+	/**
+	 * The handle {@link #store(String)} returns for the empty String.
+	 */
+	static final int EMPTY_STRING_HANDLE = -2;
 
 	long spaceUsed();
 	Braid braid(String value);
 	MutableBraid mutableBraid(String string);
 	void flush();
 
+	/**
+	 * Store a String, without creating a {@link Braid} for it. The returned handle can be kept in an {@code int[]} (or
+	 * anywhere else an int fits), and passed to {@link #get(int)} to get the String back. This saves the Braid object
+	 * for each value, which for short compressed Strings can take more memory than the data itself.
+	 * <p>
+	 * Every String is stored, with no interning or remembering, except that null and the empty String have the
+	 * reserved (negative) handles {@link #NULL_HANDLE} and {@link #EMPTY_STRING_HANDLE}. Any other handle is zero or
+	 * more.
+	 * 
+	 * @return a handle for the String, which is only meaningful to this Knot.
+	 */
+	int store(String value);
+
+	/**
+	 * @return the String for a handle returned by {@link #store(String)}.
+	 * @throws IllegalArgumentException
+	 *             if the handle is negative, but not one of the reserved handles.
+	 */
+	String get(int handle);
+
+	/**
+	 * @return the {@link String#hashCode()} of the String for a handle, or {@link Braid#SET_TO_NULL_HASH} for
+	 *         {@link #NULL_HANDLE}. As for {@link Braid#hashCode()}, this is answered without decompressing the String
+	 *         if the Knot was built with {@link Knots.KnotBuilder#recordHeaders()}.
+	 */
+	int handleHashCode(int handle);
+
+	/**
+	 * @return true if the two handles are for equal Strings (or are both {@link #NULL_HANDLE}). The hash codes are
+	 *         compared first, and the Strings are only decompressed as far as their first difference.
+	 */
+	boolean handleEquals(int handle, int otherHandle);
+
+	/**
+	 * @return true if the String for a handle is equal to {@code value}. The stored String is decompressed one char at a
+	 *         time, and only as far as its first difference from {@code value}. If the Knot was built with
+	 *         {@link Knots.KnotBuilder#recordHeaders()}, the lengths and hash codes are compared first.
+	 */
+	boolean handleEquals(int handle, String value);
+
+	/**
+	 * Write the compressed data to a file, which can later be loaded by {@link Knots.KnotBuilder#load(Path)}. Strings
+	 * stored in the loaded Knot keep the same internal positions, so nothing needs to be re-compressed.
+	 * <p>
+	 * For a concurrent Knot, this can be called while other threads are using the Knot, but Strings braided during the
+	 * save may or may not be included. For a {@link Knots.KnotBuilder#singleWriter()} Knot, it must be called by the
+	 * writing thread, although other threads can carry on reading.
+	 */
+	void save(Path file) throws IOException;
+
+	/**
+	 * A snapshot of statistics about how this Knot holds its data: the space used, which compression engine was chosen,
+	 * how many bytes it has stored, and so on. For inspection and monitoring; the keys and values are not a stable
+	 * part of the API, and may change between versions.
+	 */
+	Map<String, Object> statistics();
+
+	/**
+	 * Release the memory used by this Knot straight away. This matters for a {@link Knots.KnotBuilder#direct()} or
+	 * {@link Knots.KnotBuilder#mappedFile(Path)} Knot, where the native memory (or files) would otherwise only be freed
+	 * once the garbage collector finds the Knot unreachable.
+	 * <p>
+	 * Afterwards, any use of the Knot, or of a {@link Braid} or {@link MutableBraid} that needs to read from it,
+	 * throws {@link IllegalStateException}. This must not be called while other threads are still using the Knot.
+	 * Closing a closed Knot has no effect.
+	 */
+	@Override
+	void close();
+
 }
@@ -1,6 +1,13 @@
 package org.reific.braid;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 class KnotImpl implements Knot, InternalKnot {
 
@@ -8,33 +15,262 @@ class KnotImpl implements Knot, InternalKnot {
 	private final Interner interners;
 	private final Rememberer rememberers;
 	private final MutableBraidKnotWrapper mutableBraidKnotWrapper;
+	private final boolean uniqueIndexes;
+	private final boolean recordHeaders;
+	// null unless canonical Braids were requested
+	private final CanonicalBraids canonicalBraids;
+	// null unless a decode cache was requested
+	private final DecodeCache<String> decodeCache;
+	private volatile boolean closed = false;
 	
 	KnotImpl(Interner interners, KnotStorage knotStorage, Rememberer rememberer,
  List<MutableInterner> mutableInterners) {
+		this(interners, knotStorage, rememberer, mutableInterners, false, 0);
+	}
+
+	/**
+	 * @param canonicalBraids
+	 *            if true, there is a single {@link Braid} instance for each index.
+	 * @param decodeCacheCapacity
+	 *            the number of decoded Strings to cache, or 0 for no cache.
+	 */
+	KnotImpl(Interner interners, KnotStorage knotStorage, Rememberer rememberer,
+			List<MutableInterner> mutableInterners, boolean canonicalBraids, int decodeCacheCapacity) {
 		this.interners = interners;
 		this.knotStorage = knotStorage;
 		this.rememberers = rememberer;
+		this.uniqueIndexes = knotStorage.uniqueIndexes();
+		this.recordHeaders = knotStorage.hasRecordHeaders();
+		this.canonicalBraids = canonicalBraids ? new CanonicalBraids(this) : null;
+		this.decodeCache = decodeCacheCapacity == 0 ? null : new DecodeCache<String>("decodeCache",
+				decodeCacheCapacity);
 
 		mutableBraidKnotWrapper = new MutableBraidKnotWrapper(this, mutableInterners);
 	}
 	@Override
 	public int addString(String string) {
+		checkOpen();
 		return knotStorage.store(string);
 	}
 	@Override
 	public String lookupString(int index) {
-		return knotStorage.lookup(index);
+		checkOpen();
+		if (decodeCache == null) {
+			return knotStorage.lookup(index);
+		}
+		String string = decodeCache.get(index);
+		if (string == null) {
+			string = knotStorage.lookup(index);
+			decodeCache.put(index, string);
+		}
+		return string;
+	}
+	@Override
+	public void appendString(int index, Appendable appendable) throws IOException {
+		checkOpen();
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knotStorage.lookupUtf8(index, scratch);
+			scratch.appendTo(appendable);
+		} finally {
+			scratch.release();
+		}
+	}
+	@Override
+	public CharSequence lookupCharSequence(int index) {
+		checkOpen();
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knotStorage.lookupUtf8(index, scratch);
+			if (recordHeaders) {
+				return new BraidCharSequence(scratch, knotStorage.storedAscii(index));
+			}
+			return new BraidCharSequence(scratch);
+		} finally {
+			scratch.release();
+		}
+	}
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		checkOpen();
+		knotStorage.lookupUtf8(index, scratch);
+	}
+	@Override
+	public CharCursor charCursor(int index) {
+		checkOpen();
+		return CharCursor.of(knotStorage.cursor(index));
+	}
+
+	@Override
+	public int hashCodeOf(int index) {
+		checkOpen();
+		if (recordHeaders) {
+			return knotStorage.storedHashCode(index);
+		}
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knotStorage.lookupUtf8(index, scratch);
+			return scratch.stringHashCode();
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public int lengthOf(int index) {
+		checkOpen();
+		if (recordHeaders) {
+			return knotStorage.storedLength(index);
+		}
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knotStorage.lookupUtf8(index, scratch);
+			return Utf8.charLength(scratch.bytes, scratch.length);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public int store(String value) {
+		if (value == null) {
+			return NULL_HANDLE;
+		}
+		if (value.isEmpty()) {
+			return EMPTY_STRING_HANDLE;
+		}
+		return addString(value);
+	}
+
+	@Override
+	public String get(int handle) {
+		if (handle == NULL_HANDLE) {
+			return null;
+		}
+		if (handle == EMPTY_STRING_HANDLE) {
+			return "";
+		}
+		return lookupString(checkHandle(handle));
+	}
+
+	@Override
+	public int handleHashCode(int handle) {
+		if (handle == NULL_HANDLE) {
+			return Braid.SET_TO_NULL_HASH;
+		}
+		if (handle == EMPTY_STRING_HANDLE) {
+			return "".hashCode();
+		}
+		return hashCodeOf(checkHandle(handle));
+	}
+
+	@Override
+	public boolean handleEquals(int handle, int otherHandle) {
+		checkOpen();
+		checkHandle(handle);
+		checkHandle(otherHandle);
+		if (handle == otherHandle) {
+			return true;
+		}
+		if (handle < 0 || otherHandle < 0) {
+			// no stored String is null or empty
+			return false;
+		}
+		if (uniqueIndexes || hashCodeOf(handle) != hashCodeOf(otherHandle)) {
+			return false;
+		}
+		ByteCursor cursor = knotStorage.cursor(handle);
+		ByteCursor otherCursor = knotStorage.cursor(otherHandle);
+		while (true) {
+			int b = cursor.next();
+			if (b != otherCursor.next()) {
+				return false;
+			}
+			if (b == -1) {
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public boolean handleEquals(int handle, String value) {
+		checkOpen();
+		checkHandle(handle);
+		if (value == null) {
+			return handle == NULL_HANDLE;
+		}
+		if (value.isEmpty()) {
+			return handle == EMPTY_STRING_HANDLE;
+		}
+		if (handle < 0) {
+			return false;
+		}
+		if (recordHeaders && (knotStorage.storedLength(handle) != value.length()
+				|| knotStorage.storedHashCode(handle) != value.hashCode())) {
+			return false;
+		}
+		return CharCursor.of(knotStorage.cursor(handle)).matches(value);
+	}
+
+	/**
+	 * @return the handle, if it is a reserved handle or the index of a stored String.
+	 */
+	private static int checkHandle(int handle) {
+		if (handle < EMPTY_STRING_HANDLE) {
+			throw new IllegalArgumentException("Invalid handle " + handle);
+		}
+		return handle;
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return uniqueIndexes;
 	}
 	@Override
 	public void flush() {
+		checkOpen();
 		knotStorage.flush();
 	}
 
 	@Override
 	public long spaceUsed() {
+		checkOpen();
 		return knotStorage.spaceUsed();
 	}
 
+	@Override
+	public Map<String, Object> statistics() {
+		checkOpen();
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		statistics.put("spaceUsed", knotStorage.spaceUsed());
+		knotStorage.addStatistics(statistics);
+		if (decodeCache != null) {
+			decodeCache.addStatistics(statistics);
+		}
+		return Collections.unmodifiableMap(statistics);
+	}
+
+	@Override
+	public void save(Path file) throws IOException {
+		checkOpen();
+		KnotSnapshot.save(knotStorage, file);
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			knotStorage.close();
+		}
+	}
+
+	private void checkOpen() {
+		// A direct buffer must never be read once freed, so this check is not optional
+		if (closed) {
+			throw new IllegalStateException("Knot has been closed");
+		}
+	}
+
 	private static final Braid NULL_BRAID = new Braid() {
 
 		@Override
@@ -42,6 +278,36 @@ class KnotImpl implements Knot, InternalKnot {
 			return null;
 		}
 
+		@Override
+		public void appendTo(Appendable appendable) throws IOException {
+			appendable.append(null);
+		}
+
+		@Override
+		public CharSequence asCharSequence() {
+			return null;
+		}
+
+		@Override
+		public int writeUtf8(ByteBuffer buffer) {
+			return -1;
+		}
+
+		@Override
+		public int writeUtf8(OutputStream out) {
+			return -1;
+		}
+
+		@Override
+		public int length() {
+			return -1;
+		}
+
+		@Override
+		public int compareTo(Braid other) {
+			return BraidUtil.compare(this, other);
+		}
+
 		@Override
 		public int hashCode() {
 			return SET_TO_NULL_HASH;
@@ -59,6 +325,36 @@ class KnotImpl implements Knot, InternalKnot {
 			return "";
 		}
 
+		@Override
+		public void appendTo(Appendable appendable) throws IOException {
+			// nothing to append
+		}
+
+		@Override
+		public CharSequence asCharSequence() {
+			return "";
+		}
+
+		@Override
+		public int writeUtf8(ByteBuffer buffer) {
+			return 0;
+		}
+
+		@Override
+		public int writeUtf8(OutputStream out) {
+			return 0;
+		}
+
+		@Override
+		public int length() {
+			return 0;
+		}
+
+		@Override
+		public int compareTo(Braid other) {
+			return BraidUtil.compare(this, other);
+		}
+
 		@Override
 		public int hashCode() {
 			return "".hashCode();
@@ -89,7 +385,17 @@ class KnotImpl implements Knot, InternalKnot {
 			// TODO: consider remembering this match
 			return possibleInternMatch;
 		}
-		BraidImpl newBraid = new BraidImpl(this, string);
+		Braid newBraid;
+		if (canonicalBraids != null) {
+			newBraid = canonicalBraids.braidFor(addString(string));
+		}
+		else {
+			// Short Strings are held in the Braid itself, rather than in the Knot
+			newBraid = InlineBraid.of(string);
+			if (newBraid == null) {
+				newBraid = new BraidImpl(this, string);
+			}
+		}
 		rememberers.maybeRemember(string, newBraid);
 
 		return newBraid;
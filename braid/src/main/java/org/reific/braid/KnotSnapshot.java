@@ -0,0 +1,170 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Saves and loads the contents of a {@link KnotStorage}, so that a Knot can be restored without re-compressing every
+ * String.
+ * <p>
+ * A snapshot is a header (magic number and format version) followed by the storage. Each storage writes a tag byte
+ * identifying its type, followed by its own contents. Buffers are written as their used bytes only, and the LZ78
+ * dictionary as its raw arrays, so loading is a matter of bulk reading them back into place.
+ */
+final class KnotSnapshot {
+
+	// "KNOT"
+	private static final int MAGIC = 0x4B4E4F54;
+	static final int FORMAT_VERSION = 2;
+
+	// followed by the options block of LZ78KnotStorage.Options
+	static final byte LZ78_STORAGE = 1;
+	static final byte CONCURRENT_STORAGE = 2;
+	static final byte SINGLE_WRITER_STORAGE = 3;
+	static final byte DEDUPLICATING_STORAGE = 4;
+	static final byte HASH_STRIPED_CONCURRENT_STORAGE = 5;
+	static final byte LZ77_STORAGE = 6;
+	static final byte FSST_STORAGE = 7;
+	static final byte RAW_STORAGE = 8;
+	static final byte ADAPTIVE_STORAGE = 9;
+
+	private static final int IO_BUFFER_SIZE = 64 * 1024;
+	// Size of the intermediate arrays used for bulk copies
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private KnotSnapshot() {
+	}
+
+	static void save(KnotStorage storage, Path file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file),
+				IO_BUFFER_SIZE));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			storage.save(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	static KnotStorage load(Path file, BufferFactory bufferFactory) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), IO_BUFFER_SIZE));
+		try {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a Knot snapshot: " + file);
+			}
+			int version = in.readInt();
+			if (version != FORMAT_VERSION) {
+				throw new IOException("Unsupported Knot snapshot version " + version + ": " + file);
+			}
+			return loadStorage(in, bufferFactory);
+		} finally {
+			in.close();
+		}
+	}
+
+	static KnotStorage loadStorage(DataInput in, BufferFactory bufferFactory) throws IOException {
+		byte tag = in.readByte();
+		switch (tag) {
+		case LZ78_STORAGE:
+			return LZ78KnotStorage.load(in, bufferFactory);
+		case LZ77_STORAGE:
+			return LZ77KnotStorage.load(in, bufferFactory);
+		case FSST_STORAGE:
+			return FSSTKnotStorage.load(in, bufferFactory);
+		case RAW_STORAGE:
+			return RawKnotStorage.load(in, bufferFactory);
+		case ADAPTIVE_STORAGE:
+			return AdaptiveKnotStorage.load(in, bufferFactory);
+		case CONCURRENT_STORAGE:
+			return ConcurrentKnotStorage.load(in, bufferFactory, false);
+		case HASH_STRIPED_CONCURRENT_STORAGE:
+			return ConcurrentKnotStorage.load(in, bufferFactory, true);
+		case SINGLE_WRITER_STORAGE:
+			return SingleWriterKnotStorage.load(in, bufferFactory);
+		case DEDUPLICATING_STORAGE:
+			return DeduplicatingKnotStorage.load(in, bufferFactory);
+		default:
+			throw new IOException("Unknown storage type in Knot snapshot: " + tag);
+		}
+	}
+
+	/**
+	 * Write the used portion of a buffer, preceded by its length.
+	 */
+	static void writeBuffer(DataOutput out, Buffer buffer) throws IOException {
+		int length = buffer.nextWritePosition();
+		out.writeInt(length);
+		byte[] chunk = new byte[Math.min(length, CHUNK_SIZE)];
+		for (int position = 0; position < length; position += chunk.length) {
+			int count = Math.min(chunk.length, length - position);
+			buffer.getBytes(position, chunk, 0, count);
+			out.write(chunk, 0, count);
+		}
+	}
+
+	/**
+	 * Read a buffer written by {@link #writeBuffer(DataOutput, Buffer)}. The logical positions of the bytes are
+	 * preserved, so any indexes into the original buffer are valid in the new one.
+	 */
+	static Buffer readBuffer(DataInput in, BufferFactory bufferFactory) throws IOException {
+		int length = in.readInt();
+		Buffer buffer = bufferFactory.newBuffer(length);
+		byte[] chunk = new byte[Math.min(length, CHUNK_SIZE)];
+		for (int position = 0; position < length; position += chunk.length) {
+			int count = Math.min(chunk.length, length - position);
+			in.readFully(chunk, 0, count);
+			buffer.putBytes(chunk, 0, count);
+		}
+		return buffer;
+	}
+
+	static void writeInts(DataOutput out, int[] values) throws IOException {
+		byte[] chunk = new byte[Math.min(values.length * 4, CHUNK_SIZE)];
+		ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+		for (int i = 0; i < values.length; i += chunk.length / 4) {
+			int count = Math.min(chunk.length / 4, values.length - i);
+			chunkBuffer.clear();
+			chunkBuffer.asIntBuffer().put(values, i, count);
+			out.write(chunk, 0, count * 4);
+		}
+	}
+
+	static void readInts(DataInput in, int[] values) throws IOException {
+		byte[] chunk = new byte[Math.min(values.length * 4, CHUNK_SIZE)];
+		ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+		for (int i = 0; i < values.length; i += chunk.length / 4) {
+			int count = Math.min(chunk.length / 4, values.length - i);
+			in.readFully(chunk, 0, count * 4);
+			chunkBuffer.clear();
+			chunkBuffer.asIntBuffer().get(values, i, count);
+		}
+	}
+
+}
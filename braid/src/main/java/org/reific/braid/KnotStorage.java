@@ -1,10 +1,74 @@
 package org.reific.braid;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
 public interface KnotStorage {
 
 	int store(String string);
 	String lookup(int index);
+	/**
+	 * Decompress the UTF-8 bytes of the String at the given index into {@code scratch}, growing it if needed. This
+	 * allows callers to avoid allocating, or to use the bytes without creating a String at all.
+	 */
+	void lookupUtf8(int index, DecodeScratch scratch);
+
+	/**
+	 * @return a cursor over the UTF-8 bytes of the String at the given index, which decompresses it only as far as it
+	 *         is read.
+	 */
+	ByteCursor cursor(int index);
+
+	/**
+	 * @return true if equal Strings are always stored at the same index, so that two indexes hold equal Strings only if
+	 *         they are the same index.
+	 */
+	boolean uniqueIndexes();
+
+	/**
+	 * @return true if each String is stored with a header holding its hash code, its length in chars, and whether it
+	 *         is all ASCII, so that {@link #storedHashCode(int)}, {@link #storedLength(int)} and
+	 *         {@link #storedAscii(int)} can be answered without decompressing it.
+	 */
+	boolean hasRecordHeaders();
+
+	/**
+	 * @return the {@link String#hashCode()} of the String at the given index. Only supported if
+	 *         {@link #hasRecordHeaders()}.
+	 */
+	int storedHashCode(int index);
+
+	/**
+	 * @return the {@link String#length()} of the String at the given index. Only supported if
+	 *         {@link #hasRecordHeaders()}.
+	 */
+	int storedLength(int index);
+
+	/**
+	 * @return true if every char of the String at the given index is ASCII. Only supported if
+	 *         {@link #hasRecordHeaders()}.
+	 */
+	boolean storedAscii(int index);
+
 	long spaceUsed();
+
+	/**
+	 * Add statistics about how this storage holds its data (such as which engine it uses, and how many bytes it has
+	 * stored) to {@code statistics}, for {@link Knot#statistics()}.
+	 */
+	void addStatistics(Map<String, Object> statistics);
 	void flush();
 
+	/**
+	 * Write the full contents of this storage to a snapshot, starting with the tag byte that identifies the type of
+	 * storage. See {@link KnotSnapshot}.
+	 */
+	void save(DataOutput out) throws IOException;
+
+	/**
+	 * Release the memory (or files) used by this storage. The storage must not be used afterwards.
+	 */
+	void close();
+
 }
@@ -1,5 +1,7 @@
 package org.reific.braid;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -13,6 +15,21 @@ public class Knots {
 	private static final int DEFAULT_DICTIONARY_CAPACITY = 2;
 	private static final float DEFAULT_DICTIONARY_LOAD_FACTOR = 0.5f;
 
+	/**
+	 * The original LZ78 format, where each token points at the absolute position of its prefix. The default.
+	 */
+	public static final int LZ78_FORMAT_ABSOLUTE_POINTERS = LZ78KnotStorage.ABSOLUTE_POINTERS;
+	/**
+	 * LZ78 format where each token holds either the distance back to its prefix, or its absolute position, whichever
+	 * is smaller.
+	 */
+	public static final int LZ78_FORMAT_RELATIVE_POINTERS = LZ78KnotStorage.RELATIVE_POINTERS;
+	/**
+	 * LZ78 format where each token points at the absolute position of its prefix, and also holds the length of its
+	 * phrase, so that each phrase is decoded straight into place rather than backwards and then reversed.
+	 */
+	public static final int LZ78_FORMAT_PHRASE_LENGTHS = LZ78KnotStorage.PHRASE_LENGTHS;
+
 	private Knots() {
 	}
 
@@ -27,10 +44,213 @@ public class Knots {
 
 		KnotBuilder lz78Dictionary(int initialDictionaryCapacity, float dictionaryLoadFactor);
 		KnotBuilder lz78(int initialBufferSize, float bufferGrowthFactor);
+
+		/**
+		 * Select the format of the compressed data: {@link Knots#LZ78_FORMAT_ABSOLUTE_POINTERS} (the default),
+		 * {@link Knots#LZ78_FORMAT_RELATIVE_POINTERS} or {@link Knots#LZ78_FORMAT_PHRASE_LENGTHS}. Relative pointers to
+		 * recent data stay short however large the Knot grows. They make little difference to a Knot of a few hundred
+		 * KB, and save a few percent in Knots of several MB, at the cost of a little extra work for each token decoded.
+		 * <p>
+		 * Phrase lengths save the work of reversing each phrase after it is decoded, but take a byte or so for every
+		 * token: text is about 30% larger, and decodes 5-10% faster.
+		 */
+		KnotBuilder lz78Format(int formatVersion);
+
+		/**
+		 * Store a String as plain UTF-8 if LZ78 would make it larger, as it does for random data such as UUIDs, tokens
+		 * and hashes. Such Strings then take no more space than their UTF-8 bytes, plus the length stored with every
+		 * String, which may take one more byte than without this option.
+		 */
+		KnotBuilder lz78RawFallback();
+
+		/**
+		 * Keep up to {@code maxBytes} of the expanded phrases of recently decoded LZ78 tokens, so that a token whose
+		 * phrase (or the phrase of one of its nearest prefixes) is cached is copied in one go, rather than by following
+		 * its chain of prefixes one byte at a time. A phrase is only cached once it has been decoded twice in a short
+		 * while, and phrases of fewer than 4 bytes aren't cached at all. Each cached phrase takes about 48 bytes
+		 * besides its own.
+		 * <p>
+		 * Speeds up reading data with long repeated phrases, provided the cache holds the phrases in common use: with
+		 * natural language text, 1MB roughly triples the decoding speed, while 64KB makes little difference. When the
+		 * phrases in use far outnumber what the cache holds, such as when reading each of many Strings of random words
+		 * in turn, decoding is slower by up to a third.
+		 * <p>
+		 * Each stripe of a {@link #concurrent(int)} Knot has its own cache of this size. The hits, misses and evictions
+		 * are in {@link Knot#statistics()}.
+		 */
+		KnotBuilder lz78PhraseCache(int maxBytes);
+
+		/**
+		 * Limit each LZ78 phrase to {@code maxLength} bytes. Once a phrase is that long, it is no longer extended, and
+		 * the next phrase starts afresh. A phrase is decoded by following its chain of prefixes, one byte at a time, so
+		 * this also limits how long each chain is. Without a limit, long repeated runs make phrases, and chains,
+		 * hundreds of bytes long. The longest phrase in each String stored is counted in the
+		 * {@code longestPhraseHistogram} of {@link Knot#statistics()}.
+		 */
+		KnotBuilder lz78MaxPhraseLength(int maxLength);
+
+		/**
+		 * Compress with LZ77 rather than LZ78. A String is decoded with a few bulk copies of earlier bytes, instead of a
+		 * pointer lookup for every byte, so reading is much faster, but the compression ratio is generally somewhat
+		 * worse: The Road to Serfdom, one line per String, compresses to 83% of its UTF-8 size rather than 71%, and
+		 * repetitive log lines to 38% rather than 20%. Suits Knots that are read far more than they are written.
+		 * <p>
+		 * The buffer sizes given to {@link #lz78(int, float)} still apply, while {@link #lz78Dictionary(int, float)},
+		 * {@link #lz78Format(int)}, {@link #lz78RawFallback()}, {@link #lz78PhraseCache(int)} and
+		 * {@link #lz78MaxPhraseLength(int)} have no effect.
+		 */
+		KnotBuilder lz77();
+
+		/**
+		 * Compress each String on its own, with a table of up to 255 common byte sequences (of 1 to 8 bytes) learned
+		 * from {@code sample}, rather than with LZ78. Suits short Strings (keys, codes, URLs), which LZ78 barely
+		 * compresses until it has seen a lot of data, and decoding is a simple table lookup for each byte of
+		 * compressed data. The sample should be representative of the Strings that will be stored; only the first
+		 * 64KB of it are used.
+		 * <p>
+		 * The buffer sizes given to {@link #lz78(int, float)} still apply, while {@link #lz78Dictionary(int, float)},
+		 * {@link #lz78Format(int)}, {@link #lz78RawFallback()}, {@link #lz78PhraseCache(int)} and
+		 * {@link #lz78MaxPhraseLength(int)} have no effect. Can't be combined with {@link #lz77()}.
+		 */
+		KnotBuilder fsst(Iterable<String> sample);
+
+		/**
+		 * Choose the compression engine from the data. The first {@code sampleSize} Strings are held uncompressed, then
+		 * compressed by each of the available engines (uncompressed UTF-8 or Latin-1, LZ78 with a sparse or dense
+		 * dictionary, LZ78 with relative pointers, LZ77, and FSST trained on the sample), and the engine that holds
+		 * them in the least space is kept for the rest of the Knot. If several engines are within 10% of the smallest,
+		 * the first of them in that list wins, unless another reads the sample back more than twice as fast.
+		 * {@link Knot#flush()} makes the choice straight away, from the Strings stored so far.
+		 * <p>
+		 * The choice, and the size and speed of each engine on the sample, are given by {@link Knot#statistics()}.
+		 * Each stripe of a {@link #concurrent(int)} Knot makes its own choice. The buffer sizes given to
+		 * {@link #lz78(int, float)} still apply, while {@link #lz78Dictionary(int, float)}, {@link #lz78Format(int)},
+		 * {@link #lz78RawFallback()}, {@link #lz78PhraseCache(int)} and {@link #lz78MaxPhraseLength(int)} have no
+		 * effect. Can't be combined with {@link #lz77()} or {@link #fsst(Iterable)}.
+		 */
+		KnotBuilder adaptive(int sampleSize);
 		KnotBuilder rememberLast(int num);
+		/**
+		 * Keep the compressed data, and the LZ78 dictionary used to compress it, in native memory outside the Java heap.
+		 * However large the Knot grows, it adds nothing to the heap or to garbage collection time. Use
+		 * {@link Knot#close()} to free the native memory as soon as the Knot is no longer needed.
+		 * <p>
+		 * Combined with {@link #mappedFile(Path)}, the compressed data is in memory mapped files, and the dictionary in
+		 * native memory.
+		 */
 		KnotBuilder direct();
 		KnotBuilder lz78(int initialBufferSize);
+
+		/**
+		 * Build a {@link Knot} that can be used by many threads at once, both for creating and reading {@link Braid}s,
+		 * with one stripe for each available processor. See {@link #concurrent(int)}.
+		 */
+		KnotBuilder concurrent();
+
+		/**
+		 * Build a {@link Knot} that can be used by many threads at once, both for creating and reading {@link Braid}s.
+		 * The compressed data is striped over independent storage areas (each with its own LZ78 buffer and dictionary), so
+		 * that concurrent writers rarely wait for each other. Reading a {@link Braid} never blocks.
+		 * <p>
+		 * Each stripe has its own dictionary, so more stripes generally means a somewhat lower compression ratio.
+		 * 
+		 * @param concurrencyLevel
+		 *            the expected number of concurrently writing threads. Rounded up to a power of two.
+		 */
+		KnotBuilder concurrent(int concurrencyLevel);
+
+		/**
+		 * Build a {@link Knot} where one thread creates {@link Braid}s, while any number of other threads read them. Reading a
+		 * {@link Braid} never takes a lock, and always sees the complete value, even while the writing thread is adding
+		 * more data to the Knot.
+		 * <p>
+		 * {@link Knot#braid(String)}, {@link Knot#mutableBraid(String)}, {@link MutableBraid#set(String)},
+		 * {@link Knot#flush()}, {@link Knot#spaceUsed()} and {@link Knot#save(Path)} must only be called by the writing
+		 * thread (or be externally synchronized). Use {@link #concurrent()} if there are several writing threads.
+		 */
+		KnotBuilder singleWriter();
+
+		/**
+		 * Store the compressed data in memory mapped files, rather than on the Java heap. The OS page cache then decides
+		 * which parts of the data are kept in memory, and the heap (and garbage collection) are unaffected by the amount
+		 * of data stored.
+		 * <p>
+		 * Temporary files are created in the given directory as the Knot grows. Each one is deleted as soon as it is
+		 * mapped, or where the OS doesn't allow that, by {@link Knot#close()}. Files are created with a minimum size of
+		 * 64KB, regardless of the size given to {@link #lz78(int, float)}.
+		 * 
+		 * @param directory
+		 *            an existing directory, where the files will be created.
+		 */
+		KnotBuilder mappedFile(Path directory);
+
+		/**
+		 * Store each distinct String only once. Braiding a String that is already in the Knot returns a {@link Braid}
+		 * of the existing copy, which saves the space of compressing it again, and lets two Braids of the Knot be
+		 * compared without decompressing them.
+		 * <p>
+		 * The index of distinct Strings costs roughly 16 bytes per distinct String, and the first time a String is
+		 * repeated its stored copy is decompressed to confirm the match. It suits data with a lot of exact
+		 * repetition.
+		 */
+		KnotBuilder deduplicate();
+
+		/**
+		 * Implies {@link #deduplicate()}. Braiding a String that is already in the Knot also returns the same
+		 * {@link Braid} instance, which saves the Braid object for each repetition. Short Strings, which are otherwise
+		 * held in their Braid instead of the Knot, are stored in the Knot too, so that they also have a single instance.
+		 * <p>
+		 * The Knot keeps every Braid it has returned (roughly 40 bytes per distinct String), even if it is no longer
+		 * used elsewhere.
+		 */
+		KnotBuilder canonicalBraids();
+
+		/**
+		 * Store each String with a small header holding its {@link String#hashCode()}, its length in chars, and
+		 * whether it is all ASCII. {@link Braid#hashCode()} and {@link Braid#length()} are then answered without
+		 * decompressing the String, as is the first check of {@link Braid#equals(Object)}, so putting Braids into a
+		 * {@link java.util.HashMap} (for example) doesn't decompress every one of them.
+		 * <p>
+		 * The header costs 5 bytes for each String of up to 63 chars, and 6 bytes for each String of up to 8191
+		 * chars.
+		 */
+		KnotBuilder recordHeaders();
+
+		/**
+		 * Huffman code the compressed data, in blocks of 4KB, for deployments where memory matters more than speed.
+		 * LZ78 data shrinks by a further 5-10%, but reading a {@link Braid} decodes every block that its data is in,
+		 * which can make it tens of times slower, and storing one a few times slower. The last 16 blocks decoded are
+		 * cached, in about 65KB (for each stripe of a {@link #concurrent()} Knot) that is shared by every reading
+		 * thread, and included in {@link Knot#spaceUsed()}.
+		 * <p>
+		 * Applies to {@link #load(Path)} as well, where the loaded data is coded as it is read.
+		 */
+		KnotBuilder entropyCoded();
+
+		/**
+		 * Keep up to {@code maxEntries} of the most recently read Strings, so that reading one of them again (with
+		 * {@link Braid#get()} or {@link Knot#get(int)}) doesn't decompress it. This suits data where a few values are
+		 * read much more often than the others. When the cache is full, the CLOCK algorithm evicts a String that
+		 * hasn't been read since the last time round. Each entry holds its String, plus about 40 bytes.
+		 * <p>
+		 * The cache can be read by any number of threads without locking. The hits, misses and evictions are in
+		 * {@link Knot#statistics()}. Applies to {@link #load(Path)} as well.
+		 */
+		KnotBuilder decodeCache(int maxEntries);
 		Knot build();
+
+		/**
+		 * Build a {@link Knot} from a file written by {@link Knot#save(Path)}. The data is bulk-read rather than
+		 * re-compressed, so this is bound by I/O speed.
+		 * <p>
+		 * The layout of the data is restored from the snapshot, so {@link #concurrent(int)}, {@link #singleWriter()},
+		 * {@link #deduplicate()}, {@link #recordHeaders()}, {@link #lz78Format(int)}, {@link #lz78RawFallback()},
+		 * {@link #lz78PhraseCache(int)}, {@link #lz78MaxPhraseLength(int)}, {@link #lz77()}, {@link #fsst(Iterable)},
+		 * {@link #adaptive(int)} and {@link #lz78Dictionary(int, float)} have no effect; a Knot that was concurrent when it was saved is
+		 * concurrent when it is loaded. The remaining options (such as {@link #common(String, String...)} or
+		 * {@link #mappedFile(Path)}) apply as they do for {@link #build()}.
+		 */
+		Knot load(Path snapshot) throws IOException;
 	}
 
 	private static class KnotBuilderImpl implements KnotBuilder {
@@ -43,6 +263,21 @@ public class Knots {
 		private float lz78GrowthFactor = DEFAULT_GROWTH_FACTOR;
 		private int initialDictionaryCapacity = DEFAULT_DICTIONARY_CAPACITY;
 		private float dictionaryLoadFactor = DEFAULT_DICTIONARY_LOAD_FACTOR;
+		private int concurrencyLevel = 0;
+		private boolean singleWriter = false;
+		private Path mappedFileDirectory = null;
+		private boolean deduplicate = false;
+		private boolean canonicalBraids = false;
+		private boolean recordHeaders = false;
+		private int lz78Format = LZ78_FORMAT_ABSOLUTE_POINTERS;
+		private boolean lz78RawFallback = false;
+		private int lz78PhraseCacheBytes = 0;
+		private int lz78MaxPhraseLength = 0;
+		private boolean lz77 = false;
+		private FSSTSymbolTable fsstSymbolTable = null;
+		private boolean entropyCoded = false;
+		private int adaptiveSampleSize = 0;
+		private int decodeCacheCapacity = 0;
 
 		@Override
 		public KnotBuilder common(String commonString, String... remainingCommonStrings) {
@@ -75,6 +310,81 @@ public class Knots {
 			return this;
 		}
 
+		@Override
+		public KnotBuilder lz78Format(int formatVersion) {
+			checkAlreadyBuilt();
+			if (formatVersion != LZ78_FORMAT_ABSOLUTE_POINTERS && formatVersion != LZ78_FORMAT_RELATIVE_POINTERS
+					&& formatVersion != LZ78_FORMAT_PHRASE_LENGTHS) {
+				throw new IllegalArgumentException("Unknown LZ78 format: " + formatVersion);
+			}
+			this.lz78Format = formatVersion;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder lz78RawFallback() {
+			checkAlreadyBuilt();
+			this.lz78RawFallback = true;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder lz78PhraseCache(int maxBytes) {
+			checkAlreadyBuilt();
+			if (maxBytes < 1) {
+				throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+			}
+			this.lz78PhraseCacheBytes = maxBytes;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder lz78MaxPhraseLength(int maxLength) {
+			checkAlreadyBuilt();
+			if (maxLength < 1) {
+				throw new IllegalArgumentException("maxLength must be positive: " + maxLength);
+			}
+			this.lz78MaxPhraseLength = maxLength;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder lz77() {
+			checkAlreadyBuilt();
+			checkOneEngine(fsstSymbolTable == null && adaptiveSampleSize == 0);
+			this.lz77 = true;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder fsst(Iterable<String> sample) {
+			checkAlreadyBuilt();
+			checkOneEngine(!lz77 && adaptiveSampleSize == 0);
+			if (sample == null) {
+				throw new NullPointerException("null sample");
+			}
+			// Trained once, and shared by every stripe
+			this.fsstSymbolTable = FSSTSymbolTable.train(sample);
+			return this;
+		}
+
+		@Override
+		public KnotBuilder adaptive(int sampleSize) {
+			checkAlreadyBuilt();
+			checkOneEngine(!lz77 && fsstSymbolTable == null);
+			if (sampleSize < 1) {
+				throw new IllegalArgumentException("sampleSize must be positive: " + sampleSize);
+			}
+			this.adaptiveSampleSize = sampleSize;
+			return this;
+		}
+
+		private void checkOneEngine(boolean noOtherEngine) {
+			if (!noOtherEngine) {
+				throw new IllegalStateException("Only one of lz77(), fsst() and adaptive() can be used");
+			}
+		}
+
 		@Override
 		public KnotBuilder lz78Dictionary(int initialDictionaryCapacity, float dictionaryLoadFactor) {
 			checkAlreadyBuilt();
@@ -83,12 +393,92 @@ public class Knots {
 			return this;
 		}
 
+		@Override
+		public KnotBuilder concurrent() {
+			return concurrent(Runtime.getRuntime().availableProcessors());
+		}
+
+		@Override
+		public KnotBuilder concurrent(int concurrencyLevel) {
+			checkAlreadyBuilt();
+			if (concurrencyLevel < 1) {
+				throw new IllegalArgumentException("concurrencyLevel must be positive: " + concurrencyLevel);
+			}
+			this.concurrencyLevel = concurrencyLevel;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder singleWriter() {
+			checkAlreadyBuilt();
+			this.singleWriter = true;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder mappedFile(Path directory) {
+			checkAlreadyBuilt();
+			if (directory == null) {
+				throw new NullPointerException("null directory");
+			}
+			this.mappedFileDirectory = directory;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder deduplicate() {
+			checkAlreadyBuilt();
+			this.deduplicate = true;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder canonicalBraids() {
+			checkAlreadyBuilt();
+			this.deduplicate = true;
+			this.canonicalBraids = true;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder recordHeaders() {
+			checkAlreadyBuilt();
+			this.recordHeaders = true;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder entropyCoded() {
+			checkAlreadyBuilt();
+			this.entropyCoded = true;
+			return this;
+		}
+
+		@Override
+		public KnotBuilder decodeCache(int maxEntries) {
+			checkAlreadyBuilt();
+			if (maxEntries < 1) {
+				throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+			}
+			this.decodeCacheCapacity = maxEntries;
+			return this;
+		}
+
 		public Knot build() {
 			checkAlreadyBuilt();
 			built = true;
-			AutoGrowingByteArray buffer = new AutoGrowingByteArray(lz78BufferSize, lz78GrowthFactor);
-			//Buffer buffer = new AutoGrowingByteBuffer(lz78BufferSize, lz78GrowthFactor, direct);
+			return buildKnot(buildStorage(), concurrencyLevel != 0);
+		}
+
+		@Override
+		public Knot load(Path snapshot) throws IOException {
+			checkAlreadyBuilt();
+			built = true;
+			KnotStorage storage = KnotSnapshot.load(snapshot, bufferFactory());
+			return buildKnot(storage, storage instanceof ConcurrentKnotStorage);
+		}
 
+		private Knot buildKnot(KnotStorage storage, boolean concurrent) {
 			List<MutableInterner> mutableInterners = new ArrayList<MutableInterner>();
 			List<Interner> internerList = new ArrayList<Interner>(1);
 			if (commonStrings.size() == 1) {
@@ -103,13 +493,75 @@ public class Knots {
 
 			List<Rememberer> remembererList = new ArrayList<Rememberer>(1);
 			if (rememberLast == 1) {
-				remembererList.add(new LastOneStringRemember());
+				remembererList.add(concurrent ? new SharedLastOneStringRemember() : new LastOneStringRemember());
 			}
 			Rememberers rememberers = new Rememberers(remembererList);
 
-			return new KnotImpl(interners,
-					new LZ78KnotStorage(buffer, initialDictionaryCapacity, dictionaryLoadFactor), rememberers,
-					mutableInterners);
+			return new KnotImpl(interners, storage, rememberers, mutableInterners, canonicalBraids,
+					decodeCacheCapacity);
+		}
+
+		private KnotStorage buildStorage() {
+			if (concurrencyLevel == 0) {
+				return singleWriter ? new SingleWriterKnotStorage(buildStripeStorage()) : buildStripeStorage();
+			}
+			// Every stripe of a concurrent Knot is already single writer
+			KnotStorage[] stripes = new KnotStorage[ConcurrentKnotStorage.stripesFor(concurrencyLevel)];
+			for (int i = 0; i < stripes.length; i++) {
+				stripes[i] = buildStripeStorage();
+			}
+			// Equal Strings must go to the same stripe to be deduplicated
+			return new ConcurrentKnotStorage(stripes, deduplicate);
+		}
+
+		private KnotStorage buildStripeStorage() {
+			KnotStorage storage;
+			if (adaptiveSampleSize != 0) {
+				storage = new AdaptiveKnotStorage(adaptiveSampleSize, bufferFactory(), recordHeaders);
+			}
+			else if (fsstSymbolTable != null) {
+				storage = new FSSTKnotStorage(buildBuffer(lz78BufferSize), fsstSymbolTable, recordHeaders);
+			}
+			else if (lz77) {
+				storage = new LZ77KnotStorage(buildBuffer(lz78BufferSize), LZ77KnotStorage.DEFAULT_MAX_TABLE_SIZE,
+						recordHeaders);
+			}
+			else {
+				storage = new LZ78KnotStorage(buildBuffer(lz78BufferSize), new LZ78KnotStorage.Options(
+						initialDictionaryCapacity, dictionaryLoadFactor).directDictionary(direct)
+						.recordHeaders(recordHeaders).format(lz78Format).rawFallback(lz78RawFallback)
+						.phraseCacheBytes(lz78PhraseCacheBytes).maxPhraseLength(lz78MaxPhraseLength));
+			}
+			return deduplicate ? new DeduplicatingKnotStorage(storage) : storage;
+		}
+
+		private BufferFactory bufferFactory() {
+			return new BufferFactory() {
+				@Override
+				public Buffer newBuffer(int minimumCapacity) {
+					return buildBuffer(Math.max(lz78BufferSize, minimumCapacity));
+				}
+
+				@Override
+				public boolean isDirect() {
+					return direct;
+				}
+			};
+		}
+
+		private Buffer buildBuffer(int initialCapacity) {
+			Buffer buffer = buildUncodedBuffer(initialCapacity);
+			return entropyCoded ? new HuffmanBlockBuffer(buffer) : buffer;
+		}
+
+		private Buffer buildUncodedBuffer(int initialCapacity) {
+			if (mappedFileDirectory != null) {
+				return new MappedFileBuffer(mappedFileDirectory, initialCapacity, lz78GrowthFactor);
+			}
+			if (direct) {
+				return new AutoGrowingByteBuffer(initialCapacity, lz78GrowthFactor, true);
+			}
+			return new AutoGrowingByteArray(initialCapacity, lz78GrowthFactor);
 		}
 
 		@Override
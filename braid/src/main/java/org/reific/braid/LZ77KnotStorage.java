@@ -0,0 +1,466 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A {@link KnotStorage} that compresses each String with LZ77, where a match copies a run of bytes that is already in
+ * the buffer. Decoding a String is a handful of bulk copies, rather than following a pointer back through the buffer
+ * for every byte as {@link LZ78KnotStorage} does, so it is much faster to read, at some cost in compression ratio.
+ * <p>
+ * A record is the VInt length of the String in UTF-8 bytes, an optional {@link RecordHeader}, then a series of
+ * sequences that add up to the length. A sequence is:
+ * 
+ * <pre>
+ * VInt literal length | literal bytes | VInt match length - MIN_MATCH | VInt match distance
+ * </pre>
+ * 
+ * The match is left out of the last sequence if its literals reach the end of the String. The distance is counted back
+ * from the position of the match length.
+ * <p>
+ * A match can only copy bytes that are in the buffer as they are, which means the literals of earlier sequences. The
+ * encoder finds them with a hash table of the positions of every 4 bytes of literals written, keeping the most recent
+ * few positions for each hash, so the table size (rather than a distance) bounds the window of earlier Strings that
+ * can be matched. A match is confirmed, and extended, by comparing against the buffer itself, so it may carry on past
+ * the end of the literals it started in, wherever the bytes that follow happen to match.
+ * <p>
+ * If the only matches for a String are a few short ones, it is stored as literals instead. That costs a little for this
+ * String, but leaves one contiguous copy of it for later Strings like it to match in long runs, rather than fragments.
+ * That only pays off for many similar records (log lines, keys, paths), where it soon makes most Strings compress well.
+ * In prose few Strings ever do, and storing the rest as literals only loses the matches they had, so this is only done
+ * while at least half of the recent Strings have compressed well.
+ * <p>
+ * The hash table grows with the buffer, up to a maximum size, and is always on the Java heap. Not thread safe.
+ */
+final class LZ77KnotStorage implements KnotStorage {
+
+	// A match costs a VInt length and distance (often 3 or 4 bytes together), so shorter matches don't pay
+	static final int MIN_MATCH = 8;
+	// Number of bytes hashed to find a match
+	private static final int HASH_BYTES = 4;
+	// If the matches would only compress a String to more than this fraction of its size, it is stored as literals
+	private static final float MAX_ENCODED_FRACTION = 0.5f;
+	// Strings are only stored as literals while at least half of roughly this many of the most recent have compressed
+	// to MAX_ENCODED_FRACTION or better
+	private static final int RECENT_STRINGS = 256;
+	// Number of positions kept for each hash
+	private static final int WAYS = 4;
+	// At least two buckets
+	private static final int MIN_TABLE_SIZE = 2 * WAYS;
+	private static final int INITIAL_TABLE_SIZE = 1 << 8;
+	static final int DEFAULT_MAX_TABLE_SIZE = 1 << 16;
+	// The table is doubled whenever there are this many bytes in the buffer for each slot
+	private static final int BYTES_PER_SLOT = 8;
+
+	private final Buffer byteBuffer;
+	private final boolean recordHeaders;
+	private final int maxTableSize;
+	// buffer position + 1 of the most recent literals with each hash, so that zero means an empty slot
+	private int[] table;
+	private int hashShift;
+	// The matches found in the String being stored
+	private int[] matchOffsets = new int[8];
+	private int[] matchLengths = new int[8];
+	private int[] matchPositions = new int[8];
+	// Of the most recent Strings long enough to match, how many there were, and how many compressed well. Both are
+	// halved whenever recentStrings reaches RECENT_STRINGS. Not kept in snapshots, as they soon recover.
+	private int recentStrings = 0;
+	private int recentCompressedWell = 0;
+
+	/**
+	 * @param maxTableSize
+	 *            the largest number of entries in the hash table. Must be a power of two, of at least 8.
+	 * @param recordHeaders
+	 *            if true, each String is stored with its hash code, length in chars, and whether it is all ASCII.
+	 */
+	LZ77KnotStorage(Buffer buffer, int maxTableSize, boolean recordHeaders) {
+		this(buffer, maxTableSize, recordHeaders, new int[Math.min(INITIAL_TABLE_SIZE, maxTableSize)]);
+	}
+
+	private LZ77KnotStorage(Buffer buffer, int maxTableSize, boolean recordHeaders, int[] table) {
+		if (maxTableSize < MIN_TABLE_SIZE || Integer.bitCount(maxTableSize) != 1) {
+			throw new IllegalArgumentException("Hash table size must be a power of two, of at least " + MIN_TABLE_SIZE
+					+ ": " + maxTableSize);
+		}
+		this.byteBuffer = buffer;
+		this.maxTableSize = maxTableSize;
+		this.recordHeaders = recordHeaders;
+		setTable(table);
+	}
+
+	private void setTable(int[] table) {
+		this.table = table;
+		this.hashShift = Integer.SIZE - Integer.numberOfTrailingZeros(table.length / WAYS);
+	}
+
+	@Override
+	public int store(String string) {
+		int startingBufferPosition = byteBuffer.nextWritePosition();
+		byte[] stringBytes = string.getBytes(Utf8.CHARSET);
+		int stringLength = stringBytes.length;
+		byteBuffer.putVInt(stringLength);
+		if (recordHeaders) {
+			RecordHeader.put(byteBuffer, string, stringBytes);
+		}
+		int numMatches = findMatches(stringBytes);
+		boolean compressedWell = numMatches > 0
+				&& encodedSize(stringLength, numMatches) <= stringLength * MAX_ENCODED_FRACTION;
+		if (numMatches > 0 && !compressedWell && 2 * recentCompressedWell >= recentStrings) {
+			// A few scattered short matches, in data where Strings like it are common. Store it all as literals
+			// instead, so that later Strings like it can match it in one piece.
+			numMatches = 0;
+		}
+		if (stringLength >= MIN_MATCH) {
+			countRecent(compressedWell);
+		}
+		// start of the literals that haven't been written yet
+		int anchor = 0;
+		for (int i = 0; i < numMatches; i++) {
+			int offset = matchOffsets[i];
+			int matchLength = matchLengths[i];
+			int candidate = matchPositions[i];
+			putLiterals(stringBytes, anchor, offset - anchor);
+			int matchPosition = byteBuffer.nextWritePosition();
+			byteBuffer.putVInt(matchLength - MIN_MATCH);
+			byteBuffer.putVInt(matchPosition - candidate);
+			// Keep the matched bytes in the table, so they aren't lost to newer literals with the same hash
+			for (int j = 0; j <= matchLength - HASH_BYTES; j++) {
+				insert(hash(stringBytes, offset + j), candidate + j);
+			}
+			anchor = offset + matchLength;
+		}
+		if (anchor < stringLength) {
+			putLiterals(stringBytes, anchor, stringLength - anchor);
+		}
+		growTableIfNeeded();
+		return startingBufferPosition;
+	}
+
+	private void countRecent(boolean compressedWell) {
+		recentStrings++;
+		if (compressedWell) {
+			recentCompressedWell++;
+		}
+		if (recentStrings == RECENT_STRINGS) {
+			recentStrings /= 2;
+			recentCompressedWell /= 2;
+		}
+	}
+
+	/**
+	 * Greedily find the longest match at each offset of {@code string}, into {@link #matchOffsets},
+	 * {@link #matchLengths} and {@link #matchPositions}.
+	 * 
+	 * @return the number of matches found
+	 */
+	private int findMatches(byte[] string) {
+		int numMatches = 0;
+		int offset = 0;
+		while (offset <= string.length - MIN_MATCH) {
+			int bucket = hash(string, offset) * WAYS;
+			int candidate = -1;
+			int matchLength = 0;
+			for (int way = 0; way < WAYS && table[bucket + way] != 0; way++) {
+				int wayCandidate = table[bucket + way] - 1;
+				int wayMatchLength = matchLength(wayCandidate, string, offset);
+				if (wayMatchLength > matchLength) {
+					candidate = wayCandidate;
+					matchLength = wayMatchLength;
+				}
+			}
+			if (matchLength >= MIN_MATCH) {
+				if (numMatches == matchOffsets.length) {
+					matchOffsets = Arrays.copyOf(matchOffsets, numMatches * 2);
+					matchLengths = Arrays.copyOf(matchLengths, numMatches * 2);
+					matchPositions = Arrays.copyOf(matchPositions, numMatches * 2);
+				}
+				matchOffsets[numMatches] = offset;
+				matchLengths[numMatches] = matchLength;
+				matchPositions[numMatches] = candidate;
+				numMatches++;
+				offset += matchLength;
+			}
+			else {
+				offset++;
+			}
+		}
+		return numMatches;
+	}
+
+	/**
+	 * @return roughly the number of bytes that the matches found will encode the String in
+	 */
+	private int encodedSize(int stringLength, int numMatches) {
+		int distanceFrom = byteBuffer.nextWritePosition();
+		int size = stringLength;
+		for (int i = 0; i < numMatches; i++) {
+			// the match replaces its bytes with its length and distance, and needs a literal length before it
+			size += 1 - matchLengths[i] + VInt.size(matchLengths[i] - MIN_MATCH)
+					+ VInt.size(distanceFrom - matchPositions[i]);
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes at {@code position} in the buffer that are the same as those at {@code offset} in
+	 *         {@code string}
+	 */
+	private int matchLength(int position, byte[] string, int offset) {
+		int limit = Math.min(string.length - offset, byteBuffer.nextWritePosition() - position);
+		int length = 0;
+		while (length < limit && byteBuffer.getByte(position + length) == string[offset + length]) {
+			length++;
+		}
+		return length;
+	}
+
+	private void putLiterals(byte[] string, int offset, int length) {
+		byteBuffer.putVInt(length);
+		int position = byteBuffer.nextWritePosition();
+		byteBuffer.putBytes(string, offset, length);
+		for (int i = 0; i <= length - HASH_BYTES; i++) {
+			insert(hash(string, offset + i), position + i);
+		}
+	}
+
+	/**
+	 * Make {@code position} the most recent entry in the bucket for {@code hash}, dropping the oldest if it is full.
+	 */
+	private void insert(int hash, int position) {
+		int bucket = hash * WAYS;
+		int value = position + 1;
+		int way = 0;
+		while (way < WAYS - 1 && table[bucket + way] != value) {
+			way++;
+		}
+		for (; way > 0; way--) {
+			table[bucket + way] = table[bucket + way - 1];
+		}
+		table[bucket] = value;
+	}
+
+	private int hash(byte[] bytes, int offset) {
+		int value = (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8 | (bytes[offset + 2] & 0xFF) << 16
+				| bytes[offset + 3] << 24;
+		// Fibonacci hashing, keeping the well-mixed high-order bits
+		return (value * 0x9E3779B1) >>> hashShift;
+	}
+
+	private void growTableIfNeeded() {
+		if (table.length >= maxTableSize || byteBuffer.nextWritePosition() < (long) table.length * BYTES_PER_SLOT) {
+			return;
+		}
+		int[] oldTable = table;
+		setTable(new int[oldTable.length * 2]);
+		byte[] key = new byte[HASH_BYTES];
+		// oldest first, so the most recent entries end up first in their buckets
+		for (int way = WAYS - 1; way >= 0; way--) {
+			for (int bucket = 0; bucket < oldTable.length; bucket += WAYS) {
+				int oldValue = oldTable[bucket + way];
+				if (oldValue != 0) {
+					// The key of each entry is still in the buffer
+					byteBuffer.getBytes(oldValue - 1, key, 0, HASH_BYTES);
+					insert(hash(key, 0), oldValue - 1);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String lookup(int index) {
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			lookupUtf8(index, scratch);
+			return new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		final long sizeOfStringVInt = byteBuffer.getVInt(index);
+		final int sizeOfString = (int) sizeOfStringVInt;
+		int position = skipRecordHeader(index + (int) (sizeOfStringVInt >> 32));
+		final byte[] result = scratch.ensureCapacity(sizeOfString);
+		int resultCount = 0;
+		while (resultCount < sizeOfString) {
+			final long literalLengthVInt = byteBuffer.getVInt(position);
+			final int literalLength = (int) literalLengthVInt;
+			position += (int) (literalLengthVInt >> 32);
+			if (literalLength > 0) {
+				byteBuffer.getBytes(position, result, resultCount, literalLength);
+				position += literalLength;
+				resultCount += literalLength;
+			}
+			if (resultCount == sizeOfString) {
+				break;
+			}
+			final long matchLengthVInt = byteBuffer.getVInt(position);
+			final int matchLength = (int) matchLengthVInt + MIN_MATCH;
+			final long distanceVInt = byteBuffer.getVInt(position + (int) (matchLengthVInt >> 32));
+			byteBuffer.getBytes(position - (int) distanceVInt, result, resultCount, matchLength);
+			resultCount += matchLength;
+			position += (int) (matchLengthVInt >> 32) + (int) (distanceVInt >> 32);
+		}
+		scratch.length = sizeOfString;
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		final long sizeOfStringVInt = byteBuffer.getVInt(index);
+		return new Cursor(skipRecordHeader(index + (int) (sizeOfStringVInt >> 32)), (int) sizeOfStringVInt);
+	}
+
+	private int skipRecordHeader(int position) {
+		return recordHeaders ? RecordHeader.skip(byteBuffer, position) : position;
+	}
+
+	/**
+	 * Copies out one sequence's literals, or match, at a time
+	 */
+	private final class Cursor implements ByteCursor {
+
+		// the next literal or match length
+		private int position;
+		// the number of bytes of the String not yet in a copy
+		private int remaining;
+		private boolean literalsNext = true;
+		private int copyPosition;
+		private int copyRemaining = 0;
+
+		Cursor(int position, int length) {
+			this.position = position;
+			this.remaining = length;
+		}
+
+		@Override
+		public int next() {
+			while (copyRemaining == 0) {
+				if (remaining == 0) {
+					return -1;
+				}
+				long lengthVInt = byteBuffer.getVInt(position);
+				if (literalsNext) {
+					copyPosition = position + (int) (lengthVInt >> 32);
+					copyRemaining = (int) lengthVInt;
+					position = copyPosition + copyRemaining;
+				}
+				else {
+					long distanceVInt = byteBuffer.getVInt(position + (int) (lengthVInt >> 32));
+					copyPosition = position - (int) distanceVInt;
+					copyRemaining = (int) lengthVInt + MIN_MATCH;
+					position += (int) (lengthVInt >> 32) + (int) (distanceVInt >> 32);
+				}
+				literalsNext = !literalsNext;
+				remaining -= copyRemaining;
+			}
+			copyRemaining--;
+			return byteBuffer.getByte(copyPosition++) & 0xFF;
+		}
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return false;
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		return recordHeaders;
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.hashCode(byteBuffer, index);
+	}
+
+	@Override
+	public int storedLength(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.length(byteBuffer, index);
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.isAscii(byteBuffer, index);
+	}
+
+	@Override
+	public long spaceUsed() {
+		return byteBuffer.getSize() + table.length * 4L;
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		statistics.put("engine", "lz77");
+		statistics.put("bytesStored", byteBuffer.nextWritePosition());
+		statistics.put("hashTableSize", table.length);
+	}
+
+	/**
+	 * Forget the Strings stored so far, so that later Strings only match each other.
+	 */
+	@Override
+	public void flush() {
+		setTable(new int[Math.min(INITIAL_TABLE_SIZE, maxTableSize)]);
+	}
+
+	@Override
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(KnotSnapshot.LZ77_STORAGE);
+		out.writeBoolean(recordHeaders);
+		out.writeInt(maxTableSize);
+		KnotSnapshot.writeBuffer(out, byteBuffer);
+		out.writeInt(table.length);
+		KnotSnapshot.writeInts(out, table);
+	}
+
+	static LZ77KnotStorage load(DataInput in, BufferFactory bufferFactory) throws IOException {
+		boolean recordHeaders = in.readBoolean();
+		int maxTableSize = in.readInt();
+		Buffer buffer = KnotSnapshot.readBuffer(in, bufferFactory);
+		int tableSize = in.readInt();
+		if (tableSize < MIN_TABLE_SIZE || Integer.bitCount(tableSize) != 1 || tableSize > maxTableSize) {
+			throw new IOException("Corrupt Knot snapshot. Invalid LZ77 hash table size: " + tableSize);
+		}
+		int[] table = new int[tableSize];
+		KnotSnapshot.readInts(in, table);
+		return new LZ77KnotStorage(buffer, maxTableSize, recordHeaders, table);
+	}
+
+	@Override
+	public void close() {
+		byteBuffer.close();
+	}
+
+}
@@ -18,6 +18,11 @@
  */
 package org.reific.braid;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 class LZ78HashOnlyDictionary {
 
 	/**
@@ -28,54 +33,70 @@ class LZ78HashOnlyDictionary {
 	 * (from java.utl.Hashtable)
 	 */
 	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+	// A direct table holds both ints of a slot in one ByteBuffer
+	private static final int MAX_DIRECT_SIZE = Integer.MAX_VALUE / 8;
 	private static final int[] EMPTY_RESULT = new int[0];
 
+	private final boolean direct;
+	private final int maxCapacity;
 	private int capacity;
-	private int[] values;
-	private int[] fullHashes;
+	private Slots slots;
 	private int numElements;
 	private float loadFactor;
 	private int threshold;
 
 	LZ78HashOnlyDictionary(int initialCapacity, float loadFactor) {
-		capacity = initialCapacity;
-		values = new int[initialCapacity];
-		fullHashes = new int[initialCapacity];
+		this(initialCapacity, loadFactor, false);
+	}
+
+	/**
+	 * @param direct
+	 *            if true, the hash table is held in native memory (outside the Java heap), which must be freed with
+	 *            {@link #close()}.
+	 */
+	LZ78HashOnlyDictionary(int initialCapacity, float loadFactor, boolean direct) {
+		this.direct = direct;
+		this.maxCapacity = direct ? MAX_DIRECT_SIZE : MAX_ARRAY_SIZE;
+		capacity = Math.min(initialCapacity, maxCapacity);
+		slots = newSlots(capacity);
 		this.loadFactor = loadFactor;
-		this.threshold = (int) Math.min(initialCapacity * loadFactor, MAX_ARRAY_SIZE + 1);
+		this.threshold = (int) Math.min(capacity * loadFactor, MAX_ARRAY_SIZE + 1);
+	}
+
+	private Slots newSlots(int capacity) {
+		return direct ? new DirectSlots(capacity) : new HeapSlots(capacity);
 	}
 
 	protected void rehash() {
-		int oldCapacity = values.length;
-		int[] oldValues = values;
-		int[] oldFullHashes = fullHashes;
+		int oldCapacity = capacity;
+		Slots oldSlots = slots;
 
 		// overflow-conscious code (duplicated from java.util.Hashtable)
 		int newCapacity = (oldCapacity << 1) + 1;
-		if (newCapacity - MAX_ARRAY_SIZE > 0) {
-			if (oldCapacity == MAX_ARRAY_SIZE) {
-				// Keep running with MAX_ARRAY_SIZE buckets
+		if (newCapacity - maxCapacity > 0) {
+			if (oldCapacity == maxCapacity) {
+				// Keep running with maxCapacity buckets
 				return;
 			}
-			newCapacity = MAX_ARRAY_SIZE;
+			newCapacity = maxCapacity;
 		}
 		capacity = newCapacity;
-		values = new int[newCapacity];
-		fullHashes = new int[newCapacity];
+		slots = newSlots(newCapacity);
 
 		threshold = (int) Math.min(newCapacity * loadFactor, MAX_ARRAY_SIZE + 1);
 		for (int i = 0; i < oldCapacity; i++) {
-			int oldValue = oldValues[i];
+			int oldValue = oldSlots.value(i);
 			if (oldValue != 0) {
+				int oldFullHash = oldSlots.fullHash(i);
 				// masked to prevent negative
-				int index = (oldFullHashes[i] & 0x7FFFFFFF) % newCapacity;
-				while (values[index] != 0) {
-					index = (index + 1) % values.length;
+				int index = (oldFullHash & 0x7FFFFFFF) % newCapacity;
+				while (slots.value(index) != 0) {
+					index = (index + 1) % newCapacity;
 				}
-				values[index] = oldValue;
-				fullHashes[index] = oldFullHashes[i];
+				slots.set(index, oldValue, oldFullHash);
 			}
 		}
+		oldSlots.free();
 	}
 
 	/**
@@ -90,8 +111,8 @@ class LZ78HashOnlyDictionary {
 		int upperBound = lowerBound;
 		int actualMatches = 0;
 		// linear probe for free space 
-		while (values[upperBound % capacity] != 0) {
-			if (fullHashes[upperBound % capacity] == hashCode) {
+		while (slots.value(upperBound % capacity) != 0) {
+			if (slots.fullHash(upperBound % capacity) == hashCode) {
 				actualMatches++;
 			}
 			upperBound++;
@@ -104,9 +125,9 @@ class LZ78HashOnlyDictionary {
 		int[] result = new int[actualMatches];
 		int resultIndex = 0;
 		for (int i = 0; i < numMatches; i++) {
-			if (fullHashes[(lowerBound + i) % capacity] == hashCode) {
+			if (slots.fullHash((lowerBound + i) % capacity) == hashCode) {
 				// value offset by 1 so zero-initialized array means not-present
-				result[resultIndex++] = values[(lowerBound + i) % capacity] - 1;
+				result[resultIndex++] = slots.value((lowerBound + i) % capacity) - 1;
 			}
 		}
 		return result;
@@ -148,8 +169,8 @@ class LZ78HashOnlyDictionary {
 			if (index >= capacity) {
 				index = index % capacity;
 			}
-			while (values[index] != 0) {
-				if (fullHashes[index] == hashCode) {
+			while (slots.value(index) != 0) {
+				if (slots.fullHash(index) == hashCode) {
 					indexFound = i;
 					continue forloop;
 				}
@@ -188,20 +209,200 @@ class LZ78HashOnlyDictionary {
 		}
 		int hashCode = computeHashCode(key, offset, length);
 		// masked to prevent negative
-		int location = (hashCode & 0x7FFFFFFF) % values.length;
+		int location = (hashCode & 0x7FFFFFFF) % capacity;
 
 		// linear probe for free space 
-		while (values[location] != 0) {
-			location = (location + 1) % values.length;
+		while (slots.value(location) != 0) {
+			location = (location + 1) % capacity;
 		}
 		// value offset by 1 so zero-initialized array means not-present
-		values[location] = value + 1;
-		fullHashes[location] = hashCode;
+		slots.set(location, value + 1, hashCode);
 		numElements = numElements + 1;
 	}
 
+	/**
+	 * Remove the entry that {@link #put(byte[], int, int, int)} stored with the same key and value, if there is one.
+	 * Later entries of its cluster are shifted back into the gap, so every entry can still be reached by probing from
+	 * its home slot.
+	 */
+	void remove(byte[] key, int offset, int length, int value) {
+		int hashCode = computeHashCode(key, offset, length);
+		// masked to prevent negative
+		int hole = (hashCode & 0x7FFFFFFF) % capacity;
+		while (slots.value(hole) != value + 1 || slots.fullHash(hole) != hashCode) {
+			if (slots.value(hole) == 0) {
+				return;
+			}
+			hole = (hole + 1) % capacity;
+		}
+		for (int slot = (hole + 1) % capacity; slots.value(slot) != 0; slot = (slot + 1) % capacity) {
+			int home = (slots.fullHash(slot) & 0x7FFFFFFF) % capacity;
+			// The entry can fill the hole unless its home is (cyclically) after the hole
+			boolean homeAfterHole = hole <= slot ? home > hole && home <= slot : home > hole || home <= slot;
+			if (!homeAfterHole) {
+				slots.set(hole, slots.value(slot), slots.fullHash(slot));
+				hole = slot;
+			}
+		}
+		slots.set(hole, 0, 0);
+		numElements = numElements - 1;
+	}
+
 	public long spaceUsed() {
-		return (values.length + fullHashes.length) * 4;
+		return capacity * 8L;
+	}
+
+	/**
+	 * Free the native memory of a direct dictionary. The dictionary must not be used afterwards.
+	 */
+	void close() {
+		slots.free();
+	}
+
+	void save(DataOutput out) throws IOException {
+		out.writeInt(capacity);
+		out.writeInt(numElements);
+		out.writeFloat(loadFactor);
+		slots.save(out);
+	}
+
+	static LZ78HashOnlyDictionary load(DataInput in, boolean direct) throws IOException {
+		int capacity = in.readInt();
+		int numElements = in.readInt();
+		float loadFactor = in.readFloat();
+		LZ78HashOnlyDictionary dictionary = new LZ78HashOnlyDictionary(capacity, loadFactor, direct);
+		if (dictionary.capacity != capacity) {
+			throw new IOException("Knot snapshot dictionary is too large to load off-heap: " + capacity);
+		}
+		dictionary.slots.load(in);
+		dictionary.numElements = numElements;
+		return dictionary;
+	}
+
+	/**
+	 * The hash table. Each slot holds a value (offset by one, so zero means the slot is empty) and the full hash code of
+	 * its key. Both are saved as all values followed by all hash codes.
+	 */
+	private static abstract class Slots {
+
+		abstract int value(int slot);
+
+		abstract int fullHash(int slot);
+
+		abstract void set(int slot, int value, int fullHash);
+
+		abstract void save(DataOutput out) throws IOException;
+
+		abstract void load(DataInput in) throws IOException;
+
+		abstract void free();
+	}
+
+	private static final class HeapSlots extends Slots {
+
+		private final int[] values;
+		private final int[] fullHashes;
+
+		HeapSlots(int capacity) {
+			values = new int[capacity];
+			fullHashes = new int[capacity];
+		}
+
+		@Override
+		int value(int slot) {
+			return values[slot];
+		}
+
+		@Override
+		int fullHash(int slot) {
+			return fullHashes[slot];
+		}
+
+		@Override
+		void set(int slot, int value, int fullHash) {
+			values[slot] = value;
+			fullHashes[slot] = fullHash;
+		}
+
+		@Override
+		void save(DataOutput out) throws IOException {
+			KnotSnapshot.writeInts(out, values);
+			KnotSnapshot.writeInts(out, fullHashes);
+		}
+
+		@Override
+		void load(DataInput in) throws IOException {
+			KnotSnapshot.readInts(in, values);
+			KnotSnapshot.readInts(in, fullHashes);
+		}
+
+		@Override
+		void free() {
+			// garbage collected
+		}
+	}
+
+	/**
+	 * Values in the first half of a direct ByteBuffer, and hash codes in the second half. The buffer is big-endian, the
+	 * same as a snapshot, so it can be saved and loaded as plain bytes.
+	 */
+	private static final class DirectSlots extends Slots {
+
+		private ByteBuffer table;
+		private final int fullHashesOffset;
+
+		DirectSlots(int capacity) {
+			// allocateDirect zeroes the memory, so every slot starts empty
+			table = ByteBuffer.allocateDirect(capacity * 8);
+			fullHashesOffset = capacity * 4;
+		}
+
+		@Override
+		int value(int slot) {
+			return table.getInt(slot << 2);
+		}
+
+		@Override
+		int fullHash(int slot) {
+			return table.getInt(fullHashesOffset + (slot << 2));
+		}
+
+		@Override
+		void set(int slot, int value, int fullHash) {
+			table.putInt(slot << 2, value);
+			table.putInt(fullHashesOffset + (slot << 2), fullHash);
+		}
+
+		@Override
+		void save(DataOutput out) throws IOException {
+			ByteBuffer source = table.duplicate();
+			source.clear();
+			byte[] chunk = new byte[Math.min(source.remaining(), KnotSnapshot.CHUNK_SIZE)];
+			while (source.hasRemaining()) {
+				int count = Math.min(chunk.length, source.remaining());
+				source.get(chunk, 0, count);
+				out.write(chunk, 0, count);
+			}
+		}
+
+		@Override
+		void load(DataInput in) throws IOException {
+			ByteBuffer target = table.duplicate();
+			target.clear();
+			byte[] chunk = new byte[Math.min(target.remaining(), KnotSnapshot.CHUNK_SIZE)];
+			while (target.hasRemaining()) {
+				int count = Math.min(chunk.length, target.remaining());
+				in.readFully(chunk, 0, count);
+				target.put(chunk, 0, count);
+			}
+		}
+
+		@Override
+		void free() {
+			ByteBuffer freed = table;
+			table = null;
+			DirectBuffers.free(freed);
+		}
 	}
 
 }
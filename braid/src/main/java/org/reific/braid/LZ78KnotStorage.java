@@ -18,7 +18,13 @@
  */
 package org.reific.braid;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * (With VInt) Example of storing: this that the other
@@ -64,30 +70,307 @@ import java.nio.charset.Charset;
  * </pre>
  * 
  * <p>
- * TODO: encode prefix pointers as negative offset vInts (instead of fixed 32
- * bit int)
+ * If the storage has record headers, the length of each record is followed by a {@link RecordHeader}, then the tokens
+ * as usual.
+ * <p>
+ * In format {@link #RELATIVE_POINTERS}, the low-order bit of each prefix pointer says how the rest of it is coded: if
+ * set, as the distance back from the token to its prefix, otherwise as the absolute position (so 0 still means none).
+ * Whichever is smaller is written. An absolute pointer grows with the buffer, so in a buffer of more than 2MB a
+ * pointer to a recent phrase takes 4 bytes, where the distance takes 1 to 3. Pure distances do no better overall
+ * though, since the short, common phrases are defined near the start of the buffer, where their absolute positions
+ * are small and their distances large.
+ * <p>
+ * In format {@link #PHRASE_LENGTHS}, each prefix pointer (absolute, as in {@link #ABSOLUTE_POINTERS}) is followed by a
+ * VInt of the length of the prefix's phrase. Walking the chain of prefixes reads a phrase from its last byte to its
+ * first, so without the length, a phrase is decoded backwards and then reversed. With it, each byte is written
+ * straight to its place in the result, from the end of the phrase back to its start.
+ * <p>
+ * With raw fallback, the length of each record is shifted left by one, and its low-order bit is set if the String is
+ * stored as plain UTF-8 rather than as tokens. A String is stored plain if its tokens would take more bytes than
+ * that, as they do for random data such as UUIDs (where nearly every token is a single byte and a pointer). The tokens
+ * are encoded into {@link #pendingTokens} before anything is written to the buffer, and the phrases they added to the
+ * dictionary are removed again if they aren't used. A String stored plain teaches the dictionary nothing, so the
+ * first {@link #RAW_FALLBACK_LEARNING_BYTES} after the dictionary is created are always tokens; otherwise the
+ * dictionary would never learn enough for anything to be stored as tokens.
  * <p>
  * 
  */
 class LZ78KnotStorage implements KnotStorage {
 
+	/**
+	 * Record format with prefix pointers that are absolute positions in the buffer
+	 */
+	static final int ABSOLUTE_POINTERS = 1;
+	/**
+	 * Record format with prefix pointers that are distances back from the token
+	 */
+	static final int RELATIVE_POINTERS = 2;
+	/**
+	 * Record format with absolute prefix pointers, and the length of each token's phrase
+	 */
+	static final int PHRASE_LENGTHS = 3;
+
 	private static final Charset STRING_CHARSET = Charset.forName("UTF-8");
+	// Until the dictionary has learned something, almost every String is larger as tokens, so with raw fallback the
+	// first Strings after the dictionary is created are always stored as tokens
+	static final int RAW_FALLBACK_LEARNING_BYTES = 64 * 1024;
+	// Shorter phrases are quicker to walk than to look up
+	static final int MIN_CACHED_PHRASE_LENGTH = 4;
+	// Roughly the bytes taken by a cached phrase, besides the phrase itself: its array, its cache entry and its slots
+	private static final int CACHED_PHRASE_OVERHEAD = 48;
+	// How far along a chain of prefixes to look for a cached phrase
+	private static final int PHRASE_CACHE_PROBES = 2;
 
 	private final Buffer byteBuffer;
 	private LZ78HashOnlyDictionary dictionary;
 	private final int initialDictionaryCapacity;
 	private final float dictionaryLoadFactor;
+	private final boolean directDictionary;
+	private final boolean recordHeaders;
+	private final int format;
+	private final boolean relativePointers;
+	private final boolean phraseLengths;
+	private final boolean rawFallback;
+	private final int maxPhraseLength;
+	// The longest phrase that can be the prefix of another, which is all the dictionary needs to hold
+	private final int maxPrefixLength;
+	// The number of records stored since this was created, by the length of their longest phrase: entry n counts
+	// those from 2^n to 2^(n+1) - 1 bytes long. Not saved in snapshots.
+	private final long[] longestPhraseCounts = new long[32];
+	// With raw fallback, the tokens of the String being stored, which will start at pendingStart in the buffer
+	private byte[] pendingTokens = new byte[64];
+	private int pendingLength = 0;
+	private int pendingStart = Integer.MAX_VALUE;
+	// The buffer position when the dictionary was created
+	private int dictionaryStart = 0;
+	// With raw fallback, the offset, length and value of each phrase added to the dictionary for the String being
+	// stored
+	private int[] pendingPhrases = new int[3 * 16];
+	private int numPendingPhrases = 0;
+	// The expanded phrases of tokens, by token position. Null unless a phrase cache was requested.
+	private final DecodeCache<byte[]> phraseCache;
+	// A bit for each token whose phrase has been decoded recently (give or take hash collisions). The cache is only
+	// probed at, and a phrase only cached the second time it is decoded from, a token whose bit is set, so phrases that
+	// are only read once neither evict the ones in use nor pay for a probe of the (much larger) cache. Cleared when
+	// half the bits are set. Updated by readers without synchronization, so updates can be lost, which only means a
+	// phrase is cached a little earlier or later.
+	private final long[] phrasesSeen;
+	private final int phrasesSeenShift;
+	private int numPhrasesSeen = 0;
 
 	public LZ78KnotStorage(Buffer buffer, int initialDictionaryCapacity, float dictionaryLoadFactor) {
+		this(buffer, new Options(initialDictionaryCapacity, dictionaryLoadFactor));
+	}
+
+	public LZ78KnotStorage(Buffer buffer, Options options) {
+		this(buffer, options, new LZ78HashOnlyDictionary(options.initialDictionaryCapacity,
+				options.dictionaryLoadFactor, options.directDictionary));
+	}
+
+	private LZ78KnotStorage(Buffer buffer, Options options, LZ78HashOnlyDictionary dictionary) {
 		this.byteBuffer = buffer;
-		this.initialDictionaryCapacity = initialDictionaryCapacity;
-		this.dictionaryLoadFactor = dictionaryLoadFactor;
-		dictionary = new LZ78HashOnlyDictionary(initialDictionaryCapacity, dictionaryLoadFactor);
+		this.initialDictionaryCapacity = options.initialDictionaryCapacity;
+		this.dictionaryLoadFactor = options.dictionaryLoadFactor;
+		this.directDictionary = options.directDictionary;
+		this.recordHeaders = options.recordHeaders;
+		this.format = options.format;
+		this.relativePointers = format == RELATIVE_POINTERS;
+		this.phraseLengths = format == PHRASE_LENGTHS;
+		this.rawFallback = options.rawFallback;
+		this.maxPhraseLength = options.maxPhraseLength;
+		this.maxPrefixLength = maxPhraseLength == 0 ? Integer.MAX_VALUE : maxPhraseLength - 1;
+		this.dictionary = dictionary;
+		int phraseCacheBytes = options.phraseCacheBytes;
+		if (phraseCacheBytes == 0) {
+			this.phraseCache = null;
+			this.phrasesSeen = null;
+			this.phrasesSeenShift = 0;
+		}
+		else {
+			int capacity = Math.max(1, phraseCacheBytes / (MIN_CACHED_PHRASE_LENGTH + CACHED_PHRASE_OVERHEAD));
+			this.phraseCache = new DecodeCache<byte[]>("lz78PhraseCache", capacity, phraseCacheBytes);
+			// about 8 bits for each entry of the cache
+			this.phrasesSeen = new long[Math.max(1, Integer.highestOneBit(capacity - 1) << 1 >>> 3)];
+			this.phrasesSeenShift = 32 - Integer.numberOfTrailingZeros(phrasesSeen.length << 6);
+		}
+	}
+
+	/**
+	 * How an {@link LZ78KnotStorage} stores its Strings. Everything but the dictionary capacity and load factor is
+	 * optional, and set with the methods that return {@code this}, so a new option doesn't need another constructor.
+	 * <p>
+	 * In a snapshot, the options that change how the buffer and dictionary are read are written as a block, starting
+	 * with {@link #OPTIONS_VERSION}. An option added later goes at the end of the block, with a new version, so that
+	 * blocks written by older versions can still be read.
+	 */
+	static final class Options {
+
+		static final int OPTIONS_VERSION = 1;
+
+		private final int initialDictionaryCapacity;
+		private final float dictionaryLoadFactor;
+		private boolean directDictionary = false;
+		private boolean recordHeaders = false;
+		private int format = ABSOLUTE_POINTERS;
+		private boolean rawFallback = false;
+		private int phraseCacheBytes = 0;
+		private int maxPhraseLength = 0;
+
+		Options(int initialDictionaryCapacity, float dictionaryLoadFactor) {
+			this.initialDictionaryCapacity = initialDictionaryCapacity;
+			this.dictionaryLoadFactor = dictionaryLoadFactor;
+		}
+
+		/**
+		 * If true, the dictionary is held in native memory, which is freed by {@link LZ78KnotStorage#close()}.
+		 */
+		Options directDictionary(boolean directDictionary) {
+			this.directDictionary = directDictionary;
+			return this;
+		}
+
+		/**
+		 * If true, each String is stored with its hash code, length in chars, and whether it is all ASCII.
+		 */
+		Options recordHeaders(boolean recordHeaders) {
+			this.recordHeaders = recordHeaders;
+			return this;
+		}
+
+		/**
+		 * {@link #ABSOLUTE_POINTERS} (the default), {@link #RELATIVE_POINTERS} or {@link #PHRASE_LENGTHS}
+		 */
+		Options format(int format) {
+			if (format != ABSOLUTE_POINTERS && format != RELATIVE_POINTERS && format != PHRASE_LENGTHS) {
+				throw new IllegalArgumentException("Unknown LZ78 format: " + format);
+			}
+			this.format = format;
+			return this;
+		}
+
+		/**
+		 * If true, a String is stored as plain UTF-8 if that is smaller than its tokens.
+		 */
+		Options rawFallback(boolean rawFallback) {
+			this.rawFallback = rawFallback;
+			return this;
+		}
+
+		/**
+		 * The size of a cache of the expanded phrases of tokens, or 0 (the default) for no cache. Not saved in
+		 * snapshots.
+		 */
+		Options phraseCacheBytes(int phraseCacheBytes) {
+			this.phraseCacheBytes = phraseCacheBytes;
+			return this;
+		}
+
+		/**
+		 * The longest phrase (and so the longest chain of prefixes) a token may have, or 0 (the default) for no limit.
+		 */
+		Options maxPhraseLength(int maxPhraseLength) {
+			if (maxPhraseLength < 0) {
+				throw new IllegalArgumentException("Maximum phrase length can't be negative: " + maxPhraseLength);
+			}
+			this.maxPhraseLength = maxPhraseLength;
+			return this;
+		}
+
+		void save(DataOutput out) throws IOException {
+			out.writeByte(OPTIONS_VERSION);
+			out.writeInt(initialDictionaryCapacity);
+			out.writeFloat(dictionaryLoadFactor);
+			out.writeInt(format);
+			out.writeBoolean(recordHeaders);
+			out.writeBoolean(rawFallback);
+			out.writeInt(maxPhraseLength);
+		}
+
+		static Options load(DataInput in, boolean directDictionary) throws IOException {
+			int version = in.readByte();
+			if (version != OPTIONS_VERSION) {
+				throw new IOException("Unsupported LZ78 options version in Knot snapshot: " + version);
+			}
+			Options options = new Options(in.readInt(), in.readFloat());
+			int format = in.readInt();
+			if (format != ABSOLUTE_POINTERS && format != RELATIVE_POINTERS && format != PHRASE_LENGTHS) {
+				throw new IOException("Unknown LZ78 format in Knot snapshot: " + format);
+			}
+			return options.format(format).recordHeaders(in.readBoolean()).rawFallback(in.readBoolean())
+					.maxPhraseLength(in.readInt()).directDictionary(directDictionary);
+		}
+	}
+
+	@Override
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(KnotSnapshot.LZ78_STORAGE);
+		new Options(initialDictionaryCapacity, dictionaryLoadFactor).format(format).recordHeaders(recordHeaders)
+				.rawFallback(rawFallback).maxPhraseLength(maxPhraseLength).save(out);
+		KnotSnapshot.writeBuffer(out, byteBuffer);
+		dictionary.save(out);
+		if (rawFallback) {
+			out.writeInt(dictionaryStart);
+		}
+	}
+
+	static LZ78KnotStorage load(DataInput in, BufferFactory bufferFactory) throws IOException {
+		boolean direct = bufferFactory.isDirect();
+		Options options = Options.load(in, direct);
+		Buffer buffer = KnotSnapshot.readBuffer(in, bufferFactory);
+		LZ78HashOnlyDictionary dictionary = LZ78HashOnlyDictionary.load(in, direct);
+		LZ78KnotStorage storage = new LZ78KnotStorage(buffer, options, dictionary);
+		if (options.rawFallback) {
+			storage.dictionaryStart = in.readInt();
+		}
+		return storage;
 	}
 
 	@Override
 	public void flush() {
-		dictionary = new LZ78HashOnlyDictionary(initialDictionaryCapacity, dictionaryLoadFactor);
+		LZ78HashOnlyDictionary oldDictionary = dictionary;
+		dictionary = new LZ78HashOnlyDictionary(initialDictionaryCapacity, dictionaryLoadFactor, directDictionary);
+		dictionaryStart = byteBuffer.nextWritePosition();
+		oldDictionary.close();
+	}
+
+	@Override
+	public void close() {
+		dictionary.close();
+		byteBuffer.close();
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return false;
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		return recordHeaders;
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.hashCode(byteBuffer, index);
+	}
+
+	@Override
+	public int storedLength(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.length(byteBuffer, index);
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.isAscii(byteBuffer, index);
 	}
 
 	@Override
@@ -95,6 +378,27 @@ class LZ78KnotStorage implements KnotStorage {
 		return byteBuffer.getSize() + dictionary.spaceUsed();
 	}
 
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		statistics.put("engine", "lz78");
+		statistics.put("lz78Format", format);
+		statistics.put("lz78RawFallback", rawFallback);
+		statistics.put("lz78MaxPhraseLength", maxPhraseLength);
+		// by the shortest length in each bucket
+		Map<Integer, Long> histogram = new TreeMap<Integer, Long>();
+		for (int i = 0; i < longestPhraseCounts.length; i++) {
+			if (longestPhraseCounts[i] != 0) {
+				histogram.put(1 << i, longestPhraseCounts[i]);
+			}
+		}
+		statistics.put("longestPhraseHistogram", histogram);
+		statistics.put("bytesStored", byteBuffer.nextWritePosition());
+		statistics.put("dictionarySpaceUsed", dictionary.spaceUsed());
+		if (phraseCache != null) {
+			phraseCache.addStatistics(statistics);
+		}
+	}
+
 	@Override
 	public int store(final String string) {
 		int startingBufferPosition = byteBuffer.nextWritePosition();
@@ -105,14 +409,74 @@ class LZ78KnotStorage implements KnotStorage {
 		// This doesn't affect the external int braid location pointers or the indexes into the byteBuffer. 
 		// Zero is still a valid location (which will contain the length of the first record)
 
+		if (rawFallback) {
+			return storeWithRawFallback(string, stringBytes);
+		}
 		byteBuffer.putVInt(stringLength);
+		if (recordHeaders) {
+			RecordHeader.put(byteBuffer, string, stringBytes);
+		}
+		countLongestPhrase(encode(stringBytes));
+		return startingBufferPosition;
+	}
 
+	private int storeWithRawFallback(String string, byte[] stringBytes) {
+		int startingBufferPosition = byteBuffer.nextWritePosition();
+		int stringLength = stringBytes.length;
+		// The flag doesn't change the size of the length, so where the tokens will go is known before encoding them
+		pendingStart = startingBufferPosition + VInt.size(stringLength << 1)
+				+ (recordHeaders ? RecordHeader.size(string, stringBytes) : 0);
+		pendingLength = 0;
+		numPendingPhrases = 0;
+		int longestPhrase = encode(stringBytes);
+		boolean raw = pendingLength > stringLength
+				&& startingBufferPosition - dictionaryStart >= RAW_FALLBACK_LEARNING_BYTES;
+		if (raw) {
+			for (int i = 0; i < numPendingPhrases; i++) {
+				dictionary.remove(stringBytes, pendingPhrases[3 * i], pendingPhrases[3 * i + 1],
+						pendingPhrases[3 * i + 2]);
+			}
+		}
+		byteBuffer.putVInt(stringLength << 1 | (raw ? 1 : 0));
+		if (recordHeaders) {
+			RecordHeader.put(byteBuffer, string, stringBytes);
+		}
+		if (raw) {
+			byteBuffer.putBytes(stringBytes, 0, stringLength);
+		}
+		else {
+			countLongestPhrase(longestPhrase);
+			// Token by token, since a buffer keeps each VInt within one of its segments
+			for (int position = 0; position < pendingLength;) {
+				byteBuffer.putByte(pendingTokens[position]);
+				long pointerVInt = getPendingVInt(position + 1);
+				byteBuffer.putVInt((int) pointerVInt);
+				position += 1 + (int) (pointerVInt >> 32);
+				if (phraseLengths) {
+					long lengthVInt = getPendingVInt(position);
+					byteBuffer.putVInt((int) lengthVInt);
+					position += (int) (lengthVInt >> 32);
+				}
+			}
+		}
+		return startingBufferPosition;
+	}
+
+	/**
+	 * Write the tokens of a String to the buffer, or to {@link #pendingTokens} with raw fallback.
+	 * 
+	 * @return the length of the longest phrase
+	 */
+	private int encode(byte[] stringBytes) {
+		int stringLength = stringBytes.length;
 		int offset = 0;
+		int longestPhrase = 0;
 		while (offset < stringLength) {
-			int bufferPosition = byteBuffer.nextWritePosition();
+			int bufferPosition = rawFallback ? pendingStart + pendingLength : byteBuffer.nextWritePosition();
 			// walk forward over string lengths for probable dictionary matches
 			// ignore the final element of stringBytes (because we have to put *something* in the compressed stream)
-			int x = dictionary.indexOfLongestPossiblePrefix(stringBytes, offset, stringLength - offset - 1);
+			int x = dictionary.indexOfLongestPossiblePrefix(stringBytes, offset,
+					Math.min(stringLength - offset - 1, maxPrefixLength));
 			//TODO fix up this ugliness
 			int length = x == -1 ? 0 : x - offset + 1;
 
@@ -125,21 +489,79 @@ class LZ78KnotStorage implements KnotStorage {
 					possibleIndexes = dictionary.get(stringBytes, offset, length);
 					confirmedIndex = confirmIndex(possibleIndexes, stringBytes, offset, length--);
 				}
-				// readjust
-				length++;
+				// readjust. If every possible match was a false positive, the phrase is just the next byte.
+				length = confirmedIndex == -1 ? 0 : length + 1;
 			}
-			byteBuffer.putByte(stringBytes[offset + length]);
-			byteBuffer.putVInt(confirmedIndex == -1 ? 0 : confirmedIndex);
-			if (offset + length + 1 != stringLength) {
+			int pointer;
+			if (confirmedIndex == -1) {
+				pointer = 0;
+			}
+			else if (relativePointers) {
+				int distance = bufferPosition - confirmedIndex;
+				pointer = distance < confirmedIndex ? distance << 1 | 1 : confirmedIndex << 1;
+			}
+			else {
+				pointer = confirmedIndex;
+			}
+			if (rawFallback) {
+				putPendingToken(stringBytes[offset + length], pointer);
+				if (phraseLengths) {
+					putPendingVInt(length);
+				}
+			}
+			else {
+				byteBuffer.putByte(stringBytes[offset + length]);
+				byteBuffer.putVInt(pointer);
+				if (phraseLengths) {
+					byteBuffer.putVInt(length);
+				}
+			}
+			// A phrase can't be a prefix if it is already as long as a phrase can be
+			if (offset + length + 1 != stringLength && length + 1 <= maxPrefixLength) {
 				dictionaryPut(stringBytes, offset, length + 1, bufferPosition);
 			}
 			offset += length + 1;
+			longestPhrase = Math.max(longestPhrase, length + 1);
+		}
+		return longestPhrase;
+	}
+
+	private void countLongestPhrase(int longestPhrase) {
+		if (longestPhrase > 0) {
+			longestPhraseCounts[31 - Integer.numberOfLeadingZeros(longestPhrase)]++;
 		}
-		return startingBufferPosition;
+	}
+
+	private void putPendingToken(byte character, int pointer) {
+		if (pendingLength + 1 > pendingTokens.length) {
+			pendingTokens = Arrays.copyOf(pendingTokens, pendingTokens.length * 2);
+		}
+		pendingTokens[pendingLength++] = character;
+		putPendingVInt(pointer);
+	}
+
+	private void putPendingVInt(int value) {
+		if (pendingLength + 5 > pendingTokens.length) {
+			pendingTokens = Arrays.copyOf(pendingTokens, pendingTokens.length * 2);
+		}
+		while ((value & ~0x7F) != 0) {
+			pendingTokens[pendingLength++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		pendingTokens[pendingLength++] = (byte) value;
 	}
 
 	private void dictionaryPut(byte[] string, int offset, int stringLength, int value) {
 		dictionary.put(string, offset, stringLength, value);
+		if (rawFallback) {
+			if (3 * numPendingPhrases == pendingPhrases.length) {
+				pendingPhrases = Arrays.copyOf(pendingPhrases, pendingPhrases.length * 2);
+			}
+			pendingPhrases[3 * numPendingPhrases] = offset;
+			pendingPhrases[3 * numPendingPhrases + 1] = stringLength;
+			pendingPhrases[3 * numPendingPhrases + 2] = value;
+			numPendingPhrases++;
+		}
 	}
 
 	private int confirmIndex(final int[] possibleIndexes, final byte[] string, final int offset, int length) {
@@ -158,11 +580,13 @@ class LZ78KnotStorage implements KnotStorage {
 					// found a match longer that the expectedLength. Not a match.
 					continue forloop;
 				}
-				byte character = byteBuffer.getByte(pointer);
+				// A phrase of the String being stored may still be pending
+				boolean pending = pointer >= pendingStart;
+				byte character = pending ? pendingTokens[pointer - pendingStart] : byteBuffer.getByte(pointer);
 				if (string[upperBound - resultCount++] != character) {
 					continue forloop;
 				}
-				long nextVInt = byteBuffer.getVInt(pointer + 1);
+				long nextVInt = pending ? getPendingPointer(pointer) : getPointer(pointer);
 				// take the low-order int
 				pointer = (int) nextVInt;
 			}
@@ -177,23 +601,58 @@ class LZ78KnotStorage implements KnotStorage {
 
 	@Override
 	public String lookup(int index) {
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			lookupUtf8(index, scratch);
+			return new String(scratch.bytes, 0, scratch.length, STRING_CHARSET);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
 		final long sizeOfStringVInt = byteBuffer.getVInt(index);
 		// take low-order int
-		final int sizeOfString = (int) sizeOfStringVInt;
+		final int sizeOfString = rawFallback ? (int) sizeOfStringVInt >>> 1 : (int) sizeOfStringVInt;
 		// high-order int
 		final int sizeOfStringbytesUsed = (int) (sizeOfStringVInt >> 32);
-		byte[] result = new byte[sizeOfString];
-		byte[] innerResult = new byte[sizeOfString];
+		final byte[] result = scratch.ensureCapacity(sizeOfString);
 		int resultCount = 0;
-		index = index + sizeOfStringbytesUsed;
+		index = skipRecordHeader(index + sizeOfStringbytesUsed);
+		if (rawFallback && (sizeOfStringVInt & 1) != 0) {
+			// stored raw, so never empty
+			byteBuffer.getBytes(index, result, 0, sizeOfString);
+			scratch.length = sizeOfString;
+			return;
+		}
 		// walk forward over the current string
 		while (resultCount < sizeOfString) {
-			int innerResultCount = 0;
+			if (phraseLengths) {
+				long pointerVInt = byteBuffer.getVInt(index + 1);
+				long lengthVInt = byteBuffer.getVInt(index + 1 + (int) (pointerVInt >> 32));
+				int phraseLength = (int) lengthVInt + 1;
+				decodePhraseInPlace(index, (int) pointerVInt, result, resultCount, phraseLength);
+				index += 1 + (int) (pointerVInt >> 32) + (int) (lengthVInt >> 32);
+				resultCount += phraseLength;
+				continue;
+			}
+			final int phraseStart = resultCount;
+			final int tokenPosition = index;
 			int pointer = index;
+			byte[] cachedPrefix = null;
 			// follow the pointer backwards to find tokens
-			while (pointer > 0) {
+			for (int depth = 0; pointer > 0; depth++) {
+				if (depth < PHRASE_CACHE_PROBES && phraseCache != null && phraseSeen(pointer)
+						&& (cachedPrefix = phraseCache.get(pointer)) != null) {
+					if (pointer == index) {
+						// the whole phrase is cached, so just skip over the token
+						index += 1 + (int) (byteBuffer.getVInt(index + 1) >> 32);
+					}
+					break;
+				}
 				byte character = byteBuffer.getByte(pointer);
-				long nexVIntPointer = byteBuffer.getVInt(pointer + 1);
+				long nexVIntPointer = getPointer(pointer);
 				final int nextPointer = (int) nexVIntPointer;
 				final int nextPointerBytesUsed = (int) (nexVIntPointer >> 32);
 				if (pointer == index) {
@@ -202,12 +661,235 @@ class LZ78KnotStorage implements KnotStorage {
 					index += nextPointerBytesUsed;
 				}
 				pointer = nextPointer;
-				innerResult[innerResultCount++] = character;
+				result[resultCount++] = character;
+			}
+			resultCount = finishPhrase(result, phraseStart, resultCount, cachedPrefix);
+			if (phraseCache != null && cachedPrefix == null
+					&& resultCount - phraseStart >= MIN_CACHED_PHRASE_LENGTH) {
+				cachePhrase(tokenPosition, result, phraseStart, resultCount - phraseStart);
+			}
+		}
+		scratch.length = sizeOfString;
+	}
+
+	/**
+	 * The pointers lead from the last character of a phrase to the first, so reverse the characters that were read
+	 * in place, and put the cached prefix that the walk stopped at (if any) in front of them.
+	 * 
+	 * @return the end of the phrase
+	 */
+	private static int finishPhrase(byte[] phrase, int phraseStart, int end, byte[] cachedPrefix) {
+		for (int low = phraseStart, high = end - 1; low < high; low++, high--) {
+			byte character = phrase[low];
+			phrase[low] = phrase[high];
+			phrase[high] = character;
+		}
+		if (cachedPrefix == null) {
+			return end;
+		}
+		System.arraycopy(phrase, phraseStart, phrase, phraseStart + cachedPrefix.length, end - phraseStart);
+		System.arraycopy(cachedPrefix, 0, phrase, phraseStart, cachedPrefix.length);
+		return end + cachedPrefix.length;
+	}
+
+	/**
+	 * Decode the phrase of the token at {@code tokenPosition}, in format {@link #PHRASE_LENGTHS}, writing each byte
+	 * straight to its place in {@code phrase}, from the last byte back to the one at {@code phraseStart}.
+	 * 
+	 * @param prefix
+	 *            the prefix pointer of the token, which the caller has already read
+	 */
+	private void decodePhraseInPlace(int tokenPosition, int prefix, byte[] phrase, int phraseStart, int phraseLength) {
+		int pointer = tokenPosition;
+		int position = phraseStart + phraseLength;
+		for (int depth = 0; position > phraseStart; depth++) {
+			byte[] cachedPrefix;
+			if (depth < PHRASE_CACHE_PROBES && phraseCache != null && phraseSeen(pointer)
+					&& (cachedPrefix = phraseCache.get(pointer)) != null) {
+				// exactly fills what is left of the phrase
+				System.arraycopy(cachedPrefix, 0, phrase, phraseStart, cachedPrefix.length);
+				return;
+			}
+			phrase[--position] = byteBuffer.getByte(pointer);
+			pointer = depth == 0 ? prefix : (int) byteBuffer.getVInt(pointer + 1);
+		}
+		if (phraseCache != null && phraseLength >= MIN_CACHED_PHRASE_LENGTH) {
+			cachePhrase(tokenPosition, phrase, phraseStart, phraseLength);
+		}
+	}
+
+	private boolean phraseSeen(int tokenPosition) {
+		int bit = (tokenPosition * 0x9E3779B9) >>> phrasesSeenShift;
+		return (phrasesSeen[bit >>> 6] & 1L << bit) != 0;
+	}
+
+	/**
+	 * Cache a phrase if it was decoded recently, or otherwise just note that it has been decoded.
+	 */
+	private void cachePhrase(int tokenPosition, byte[] phrase, int offset, int length) {
+		int bit = (tokenPosition * 0x9E3779B9) >>> phrasesSeenShift;
+		if ((phrasesSeen[bit >>> 6] & 1L << bit) != 0) {
+			phraseCache.put(tokenPosition, Arrays.copyOfRange(phrase, offset, offset + length), length
+					+ CACHED_PHRASE_OVERHEAD);
+			return;
+		}
+		phrasesSeen[bit >>> 6] |= 1L << bit;
+		if (++numPhrasesSeen > phrasesSeen.length << 5) {
+			Arrays.fill(phrasesSeen, 0);
+			numPhrasesSeen = 0;
+		}
+	}
+
+	/**
+	 * Read the prefix pointer of the token at {@code tokenPosition}.
+	 * 
+	 * @return as for {@link Buffer#getVInt(int)}, with the length of the VInt in the high-order int, and the absolute
+	 *         position of the prefix (or 0 if there is none) in the low-order int.
+	 */
+	private long getPointer(int tokenPosition) {
+		return absolutePointer(tokenPosition, byteBuffer.getVInt(tokenPosition + 1));
+	}
+
+	/**
+	 * As {@link #getPointer(int)}, for a token in {@link #pendingTokens}.
+	 */
+	private long getPendingPointer(int tokenPosition) {
+		return absolutePointer(tokenPosition, getPendingVInt(tokenPosition - pendingStart + 1));
+	}
+
+	/**
+	 * As {@link Buffer#getVInt(int)}, for the VInt at {@code position} in {@link #pendingTokens}.
+	 */
+	private long getPendingVInt(int position) {
+		int value = 0;
+		int numBytes = 0;
+		byte b;
+		do {
+			b = pendingTokens[position + numBytes];
+			value |= (b & 0x7F) << 7 * numBytes++;
+		} while (b < 0);
+		return (long) numBytes << 32 | value & 0xFFFFFFFFL;
+	}
+
+	private long absolutePointer(int tokenPosition, long pointerVInt) {
+		if (relativePointers) {
+			int pointer = (int) pointerVInt;
+			pointer = (pointer & 1) != 0 ? tokenPosition - (pointer >>> 1) : pointer >>> 1;
+			return (pointerVInt & 0xFFFFFFFF00000000L) | pointer;
+		}
+		return pointerVInt;
+	}
+
+	private int skipRecordHeader(int position) {
+		return recordHeaders ? RecordHeader.skip(byteBuffer, position) : position;
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		final long sizeOfStringVInt = byteBuffer.getVInt(index);
+		final int position = skipRecordHeader(index + (int) (sizeOfStringVInt >> 32));
+		if (!rawFallback) {
+			return new Cursor(position, (int) sizeOfStringVInt);
+		}
+		if ((sizeOfStringVInt & 1) != 0) {
+			return new RawCursor(position, position + ((int) sizeOfStringVInt >>> 1));
+		}
+		return new Cursor(position, (int) sizeOfStringVInt >>> 1);
+	}
+
+	private final class RawCursor implements ByteCursor {
+
+		private int position;
+		private final int end;
+
+		RawCursor(int position, int end) {
+			this.position = position;
+			this.end = end;
+		}
+
+		@Override
+		public int next() {
+			return position < end ? byteBuffer.getByte(position++) & 0xFF : -1;
+		}
+	}
+
+	/**
+	 * Decodes one token's phrase at a time, the same way as {@link LZ78KnotStorage#lookupUtf8(int, DecodeScratch)}
+	 * decodes them all.
+	 */
+	private final class Cursor implements ByteCursor {
+
+		// the next token to decode
+		private int tokenPosition;
+		// the number of bytes of the String in tokens that have not been decoded yet
+		private int remaining;
+		private byte[] phrase = new byte[16];
+		private int phrasePosition = 0;
+		private int phraseLength = 0;
+
+		Cursor(int tokenPosition, int length) {
+			this.tokenPosition = tokenPosition;
+			this.remaining = length;
+		}
+
+		@Override
+		public int next() {
+			if (phrasePosition == phraseLength) {
+				if (remaining == 0) {
+					return -1;
+				}
+				decodePhrase();
+			}
+			return phrase[phrasePosition++] & 0xFF;
+		}
+
+		private void decodePhrase() {
+			if (phraseLengths) {
+				long pointerVInt = byteBuffer.getVInt(tokenPosition + 1);
+				long lengthVInt = byteBuffer.getVInt(tokenPosition + 1 + (int) (pointerVInt >> 32));
+				int length = (int) lengthVInt + 1;
+				if (length > phrase.length) {
+					phrase = new byte[Math.max(length, phrase.length * 2)];
+				}
+				decodePhraseInPlace(tokenPosition, (int) pointerVInt, phrase, 0, length);
+				tokenPosition += 1 + (int) (pointerVInt >> 32) + (int) (lengthVInt >> 32);
+				phrasePosition = 0;
+				phraseLength = length;
+				remaining -= length;
+				return;
+			}
+			final int phraseTokenPosition = tokenPosition;
+			int length = 0;
+			int pointer = tokenPosition;
+			byte[] cachedPrefix = null;
+			for (int depth = 0; pointer > 0; depth++) {
+				if (depth < PHRASE_CACHE_PROBES && phraseCache != null && phraseSeen(pointer)
+						&& (cachedPrefix = phraseCache.get(pointer)) != null) {
+					if (pointer == tokenPosition) {
+						tokenPosition += 1 + (int) (byteBuffer.getVInt(tokenPosition + 1) >> 32);
+					}
+					break;
+				}
+				if (length == phrase.length) {
+					phrase = Arrays.copyOf(phrase, length * 2);
+				}
+				phrase[length++] = byteBuffer.getByte(pointer);
+				long nextVIntPointer = getPointer(pointer);
+				if (pointer == tokenPosition) {
+					tokenPosition += 1 + (int) (nextVIntPointer >> 32);
+				}
+				pointer = (int) nextVIntPointer;
+			}
+			if (cachedPrefix != null && length + cachedPrefix.length > phrase.length) {
+				phrase = Arrays.copyOf(phrase, length + cachedPrefix.length);
 			}
-			for (int i = innerResultCount - 1; i >= 0; i--) {
-				result[resultCount++] = innerResult[i];
+			length = finishPhrase(phrase, 0, length, cachedPrefix);
+			if (phraseCache != null && cachedPrefix == null && length >= MIN_CACHED_PHRASE_LENGTH) {
+				cachePhrase(phraseTokenPosition, phrase, 0, length);
 			}
+			phrasePosition = 0;
+			phraseLength = length;
+			remaining -= length;
 		}
-		return new String(result, STRING_CHARSET);
 	}
 }
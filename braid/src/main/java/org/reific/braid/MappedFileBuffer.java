@@ -0,0 +1,99 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Buffer} where each segment is a memory mapped file, so the data lives in the OS page cache rather than on the
+ * Java heap. The segment files are temporary files created in the given directory.
+ * <p>
+ * Each file is deleted as soon as it is mapped, which most operating systems allow: the mapping keeps the data until
+ * it is unmapped, and nothing is left behind however the JVM exits. Where a mapped file can't be deleted (e.g. on
+ * Windows), it is deleted by {@link #close()} instead, after its segment is unmapped.
+ * <p>
+ * Apart from where the segments come from, this is an {@link AutoGrowingByteBuffer}, and has the same thread safety
+ * characteristics.
+ */
+final class MappedFileBuffer extends AutoGrowingByteBuffer {
+
+	// Mapping tiny files is wasteful (each one takes at least a page, plus a file handle), so segments are never
+	// smaller than this.
+	static final int MIN_SIZE = 64 * 1024;
+
+	private final Path directory;
+	// The files that couldn't be deleted while they were mapped. Only used by the writer.
+	private final List<Path> undeletedFiles = new ArrayList<Path>();
+
+	public MappedFileBuffer(Path directory, int initialCapacity, float growthFactor) {
+		super(growthFactor, false);
+		this.directory = directory;
+		allocateFirstSegment(initialCapacity);
+	}
+
+	@Override
+	ByteBuffer allocate(int capacity) {
+		capacity = Math.max(capacity, MIN_SIZE);
+		try {
+			Path file = Files.createTempFile(directory, "braid-", ".segment");
+			ByteBuffer segment;
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw");
+			try {
+				// The mapping remains valid after the channel is closed, and after the file is deleted
+				segment = randomAccessFile.getChannel().map(MapMode.READ_WRITE, 0, capacity);
+			} finally {
+				randomAccessFile.close();
+			}
+			try {
+				Files.delete(file);
+			} catch (IOException e) {
+				undeletedFiles.add(file);
+			}
+			return segment;
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to map a " + capacity + " byte segment in " + directory, e);
+		}
+	}
+
+	/**
+	 * Unmaps each segment, and deletes any files that couldn't be deleted while they were mapped. If a segment can't
+	 * be unmapped on this JVM, its file is left for {@link java.io.File#deleteOnExit()}.
+	 */
+	@Override
+	public void close() {
+		super.close();
+		for (Path file : undeletedFiles) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				// Still mapped
+				file.toFile().deleteOnExit();
+			}
+		}
+		undeletedFiles.clear();
+	}
+
+}
@@ -18,6 +18,10 @@
  */
 package org.reific.braid;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 import org.reific.braid.MutableInternalKnot.Result;
 
 final class MutableBraidImpl implements MutableBraid {
@@ -48,6 +52,52 @@ final class MutableBraidImpl implements MutableBraid {
 		return knot.lookupString(index);
 	}
 
+	@Override
+	public void appendTo(Appendable appendable) throws IOException {
+		if (index == SET_TO_NULL) {
+			appendable.append(null);
+		}
+		else {
+			knot.appendString(index, appendable);
+		}
+	}
+
+	@Override
+	public CharSequence asCharSequence() {
+		if (index == SET_TO_NULL) {
+			return null;
+		}
+		return knot.lookupCharSequence(index);
+	}
+
+	@Override
+	public int writeUtf8(ByteBuffer buffer) {
+		if (index == SET_TO_NULL) {
+			return -1;
+		}
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knot.lookupUtf8(index, scratch);
+			return scratch.writeTo(buffer);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public int writeUtf8(OutputStream out) throws IOException {
+		if (index == SET_TO_NULL) {
+			return -1;
+		}
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			knot.lookupUtf8(index, scratch);
+			return scratch.writeTo(out);
+		} finally {
+			scratch.release();
+		}
+	}
+
 	@Override
 	public void set(String value) {
 		this.hash = HASHCODE_UNINITIALIZED;
@@ -60,13 +110,36 @@ final class MutableBraidImpl implements MutableBraid {
 		}
 	}
 
+	@Override
+	public int length() {
+		if (index == SET_TO_NULL) {
+			return -1;
+		}
+		return knot.lengthOf(index);
+	}
+
+	/**
+	 * @return null if the value is null
+	 */
+	CharCursor charCursor() {
+		if (index == SET_TO_NULL) {
+			return null;
+		}
+		return knot.charCursor(index);
+	}
+
+	@Override
+	public int compareTo(Braid other) {
+		return BraidUtil.compare(this, other);
+	}
+
 	@Override
 	public int hashCode() {
 		if (index == SET_TO_NULL) {
 			return SET_TO_NULL_HASH;
 		}
 		if (hash == 1) {
-			hash = get().hashCode();
+			hash = knot.hashCodeOf(index);
 		}
 		return hash;
 	}
@@ -18,6 +18,7 @@
  */
 package org.reific.braid;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -56,4 +57,34 @@ class MutableBraidKnotWrapper implements MutableInternalKnot {
 		return knotImpl.lookupString(index);
 	}
 
+	@Override
+	public void appendString(int index, Appendable appendable) throws IOException {
+		knotImpl.appendString(index, appendable);
+	}
+
+	@Override
+	public CharSequence lookupCharSequence(int index) {
+		return knotImpl.lookupCharSequence(index);
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		knotImpl.lookupUtf8(index, scratch);
+	}
+
+	@Override
+	public CharCursor charCursor(int index) {
+		return knotImpl.charCursor(index);
+	}
+
+	@Override
+	public int hashCodeOf(int index) {
+		return knotImpl.hashCodeOf(index);
+	}
+
+	@Override
+	public int lengthOf(int index) {
+		return knotImpl.lengthOf(index);
+	}
+
 }
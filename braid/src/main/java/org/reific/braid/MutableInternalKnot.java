@@ -1,5 +1,7 @@
 package org.reific.braid;
 
+import java.io.IOException;
+
 interface MutableInternalKnot {
 	/**
 	 * Represents the result of setting the String value of the MutableBraid
@@ -16,4 +18,13 @@ interface MutableInternalKnot {
 
 	Result addString(String string);
 	String lookupString(int index);
+	void appendString(int index, Appendable appendable) throws IOException;
+	CharSequence lookupCharSequence(int index);
+	void lookupUtf8(int index, DecodeScratch scratch);
+
+	CharCursor charCursor(int index);
+
+	int hashCodeOf(int index);
+
+	int lengthOf(int index);
 }
@@ -18,6 +18,8 @@
  */
 package org.reific.braid;
 
+import java.io.IOException;
+
 class MutableInternerWrapper implements MutableInternalKnot {
 
 	private final MutableBraidKnotWrapper knotWrapper;
@@ -38,6 +40,36 @@ class MutableInternerWrapper implements MutableInternalKnot {
 		return mutableInterner.getInternedValue(index);
 	}
 
+	@Override
+	public void appendString(int index, Appendable appendable) throws IOException {
+		appendable.append(mutableInterner.getInternedValue(index));
+	}
+
+	@Override
+	public CharSequence lookupCharSequence(int index) {
+		return mutableInterner.getInternedValue(index);
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		scratch.setBytes(mutableInterner.getInternedValue(index).getBytes(Utf8.CHARSET));
+	}
+
+	@Override
+	public CharCursor charCursor(int index) {
+		return CharCursor.of(mutableInterner.getInternedValue(index));
+	}
+
+	@Override
+	public int hashCodeOf(int index) {
+		return mutableInterner.getInternedValue(index).hashCode();
+	}
+
+	@Override
+	public int lengthOf(int index) {
+		return mutableInterner.getInternedValue(index).length();
+	}
+
 	public int attempToIntern(String string) {
 		return mutableInterner.attemptToIntern(string);
 
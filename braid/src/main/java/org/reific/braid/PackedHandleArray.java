@@ -0,0 +1,195 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.util.Arrays;
+
+/**
+ * A {@link HandleArray} that bit-packs its handles in blocks of {@link #BLOCK_SIZE}. Each block stores the smallest
+ * handle in it (its base), and then each handle as its offset from the base, in just enough bits for the largest
+ * offset in the block.
+ * <p>
+ * Handles added to a list one after another are increasing positions in the Knot's buffer, so the offsets within a
+ * block are at most about {@link #BLOCK_SIZE} times the compressed size of a String. For Strings that compress to 10 to
+ * 30 bytes, that is 10 or 11 bits per handle, plus about 3 bits per handle for the block itself, rather than 32. A new
+ * block starts with the width of the block before it, so it is rarely repacked while it fills up.
+ * <p>
+ * Setting a handle that doesn't fit its block repacks the block. Inserting or removing moves every later handle, one
+ * at a time, so (as for an {@link java.util.ArrayList}) it takes time proportional to the number of handles moved.
+ */
+final class PackedHandleArray implements HandleArray {
+
+	private static final int BLOCK_SHIFT = 6;
+	static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+	private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+	private int[] bases;
+	// bits per offset, from 0 to 32
+	private byte[] widths;
+	// BLOCK_SIZE offsets of width bits take width longs. Null for a block with a width of 0.
+	private long[][] blocks;
+	private int size;
+
+	PackedHandleArray() {
+		clear();
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int get(int index) {
+		int block = index >>> BLOCK_SHIFT;
+		int width = widths[block];
+		if (width == 0) {
+			return bases[block];
+		}
+		return (int) (bases[block] + read(blocks[block], index & BLOCK_MASK, width));
+	}
+
+	@Override
+	public void set(int index, int handle) {
+		int block = index >>> BLOCK_SHIFT;
+		int width = widths[block];
+		long offset = (long) handle - bases[block];
+		if (offset < 0 || offset >= 1L << width) {
+			repack(block, index & BLOCK_MASK, handle);
+		}
+		else if (width != 0) {
+			write(blocks[block], index & BLOCK_MASK, width, offset);
+		}
+	}
+
+	@Override
+	public void add(int handle) {
+		if ((size & BLOCK_MASK) == 0) {
+			int block = size >>> BLOCK_SHIFT;
+			if (block == bases.length) {
+				int capacity = block + (block >> 1);
+				bases = Arrays.copyOf(bases, capacity);
+				widths = Arrays.copyOf(widths, capacity);
+				blocks = Arrays.copyOf(blocks, capacity);
+			}
+			int width = block == 0 ? 0 : widths[block - 1];
+			bases[block] = handle;
+			widths[block] = (byte) width;
+			blocks[block] = width == 0 ? null : new long[width];
+		}
+		size++;
+		set(size - 1, handle);
+	}
+
+	@Override
+	public void insert(int index, int[] handles) {
+		int oldSize = size;
+		for (int handle : handles) {
+			add(handle);
+		}
+		for (int i = oldSize - 1; i >= index; i--) {
+			set(i + handles.length, get(i));
+		}
+		for (int i = 0; i < handles.length; i++) {
+			set(index + i, handles[i]);
+		}
+	}
+
+	@Override
+	public void remove(int index) {
+		for (int i = index; i < size - 1; i++) {
+			set(i, get(i + 1));
+		}
+		size--;
+		if ((size & BLOCK_MASK) == 0) {
+			blocks[size >>> BLOCK_SHIFT] = null;
+		}
+	}
+
+	@Override
+	public void clear() {
+		bases = new int[4];
+		widths = new byte[4];
+		blocks = new long[4][];
+		size = 0;
+	}
+
+	/**
+	 * Rewrite a block with {@code handle} at {@code position}, with a new base and width that fit all of its handles.
+	 */
+	private void repack(int block, int position, int handle) {
+		int first = block << BLOCK_SHIFT;
+		int[] handles = new int[Math.min(BLOCK_SIZE, size - first)];
+		for (int i = 0; i < handles.length; i++) {
+			handles[i] = i == position ? handle : get(first + i);
+		}
+		long min = handle;
+		long max = handle;
+		for (int h : handles) {
+			min = Math.min(min, h);
+			max = Math.max(max, h);
+		}
+		int width = 64 - Long.numberOfLeadingZeros(max - min);
+		long[] words = width == 0 ? null : new long[width];
+		for (int i = 0; i < handles.length; i++) {
+			if (width != 0) {
+				write(words, i, width, handles[i] - min);
+			}
+		}
+		bases[block] = (int) min;
+		widths[block] = (byte) width;
+		blocks[block] = words;
+	}
+
+	private static long read(long[] words, int position, int width) {
+		int bit = position * width;
+		int word = bit >>> 6;
+		int shift = bit & 63;
+		long value = words[word] >>> shift;
+		if (shift + width > 64) {
+			value |= words[word + 1] << (64 - shift);
+		}
+		return value & ((1L << width) - 1);
+	}
+
+	private static void write(long[] words, int position, int width, long value) {
+		int bit = position * width;
+		int word = bit >>> 6;
+		int shift = bit & 63;
+		long mask = (1L << width) - 1;
+		words[word] = words[word] & ~(mask << shift) | value << shift;
+		if (shift + width > 64) {
+			int written = 64 - shift;
+			words[word + 1] = words[word + 1] & ~(mask >>> written) | value >>> written;
+		}
+	}
+
+	@Override
+	public long spaceUsed() {
+		// array headers are 16 bytes, and references 4 bytes
+		long spaceUsed = 16 + 4L * bases.length + 16 + widths.length + 16 + 4L * blocks.length;
+		for (int block = 0; block < bases.length; block++) {
+			if (blocks[block] != null) {
+				spaceUsed += 16 + 8L * blocks[block].length;
+			}
+		}
+		return spaceUsed;
+	}
+
+}
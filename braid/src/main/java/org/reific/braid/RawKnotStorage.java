@@ -0,0 +1,239 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A {@link KnotStorage} that doesn't compress at all. It suits data with no redundancy to find (random IDs, hashes,
+ * tokens), where compressing only adds overhead, and is the baseline that {@link AdaptiveKnotStorage} compares the
+ * other engines against.
+ * <p>
+ * A String with no chars above 0xFF is stored as Latin-1, one byte per char, and any other String as UTF-8. A record
+ * is a VInt of the number of bytes shifted left by one (with a low-order bit that is set for Latin-1), an optional
+ * {@link RecordHeader}, then the bytes.
+ * <p>
+ * Not thread safe.
+ */
+final class RawKnotStorage implements KnotStorage {
+
+	private final Buffer byteBuffer;
+	private final boolean recordHeaders;
+
+	/**
+	 * @param recordHeaders
+	 *            if true, each String is stored with its hash code, length in chars, and whether it is all ASCII.
+	 */
+	RawKnotStorage(Buffer buffer, boolean recordHeaders) {
+		this.byteBuffer = buffer;
+		this.recordHeaders = recordHeaders;
+	}
+
+	@Override
+	public int store(String string) {
+		int startingBufferPosition = byteBuffer.nextWritePosition();
+		byte[] stringBytes = string.getBytes(Utf8.CHARSET);
+		byte[] latin1 = latin1(string);
+		byte[] stored = latin1 == null ? stringBytes : latin1;
+		byteBuffer.putVInt(stored.length << 1 | (latin1 == null ? 0 : 1));
+		if (recordHeaders) {
+			RecordHeader.put(byteBuffer, string, stringBytes);
+		}
+		byteBuffer.putBytes(stored, 0, stored.length);
+		return startingBufferPosition;
+	}
+
+	/**
+	 * @return the Latin-1 bytes of {@code string}, or null if it has a char that isn't Latin-1 (or is all ASCII, where
+	 *         Latin-1 and UTF-8 are the same)
+	 */
+	private static byte[] latin1(String string) {
+		boolean ascii = true;
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c > 0xFF) {
+				return null;
+			}
+			ascii &= c < 0x80;
+		}
+		if (ascii) {
+			return null;
+		}
+		byte[] bytes = new byte[string.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) string.charAt(i);
+		}
+		return bytes;
+	}
+
+	@Override
+	public String lookup(int index) {
+		DecodeScratch scratch = DecodeScratch.acquire();
+		try {
+			lookupUtf8(index, scratch);
+			return new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET);
+		} finally {
+			scratch.release();
+		}
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		final long lengthVInt = byteBuffer.getVInt(index);
+		final int length = (int) lengthVInt >>> 1;
+		final int position = skipRecordHeader(index + (int) (lengthVInt >> 32));
+		if (((int) lengthVInt & 1) == 0) {
+			byte[] result = scratch.ensureCapacity(length);
+			if (length > 0) {
+				byteBuffer.getBytes(position, result, 0, length);
+			}
+			scratch.length = length;
+			return;
+		}
+		// Read the Latin-1 into the second half, and expand it to UTF-8 from the start, which never overtakes it
+		final byte[] result = scratch.ensureCapacity(2 * length);
+		byteBuffer.getBytes(position, result, length, length);
+		int resultCount = 0;
+		for (int i = length; i < 2 * length; i++) {
+			int c = result[i] & 0xFF;
+			if (c < 0x80) {
+				result[resultCount++] = (byte) c;
+			}
+			else {
+				result[resultCount++] = (byte) (0xC0 | c >>> 6);
+				result[resultCount++] = (byte) (0x80 | c & 0x3F);
+			}
+		}
+		scratch.length = resultCount;
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		final long lengthVInt = byteBuffer.getVInt(index);
+		final int position = skipRecordHeader(index + (int) (lengthVInt >> 32));
+		return new Cursor(position, position + ((int) lengthVInt >>> 1), ((int) lengthVInt & 1) != 0);
+	}
+
+	private int skipRecordHeader(int position) {
+		return recordHeaders ? RecordHeader.skip(byteBuffer, position) : position;
+	}
+
+	private final class Cursor implements ByteCursor {
+
+		private int position;
+		private final int end;
+		private final boolean latin1;
+		// the second byte of a Latin-1 char, or -1
+		private int pending = -1;
+
+		Cursor(int position, int end, boolean latin1) {
+			this.position = position;
+			this.end = end;
+			this.latin1 = latin1;
+		}
+
+		@Override
+		public int next() {
+			if (pending != -1) {
+				int next = pending;
+				pending = -1;
+				return next;
+			}
+			if (position == end) {
+				return -1;
+			}
+			int b = byteBuffer.getByte(position++) & 0xFF;
+			if (latin1 && b >= 0x80) {
+				pending = 0x80 | b & 0x3F;
+				return 0xC0 | b >>> 6;
+			}
+			return b;
+		}
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return false;
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		return recordHeaders;
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.hashCode(byteBuffer, index);
+	}
+
+	@Override
+	public int storedLength(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.length(byteBuffer, index);
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		if (!recordHeaders) {
+			throw RecordHeader.unsupported();
+		}
+		return RecordHeader.isAscii(byteBuffer, index);
+	}
+
+	@Override
+	public long spaceUsed() {
+		return byteBuffer.getSize();
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		statistics.put("engine", "raw");
+		statistics.put("bytesStored", byteBuffer.nextWritePosition());
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void save(DataOutput out) throws IOException {
+		out.writeByte(KnotSnapshot.RAW_STORAGE);
+		out.writeBoolean(recordHeaders);
+		KnotSnapshot.writeBuffer(out, byteBuffer);
+	}
+
+	static RawKnotStorage load(DataInput in, BufferFactory bufferFactory) throws IOException {
+		boolean recordHeaders = in.readBoolean();
+		return new RawKnotStorage(KnotSnapshot.readBuffer(in, bufferFactory), recordHeaders);
+	}
+
+	@Override
+	public void close() {
+		byteBuffer.close();
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+/**
+ * The optional header of a stored String, which follows the VInt length (in UTF-8 bytes) at the start of each record.
+ * It is the {@link String#hashCode()} (as 4 big-endian bytes, since a hash code doesn't suit a VInt), then a VInt of
+ * the length in chars shifted left by one, with a low-order bit that is set if every char is ASCII.
+ */
+final class RecordHeader {
+
+	private static final int HASH_CODE_SIZE = 4;
+
+	private RecordHeader() {
+	}
+
+	/**
+	 * @return the number of bytes that {@link #put(Buffer, String, byte[])} writes
+	 */
+	static int size(String string, byte[] stringBytes) {
+		return HASH_CODE_SIZE + VInt.size(storedString(string, stringBytes).length() << 1);
+	}
+
+	static void put(Buffer buffer, String string, byte[] stringBytes) {
+		String stored = storedString(string, stringBytes);
+		int hash = stored.hashCode();
+		int charLength = stored.length();
+		buffer.putByte((byte) (hash >>> 24));
+		buffer.putByte((byte) (hash >>> 16));
+		buffer.putByte((byte) (hash >>> 8));
+		buffer.putByte((byte) hash);
+		// Any char that isn't ASCII takes more than one byte
+		boolean ascii = stringBytes.length == charLength;
+		buffer.putVInt(charLength << 1 | (ascii ? 1 : 0));
+	}
+
+	private static String storedString(String string, byte[] stringBytes) {
+		if (Utf8.hasUnpairedSurrogate(string)) {
+			// It will be looked up with '?' in place of the surrogate, which is what the header must describe
+			return new String(stringBytes, Utf8.CHARSET);
+		}
+		return string;
+	}
+
+	static int hashCode(Buffer buffer, int recordIndex) {
+		final int position = recordIndex + (int) (buffer.getVInt(recordIndex) >> 32);
+		return (buffer.getByte(position) & 0xFF) << 24 | (buffer.getByte(position + 1) & 0xFF) << 16
+				| (buffer.getByte(position + 2) & 0xFF) << 8 | buffer.getByte(position + 3) & 0xFF;
+	}
+
+	static int length(Buffer buffer, int recordIndex) {
+		return lengthAndFlags(buffer, recordIndex) >>> 1;
+	}
+
+	static boolean isAscii(Buffer buffer, int recordIndex) {
+		return (lengthAndFlags(buffer, recordIndex) & 1) != 0;
+	}
+
+	private static int lengthAndFlags(Buffer buffer, int recordIndex) {
+		final int position = recordIndex + (int) (buffer.getVInt(recordIndex) >> 32) + HASH_CODE_SIZE;
+		// take low-order int
+		return (int) buffer.getVInt(position);
+	}
+
+	/**
+	 * @return the position after the header that starts at {@code position}
+	 */
+	static int skip(Buffer buffer, int position) {
+		position += HASH_CODE_SIZE;
+		return position + (int) (buffer.getVInt(position) >> 32);
+	}
+
+	static UnsupportedOperationException unsupported() {
+		return new UnsupportedOperationException("Strings are stored without record headers");
+	}
+
+}
@@ -0,0 +1,55 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.util.Objects;
+
+/**
+ * A version of {@link LastOneStringRemember} for Knots that are shared between threads. The key and value are kept
+ * together in a single immutable object, so one thread's key can never be matched with another thread's value.
+ */
+class SharedLastOneStringRemember implements Rememberer {
+
+	private volatile Remembered last = new Remembered(null, null);
+
+	private static final class Remembered {
+		final String key;
+		final Braid value;
+
+		Remembered(String key, Braid value) {
+			this.key = key;
+			this.value = value;
+		}
+	}
+
+	@Override
+	public void maybeRemember(String key, Braid value) {
+		last = new Remembered(key, value);
+	}
+
+	@Override
+	public Braid maybeRecall(String key) {
+		Remembered remembered = last;
+		if (Objects.equals(key, remembered.key)) {
+			return remembered.value;
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Wraps a {@link KnotStorage} so that a single writing thread can store Strings while any number of other threads look
+ * them up, without locking.
+ * <p>
+ * The wrapped storage (and its {@link Buffer}) are not thread safe, and are never changed by this class. Instead, after
+ * each store the writer does a volatile write of a high-water mark (one more than the largest index stored so far). A
+ * reader does a volatile read of the high-water mark before touching the wrapped storage, and throws an
+ * {@link IllegalArgumentException} unless it is above the index being looked up. This release/acquire pair means the
+ * reader sees every byte of the record, along with every segment and segment position that the writer updated while
+ * storing it.
+ * <p>
+ * This is safe for the append-only buffers, since a record is never modified after it has been written. A reader can
+ * race with the writer updating the positions of the segment that is currently being appended to, but will always see
+ * a value at least as large as the one that was published, so it will still find the right segment for its (already
+ * published) index.
+ * <p>
+ * Stores, {@link #flush()}, and {@link #spaceUsed()} must all be called by the same thread (or be externally
+ * synchronized).
+ */
+final class SingleWriterKnotStorage implements KnotStorage {
+
+	private final KnotStorage storage;
+	// One more than the largest index stored. Only written by the writer.
+	private volatile int published = 0;
+
+	SingleWriterKnotStorage(KnotStorage storage) {
+		this(storage, 0);
+	}
+
+	private SingleWriterKnotStorage(KnotStorage storage, int published) {
+		this.storage = storage;
+		this.published = published;
+	}
+
+	@Override
+	public int store(String string) {
+		int index = storage.store(string);
+		// release
+		published = Math.max(published, index + 1);
+		return index;
+	}
+
+	@Override
+	public String lookup(int index) {
+		checkPublished(index);
+		return storage.lookup(index);
+	}
+
+	@Override
+	public void lookupUtf8(int index, DecodeScratch scratch) {
+		checkPublished(index);
+		storage.lookupUtf8(index, scratch);
+	}
+
+	@Override
+	public ByteCursor cursor(int index) {
+		checkPublished(index);
+		return storage.cursor(index);
+	}
+
+	private void checkPublished(int index) {
+		// acquire. An index is only handed out after it is published, and the hand-over orders this read after the
+		// write, so an index that isn't published yet was never stored.
+		if (index >= published) {
+			throw new IllegalArgumentException("Invalid handle " + index);
+		}
+	}
+
+	@Override
+	public boolean uniqueIndexes() {
+		return storage.uniqueIndexes();
+	}
+
+	@Override
+	public boolean hasRecordHeaders() {
+		return storage.hasRecordHeaders();
+	}
+
+	@Override
+	public int storedHashCode(int index) {
+		checkPublished(index);
+		return storage.storedHashCode(index);
+	}
+
+	@Override
+	public int storedLength(int index) {
+		checkPublished(index);
+		return storage.storedLength(index);
+	}
+
+	@Override
+	public boolean storedAscii(int index) {
+		checkPublished(index);
+		return storage.storedAscii(index);
+	}
+
+	@Override
+	public long spaceUsed() {
+		return storage.spaceUsed();
+	}
+
+	@Override
+	public void addStatistics(Map<String, Object> statistics) {
+		storage.addStatistics(statistics);
+	}
+
+	@Override
+	public void flush() {
+		storage.flush();
+	}
+
+	@Override
+	public void close() {
+		storage.close();
+	}
+
+	@Override
+	public void save(DataOutput out) throws IOException {
+		// Only called by the writing thread (see Knots.KnotBuilder#singleWriter()), so the wrapped storage can't change
+		// while it is being written, and published is consistent with it.
+		out.writeByte(KnotSnapshot.SINGLE_WRITER_STORAGE);
+		out.writeInt(published);
+		storage.save(out);
+	}
+
+	static SingleWriterKnotStorage load(DataInput in, BufferFactory bufferFactory) throws IOException {
+		int published = in.readInt();
+		return new SingleWriterKnotStorage(KnotSnapshot.loadStorage(in, bufferFactory), published);
+	}
+
+}
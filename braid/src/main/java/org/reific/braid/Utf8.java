@@ -0,0 +1,116 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.nio.charset.Charset;
+
+/**
+ * Decoding of the UTF-8 bytes stored in a Knot, without going through a {@link java.nio.charset.CharsetDecoder} or a
+ * String.
+ * <p>
+ * The bytes were produced by {@link String#getBytes(java.nio.charset.Charset)}, so are always well-formed (an unpaired
+ * surrogate is stored as '?'), and no validation is done.
+ */
+final class Utf8 {
+
+	static final Charset CHARSET = Charset.forName("UTF-8");
+
+	private Utf8() {
+	}
+
+	/**
+	 * Decode {@code length} bytes of {@code source} into {@code destination}, which must have room for at least
+	 * {@code length} chars (UTF-16 never needs more chars than UTF-8 needs bytes).
+	 * 
+	 * @return the number of chars written to {@code destination}
+	 */
+	static int decode(byte[] source, int length, char[] destination) {
+		int sourceIndex = 0;
+		int destinationIndex = 0;
+		while (sourceIndex < length) {
+			int b = source[sourceIndex++];
+			if (b >= 0) {
+				destination[destinationIndex++] = (char) b;
+			}
+			else if ((b & 0xE0) == 0xC0) {
+				destination[destinationIndex++] = (char) (((b & 0x1F) << 6) | (source[sourceIndex++] & 0x3F));
+			}
+			else if ((b & 0xF0) == 0xE0) {
+				int c = ((b & 0x0F) << 12) | ((source[sourceIndex++] & 0x3F) << 6);
+				destination[destinationIndex++] = (char) (c | (source[sourceIndex++] & 0x3F));
+			}
+			else {
+				int codePoint = ((b & 0x07) << 18) | ((source[sourceIndex++] & 0x3F) << 12);
+				codePoint |= (source[sourceIndex++] & 0x3F) << 6;
+				codePoint |= source[sourceIndex++] & 0x3F;
+				destination[destinationIndex++] = Character.highSurrogate(codePoint);
+				destination[destinationIndex++] = Character.lowSurrogate(codePoint);
+			}
+		}
+		return destinationIndex;
+	}
+
+	/**
+	 * @return the number of chars that {@code length} bytes of {@code source} decode to, without decoding them.
+	 */
+	static int charLength(byte[] source, int length) {
+		int numChars = 0;
+		for (int i = 0; i < length; i++) {
+			int b = source[i];
+			// count each byte that starts a code point, and the code points that need a surrogate pair twice
+			if ((b & 0xC0) != 0x80) {
+				numChars++;
+			}
+			if ((b & 0xF8) == 0xF0) {
+				numChars++;
+			}
+		}
+		return numChars;
+	}
+
+	static boolean isAscii(byte[] bytes, int length) {
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if the String has a surrogate char that isn't part of a pair, which is stored as '?', so the String
+	 *         does not survive being stored.
+	 */
+	static boolean hasUnpairedSurrogate(String string) {
+		int length = string.length();
+		for (int i = 0; i < length; i++) {
+			char c = string.charAt(i);
+			if (Character.isSurrogate(c)) {
+				if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))) {
+					i++;
+				}
+				else {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
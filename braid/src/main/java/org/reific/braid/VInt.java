@@ -26,4 +26,11 @@ final class VInt {
 		this.numBytes = numBytes;
 		this.value = value;
 	}
+
+	/**
+	 * @return the number of bytes {@link Buffer#putVInt(int)} writes {@code value} in
+	 */
+	static int size(int value) {
+		return value >>> 7 == 0 ? 1 : value >>> 14 == 0 ? 2 : value >>> 21 == 0 ? 3 : value >>> 28 == 0 ? 4 : 5;
+	}
 }
\ No newline at end of file
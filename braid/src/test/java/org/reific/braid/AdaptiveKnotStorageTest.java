@@ -0,0 +1,190 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class AdaptiveKnotStorageTest {
+
+	private static final BufferFactory BUFFER_FACTORY = new BufferFactory() {
+		@Override
+		public Buffer newBuffer(int minimumCapacity) {
+			return new AutoGrowingByteArray(Math.max(minimumCapacity, 16), 1.5f);
+		}
+
+		@Override
+		public boolean isDirect() {
+			return false;
+		}
+	};
+
+	@Test
+	public void testLookupBeforeAndAfterChoosing() throws Exception {
+		AdaptiveKnotStorage knotStorage = new AdaptiveKnotStorage(4, BUFFER_FACTORY, true);
+		String[] strings = { "this that the other", "\u00A2\u20AC \u00A2\u20AC", "", "the other that this",
+				"this that the other this that the other", "\uD800 unpaired" };
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			indexes[i] = knotStorage.store(strings[i]);
+			// both before and after the choice
+			for (int j = 0; j <= i; j++) {
+				String expected = new String(strings[j].getBytes(Utf8.CHARSET), Utf8.CHARSET);
+				assertEquals(expected, knotStorage.lookup(indexes[j]));
+				assertEquals(expected, TestData.drain(knotStorage.cursor(indexes[j])));
+				assertEquals(expected.hashCode(), knotStorage.storedHashCode(indexes[j]));
+				assertEquals(expected.length(), knotStorage.storedLength(indexes[j]));
+				assertEquals(expected.getBytes(Utf8.CHARSET).length == expected.length(),
+						knotStorage.storedAscii(indexes[j]));
+			}
+		}
+	}
+
+	@Test
+	public void testChoosesFromSample() throws Exception {
+		List<String> lines = TestData.readHayekLines().subList(0, 2000);
+		// Short lines of text, with little repetition between them
+		assertEquals("fsst", chosenEngine(lines));
+
+		// Long lines that mostly repeat the ones before, which FSST can shrink by at most 8 times
+		List<String> logLines = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			logLines.add("2014-12-10 12:" + i % 60 + " INFO org.reific.braid.server.RequestHandler user-" + i % 97
+					+ " viewed page /account/settings from 10.0.0." + i % 256 + " with Mozilla/5.0 (X11; Linux x86_64)"
+					+ " AppleWebKit/537.36 (KHTML, like Gecko) Chrome/39.0.2171.71 Safari/537.36");
+		}
+		String engine = chosenEngine(logLines);
+		assertTrue(engine, engine.startsWith("lz7"));
+
+		// Short random accented Strings, which don't compress, and are half the size in Latin-1
+		Random random = new Random(42);
+		List<String> accented = new ArrayList<String>();
+		for (int i = 0; i < 2000; i++) {
+			char[] chars = new char[5];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = (char) (0x80 + random.nextInt(0x80));
+			}
+			accented.add(new String(chars));
+		}
+		assertEquals("raw", chosenEngine(accented));
+	}
+
+	private static String chosenEngine(List<String> strings) {
+		AdaptiveKnotStorage knotStorage = new AdaptiveKnotStorage(strings.size() / 2, BUFFER_FACTORY, false);
+		int[] indexes = new int[strings.size()];
+		for (int i = 0; i < strings.size(); i++) {
+			indexes[i] = knotStorage.store(strings.get(i));
+		}
+		for (int i = 0; i < strings.size(); i++) {
+			assertEquals(strings.get(i), knotStorage.lookup(indexes[i]));
+		}
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		knotStorage.addStatistics(statistics);
+		String engine = (String) statistics.get("adaptive.engine");
+		assertEquals(engine.startsWith("lz78") ? "lz78" : engine, statistics.get("engine"));
+		assertTrue(statistics.containsKey("adaptive.raw.size"));
+		assertTrue(statistics.containsKey("adaptive.fsst.lookupNanos"));
+		return engine;
+	}
+
+	@Test
+	public void testKnotStatistics() throws Exception {
+		// Striped by hash, so both stripes get Strings
+		Knot knot = Knots.builder().adaptive(10).deduplicate().concurrent(2).build();
+		for (int i = 0; i < 100; i++) {
+			knot.braid("the quick brown fox jumps over the lazy dog " + i);
+		}
+		knot.flush();
+		Map<String, Object> statistics = knot.statistics();
+		assertEquals(2, statistics.get("stripes"));
+		assertTrue(statistics.get("stripe0.adaptive.engine") instanceof String);
+		assertTrue(statistics.get("stripe1.adaptive.engine") instanceof String);
+		assertTrue(statistics.containsKey("stripe0.adaptive.lz77.size"));
+	}
+
+	@Test
+	public void testFlushChoosesEarly() throws Exception {
+		AdaptiveKnotStorage knotStorage = new AdaptiveKnotStorage(100, BUFFER_FACTORY, false);
+		// nothing to choose from yet
+		knotStorage.flush();
+		int first = knotStorage.store("the quick brown fox jumps over the lazy dog");
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		knotStorage.addStatistics(statistics);
+		assertNull(statistics.get("adaptive.engine"));
+		assertEquals(1, statistics.get("adaptive.sampled"));
+
+		knotStorage.flush();
+		int second = knotStorage.store("the quick brown fox jumps over the lazy dog");
+		assertTrue(second >= 100);
+		assertEquals("the quick brown fox jumps over the lazy dog", knotStorage.lookup(first));
+		assertEquals("the quick brown fox jumps over the lazy dog", knotStorage.lookup(second));
+		statistics.clear();
+		knotStorage.addStatistics(statistics);
+		assertTrue(statistics.get("adaptive.engine") instanceof String);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		AdaptiveKnotStorage sampling = new AdaptiveKnotStorage(3, BUFFER_FACTORY, true);
+		int a = sampling.store("the quick brown fox");
+		int b = sampling.store("jumps over the lazy dog");
+		AdaptiveKnotStorage loaded = saveAndLoad(sampling);
+		assertEquals("the quick brown fox", loaded.lookup(a));
+		// the loaded copy is still sampling, and makes its own choice
+		int c = loaded.store("the quick brown fox jumps over the lazy dog");
+		int d = loaded.store("the lazy dog");
+		assertEquals("jumps over the lazy dog", loaded.lookup(b));
+		assertEquals("the quick brown fox jumps over the lazy dog", loaded.lookup(c));
+
+		AdaptiveKnotStorage reloaded = saveAndLoad(loaded);
+		int e = reloaded.store("the quick brown dog");
+		assertEquals("the quick brown fox", reloaded.lookup(a));
+		assertEquals("the quick brown fox jumps over the lazy dog", reloaded.lookup(c));
+		assertEquals("the lazy dog", reloaded.lookup(d));
+		assertEquals("the quick brown dog", reloaded.lookup(e));
+		assertEquals("the lazy dog".hashCode(), reloaded.storedHashCode(d));
+	}
+
+	private static AdaptiveKnotStorage saveAndLoad(AdaptiveKnotStorage knotStorage) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		knotStorage.save(new DataOutputStream(bytes));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(KnotSnapshot.ADAPTIVE_STORAGE, in.readByte());
+		return AdaptiveKnotStorage.load(in, BUFFER_FACTORY);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSampleSizeNotPositive() throws Exception {
+		new AdaptiveKnotStorage(0, BUFFER_FACTORY, false);
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+
+public class AppendToTest {
+
+	private static final String[] STRINGS = { "this that the other", "\u00A2 \u20AC \u00A2\u20AC",
+			"surrogate pair \uD834\uDD1E\uD834\uDD1E and more", "a", "\uD834\uDD1E" };
+
+	@Test
+	public void testAppendTo() throws Exception {
+		Knot knot = Knots.builder().build();
+		for (String string : STRINGS) {
+			assertAppends(string, knot.braid(string));
+		}
+	}
+
+	@Test
+	public void testAppendToIsSameAsAppendingGet() throws Exception {
+		Knot knot = Knots.builder().common("common").build();
+		assertAppends("null", knot.braid(null));
+		assertAppends("", knot.braid(""));
+		assertAppends("common", knot.braid("common"));
+
+		MutableBraid mutableBraid = knot.mutableBraid(null);
+		assertAppends("null", mutableBraid);
+		mutableBraid.set("common");
+		assertAppends("common", mutableBraid);
+		mutableBraid.set("something else");
+		assertAppends("something else", mutableBraid);
+	}
+
+	@Test
+	public void testAppendToCallingBackIntoKnot() throws Exception {
+		Knot knot = Knots.builder().build();
+		final Braid inner = knot.braid("inner");
+		Braid outer = knot.braid("outer");
+		final StringBuilder builder = new StringBuilder();
+		outer.appendTo(new Appendable() {
+			@Override
+			public Appendable append(CharSequence csq) throws IOException {
+				return append(csq, 0, csq.length());
+			}
+
+			@Override
+			public Appendable append(CharSequence csq, int start, int end) throws IOException {
+				builder.append(csq, start, end);
+				return this;
+			}
+
+			@Override
+			public Appendable append(char c) throws IOException {
+				builder.append(c);
+				if (c == 'o') {
+					// decoding while the outer Braid is being appended
+					builder.append('[').append(inner.get()).append(']');
+				}
+				return this;
+			}
+		});
+		assertEquals("o[inner]uter", builder.toString());
+	}
+
+	@Test
+	public void testAsCharSequence() throws Exception {
+		Knot knot = Knots.builder().build();
+		for (String string : STRINGS) {
+			CharSequence charSequence = knot.braid(string).asCharSequence();
+			assertEquals(string.length(), charSequence.length());
+			for (int i = 0; i < string.length(); i++) {
+				assertEquals(string.charAt(i), charSequence.charAt(i));
+			}
+			assertEquals(string, charSequence.toString());
+			assertEquals(string.substring(1), charSequence.subSequence(1, string.length()).toString());
+		}
+		assertNull(knot.braid(null).asCharSequence());
+		assertEquals("", knot.braid("").asCharSequence());
+		assertNull(knot.mutableBraid(null).asCharSequence());
+		assertEquals("value", knot.mutableBraid("value").asCharSequence().toString());
+	}
+
+	private void assertAppends(String expected, Braid braid) throws IOException {
+		StringBuilder builder = new StringBuilder("prefix ");
+		braid.appendTo(builder);
+		assertEquals("prefix " + expected, builder.toString());
+
+		StringWriter writer = new StringWriter();
+		braid.appendTo(writer);
+		assertEquals(expected, writer.toString());
+
+		// no bulk append for a CharBuffer
+		CharBuffer charBuffer = CharBuffer.allocate(100);
+		braid.appendTo(charBuffer);
+		charBuffer.flip();
+		assertEquals(expected, charBuffer.toString());
+	}
+
+}
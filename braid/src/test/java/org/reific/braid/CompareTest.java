@@ -0,0 +1,102 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CompareTest {
+
+	// Includes a char above the surrogates, which sorts after a surrogate pair in UTF-16 but before it in UTF-8
+	private static final String[] STRINGS = { "", "a", "ab", "abc", "abd", "b", "this that the other",
+			"this that the others", "\u00E9t\u00E9", "\u20AC", "\uFF21", "\uD834\uDD1E clef", "\uD834\uDD1E",
+			"the other that this" };
+
+	@Test
+	public void testCursor() throws Exception {
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 2), 2, 0.5f);
+		int[] indexes = new int[STRINGS.length];
+		for (int i = 0; i < STRINGS.length; i++) {
+			indexes[i] = knotStorage.store(STRINGS[i]);
+		}
+		for (int i = 0; i < STRINGS.length; i++) {
+			byte[] expected = STRINGS[i].getBytes(Utf8.CHARSET);
+			ByteCursor cursor = knotStorage.cursor(indexes[i]);
+			for (byte b : expected) {
+				assertEquals(b & 0xFF, cursor.next());
+			}
+			assertEquals(-1, cursor.next());
+			assertEquals(-1, cursor.next());
+		}
+	}
+
+	@Test
+	public void testCompareTo() throws Exception {
+		Knot[] knots = { Knots.builder().build(), Knots.builder().concurrent(2).build(),
+				Knots.builder().recordHeaders().build(), Knots.builder().common("a", "\u20AC").build() };
+		for (Knot knot : knots) {
+			for (Knot knot2 : knots) {
+				for (String string : STRINGS) {
+					for (String string2 : STRINGS) {
+						int expected = Integer.signum(string.compareTo(string2));
+						assertEquals(expected, Integer.signum(knot.braid(string).compareTo(knot2.braid(string2))));
+						assertEquals(expected,
+								Integer.signum(knot.mutableBraid(string).compareTo(knot2.braid(string2))));
+						assertEquals(expected == 0, knot.braid(string).equals(knot2.mutableBraid(string2)));
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testNullFirst() throws Exception {
+		Knot knot = Knots.builder().build();
+		assertEquals(0, knot.braid(null).compareTo(knot.mutableBraid(null)));
+		assertTrue(knot.braid(null).compareTo(knot.braid("")) < 0);
+		assertTrue(knot.braid("").compareTo(knot.braid(null)) > 0);
+		assertTrue(knot.mutableBraid(null).compareTo(knot.braid("a")) < 0);
+		assertFalse(knot.braid(null).equals(knot.braid("")));
+	}
+
+	@Test
+	public void testSort() throws Exception {
+		List<String> lines = TestData.readHayekLines();
+		Collections.shuffle(lines, new Random(0));
+		Knot knot = Knots.builder().build();
+		List<Braid> braids = new ArrayList<Braid>();
+		for (String line : lines) {
+			braids.add(knot.braid(line));
+		}
+		Collections.sort(lines);
+		Collections.sort(braids);
+		for (int i = 0; i < lines.size(); i++) {
+			assertEquals(lines.get(i), braids.get(i).get());
+		}
+	}
+
+}
@@ -26,6 +26,9 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import org.junit.Ignore;
 import org.junit.Test;
@@ -103,7 +106,7 @@ public class CompressionRatioTest {
 		}
 		assertThat(knot.spaceUsed(), equalTo(expectTotalSpaceUsed));
 		// now add some more unrelated data.
-		knot.braid(new String("S"));
+		knot.braid(new String("Something else"));
 		// The buffer should double, based on the growth factor
 		assertThat(knot.spaceUsed(), equalTo(2 * expectedBufferSize + expectedDictionarySpaceUsed));
 
@@ -202,4 +205,186 @@ public class CompressionRatioTest {
 		knot.flush();
 		assertThat((double) knot.spaceUsed() / uncompressedSizeUtf16, closeTo(0.437877, 0.000001));
 	}
+
+	@Test
+	public void testRelativePointersReadingFullFile() throws Exception {
+		InternalKnot absolute = (InternalKnot) Knots.builder().lz78Dictionary(2, 0.75f).build();
+		InternalKnot relative = (InternalKnot) Knots.builder().lz78Dictionary(2, 0.75f)
+				.lz78Format(Knots.LZ78_FORMAT_RELATIVE_POINTERS).build();
+		int uncompressedSizeUtf8 = 0;
+
+		for (String line : TestData.readHayekLines()) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			absolute.addString(line);
+			relative.addString(line);
+		}
+		// The index of one more String is the number of bytes used by all the others. In a Knot this small, absolute
+		// pointers are already short, so there is little to gain.
+		assertThat((double) absolute.addString("end") / uncompressedSizeUtf8, closeTo(0.707978, 0.000001));
+		assertThat((double) relative.addString("end") / uncompressedSizeUtf8, closeTo(0.708451, 0.000001));
+	}
+
+	@Test
+	public void testPhraseLengthsReadingFullFile() throws Exception {
+		InternalKnot phraseLengths = (InternalKnot) Knots.builder().lz78Dictionary(2, 0.75f)
+				.lz78Format(Knots.LZ78_FORMAT_PHRASE_LENGTHS).build();
+		int uncompressedSizeUtf8 = 0;
+
+		for (String line : TestData.readHayekLines()) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			phraseLengths.addString(line);
+		}
+		// A byte for the length of nearly every token, against 0.707978 without
+		assertThat((double) phraseLengths.addString("end") / uncompressedSizeUtf8, closeTo(0.922778, 0.000001));
+	}
+
+	@Test
+	public void testRelativePointersLogLines() throws Exception {
+		InternalKnot absolute = (InternalKnot) Knots.builder().lz78Dictionary(2, 0.75f).build();
+		InternalKnot relative = (InternalKnot) Knots.builder().lz78Dictionary(2, 0.75f)
+				.lz78Format(Knots.LZ78_FORMAT_RELATIVE_POINTERS).build();
+		int uncompressedSizeUtf8 = 0;
+
+		for (String line : TestData.logLines()) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			absolute.addString(line);
+			relative.addString(line);
+		}
+		assertThat((double) absolute.addString("end") / uncompressedSizeUtf8, closeTo(0.201614, 0.000001));
+		assertThat((double) relative.addString("end") / uncompressedSizeUtf8, closeTo(0.196573, 0.000001));
+	}
+
+	@Test
+	public void testRawFallbackRandomTokens() throws Exception {
+		InternalKnot plain = (InternalKnot) Knots.builder().build();
+		InternalKnot rawFallback = (InternalKnot) Knots.builder().lz78RawFallback().build();
+		String base64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		Random random = new Random(0);
+		int uncompressedSizeUtf8 = 0;
+
+		// Random 192 bit tokens, in base 64
+		for (int i = 0; i < 10000; i++) {
+			char[] token = new char[32];
+			for (int j = 0; j < token.length; j++) {
+				token[j] = base64.charAt(random.nextInt(base64.length()));
+			}
+			String string = new String(token);
+			uncompressedSizeUtf8 += string.getBytes(StandardCharsets.UTF_8).length;
+			plain.addString(string);
+			rawFallback.addString(string);
+		}
+		// LZ78 expands them, while raw fallback only adds the length of each String (after the first 64KB)
+		assertThat((double) plain.addString("end") / uncompressedSizeUtf8, closeTo(1.106556, 0.000001));
+		assertThat((double) rawFallback.addString("end") / uncompressedSizeUtf8, closeTo(1.045794, 0.000001));
+	}
+
+	@Test
+	public void testRawFallbackLogLines() throws Exception {
+		InternalKnot rawFallback = (InternalKnot) Knots.builder().lz78Dictionary(2, 0.75f).lz78RawFallback().build();
+		int uncompressedSizeUtf8 = 0;
+
+		for (String line : TestData.logLines()) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			rawFallback.addString(line);
+		}
+		// Compressible data is stored much as before (0.201614 without raw fallback)
+		assertThat((double) rawFallback.addString("end") / uncompressedSizeUtf8, closeTo(0.204487, 0.000001));
+	}
+
+	@Test
+	public void testLz77LogLines() throws Exception {
+		InternalKnot lz77 = (InternalKnot) Knots.builder().lz77().build();
+		int uncompressedSizeUtf8 = 0;
+
+		for (String line : TestData.logLines()) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			lz77.addString(line);
+		}
+		// LZ77 trades compression for decoding speed
+		assertThat((double) lz77.addString("end") / uncompressedSizeUtf8, closeTo(0.383596, 0.000001));
+	}
+
+	@Test
+	public void testLz77ReadingFullFile() throws Exception {
+		InternalKnot lz78 = (InternalKnot) Knots.builder().build();
+		InternalKnot lz77 = (InternalKnot) Knots.builder().lz77().build();
+		int uncompressedSizeUtf8 = 0;
+
+		for (String line : TestData.readHayekLines()) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			lz78.addString(line);
+			lz77.addString(line);
+		}
+		assertThat((double) lz78.addString("end") / uncompressedSizeUtf8, closeTo(0.707979, 0.000001));
+		// Few lines of prose compress well, so none are stored as literals to help later ones match (0.993461 if they
+		// were)
+		assertThat((double) lz77.addString("end") / uncompressedSizeUtf8, closeTo(0.833907, 0.000001));
+	}
+
+	@Test
+	public void testFsstShortStrings() throws Exception {
+		List<String> sample = new ArrayList<>();
+		Random sampleRandom = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			sample.add(url(sampleRandom));
+		}
+		InternalKnot lz78 = (InternalKnot) Knots.builder().build();
+		InternalKnot fsst = (InternalKnot) Knots.builder().fsst(sample).build();
+		Random random = new Random(0);
+		int uncompressedSizeUtf8 = 0;
+
+		// Too few Strings for the LZ78 dictionary to warm up
+		for (int i = 0; i < 100; i++) {
+			String url = url(random);
+			uncompressedSizeUtf8 += url.getBytes(StandardCharsets.UTF_8).length;
+			lz78.addString(url);
+			fsst.addString(url);
+		}
+		assertThat((double) lz78.addString("end") / uncompressedSizeUtf8, closeTo(0.483287, 0.000001));
+		assertThat((double) fsst.addString("end") / uncompressedSizeUtf8, closeTo(0.255933, 0.000001));
+	}
+
+	private static String url(Random random) {
+		String[] hosts = { "www.example.com", "api.example.com", "static.example.net" };
+		String[] paths = { "/account/settings", "/products/", "/search?q=", "/orders/" };
+		return "https://" + hosts[random.nextInt(hosts.length)] + paths[random.nextInt(paths.length)]
+				+ Integer.toString(random.nextInt(1000000), 36);
+	}
+
+	@Test
+	public void testFsstReadingFullFile() throws Exception {
+		List<String> lines = TestData.readHayekLines();
+		// Trained on the first 64KB of the book
+		InternalKnot fsst = (InternalKnot) Knots.builder().fsst(lines).build();
+		int uncompressedSizeUtf8 = 0;
+		for (String line : lines) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			fsst.addString(line);
+		}
+		// Better than LZ78 (0.707978 in testRelativePointersReadingFullFile), even though each String is compressed on
+		// its own
+		assertThat((double) fsst.addString("end") / uncompressedSizeUtf8, closeTo(0.600287, 0.000001));
+	}
+
+	@Test
+	public void testEntropyCodedReadingFullFile() throws Exception {
+		AutoGrowingByteArray buffer = new AutoGrowingByteArray(128, 1.5f);
+		AutoGrowingByteArray codedBlocks = new AutoGrowingByteArray(128, 1.5f);
+		LZ78KnotStorage storage = new LZ78KnotStorage(buffer, 2, 0.75f);
+		LZ78KnotStorage entropyCoded = new LZ78KnotStorage(new HuffmanBlockBuffer(codedBlocks), 2, 0.75f);
+		int uncompressedSizeUtf8 = 0;
+
+		for (String line : TestData.readHayekLines()) {
+			uncompressedSizeUtf8 += line.getBytes(StandardCharsets.UTF_8).length;
+			storage.store(line);
+			entropyCoded.store(line);
+		}
+		// The bytes used, rather than spaceUsed(), which includes the spare capacity of the buffers. The last block is
+		// still open, so it isn't in codedBlocks.
+		int openBlockLength = buffer.nextWritePosition() % HuffmanBlockBuffer.BLOCK_SIZE;
+		assertThat((double) buffer.nextWritePosition() / uncompressedSizeUtf8, closeTo(0.707978, 0.000001));
+		assertThat((double) (codedBlocks.nextWritePosition() + openBlockLength) / uncompressedSizeUtf8,
+				closeTo(0.660398, 0.000001));
+	}
+
 }
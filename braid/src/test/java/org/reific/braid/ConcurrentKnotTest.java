@@ -0,0 +1,114 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ConcurrentKnotTest {
+
+	private static final int THREADS = 8;
+
+	@Test
+	public void testStripesFor() throws Exception {
+		assertThat(ConcurrentKnotStorage.stripesFor(1), equalTo(1));
+		assertThat(ConcurrentKnotStorage.stripesFor(2), equalTo(2));
+		assertThat(ConcurrentKnotStorage.stripesFor(3), equalTo(4));
+		assertThat(ConcurrentKnotStorage.stripesFor(8), equalTo(8));
+		assertThat(ConcurrentKnotStorage.stripesFor(9), equalTo(16));
+	}
+
+	@Test
+	public void testSingleThread() throws Exception {
+		final Knot knot = Knots.builder().concurrent(4).build();
+		List<String> uncompressed = TestData.readHayekLines();
+		List<Braid> compressed = new ArrayList<Braid>();
+		for (String line : uncompressed) {
+			compressed.add(knot.braid(line));
+		}
+		for (int i = 0; i < uncompressed.size(); i++) {
+			assertEquals(uncompressed.get(i), compressed.get(i).get());
+		}
+	}
+
+	@Test
+	/**
+	 * Many threads braid (and immediately read back) the same text at the same time, with another thread flushing.
+	 */
+	public void testManyWriters() throws Exception {
+		final Knot knot = Knots.builder().concurrent(THREADS).rememberLast(1).build();
+		final List<String> lines = TestData.readHayekLines();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+		try {
+			List<Future<List<Braid>>> futures = new ArrayList<Future<List<Braid>>>();
+			for (int t = 0; t < THREADS; t++) {
+				final int offset = t * 97;
+				futures.add(executor.submit(new Callable<List<Braid>>() {
+					@Override
+					public List<Braid> call() throws Exception {
+						start.await();
+						List<Braid> braids = new ArrayList<Braid>(lines.size());
+						for (int i = 0; i < lines.size(); i++) {
+							String line = lines.get((i + offset) % lines.size());
+							Braid braid = knot.braid(line);
+							assertEquals(line, braid.get());
+							braids.add(braid);
+						}
+						return braids;
+					}
+				}));
+			}
+			Future<?> flusher = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					start.await();
+					for (int i = 0; i < 20; i++) {
+						knot.flush();
+						Thread.sleep(1);
+					}
+					return null;
+				}
+			});
+			start.countDown();
+			flusher.get();
+			for (int t = 0; t < THREADS; t++) {
+				List<Braid> braids = futures.get(t).get();
+				int offset = t * 97;
+				for (int i = 0; i < lines.size(); i++) {
+					assertEquals(lines.get((i + offset) % lines.size()), braids.get(i).get());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class DecodeCacheTest {
+
+	private static final int THREADS = 8;
+
+	@Test
+	public void testGetAndPut() throws Exception {
+		DecodeCache<String> cache = new DecodeCache<String>("decodeCache", 10);
+		String string = "this that the other";
+		assertNull(cache.get(17));
+		cache.put(17, string);
+		assertSame(string, cache.get(17));
+		assertNull(cache.get(18));
+		Map<String, Object> statistics = statistics(cache);
+		assertEquals(1L, statistics.get("decodeCache.hits"));
+		assertEquals(2L, statistics.get("decodeCache.misses"));
+		assertEquals(1, statistics.get("decodeCache.size"));
+	}
+
+	@Test
+	public void testClear() throws Exception {
+		DecodeCache<String> cache = new DecodeCache<String>("decodeCache", 10);
+		cache.put(17, "this");
+		cache.put(18, "that");
+		cache.clear();
+		assertNull(cache.get(17));
+		assertEquals(0, statistics(cache).get("decodeCache.size"));
+		cache.put(17, "the other");
+		assertEquals("the other", cache.get(17));
+	}
+
+	@Test
+	public void testReferencedEntriesSurvive() throws Exception {
+		DecodeCache<String> cache = new DecodeCache<String>("decodeCache", 100);
+		for (int index = 0; index < 100; index++) {
+			cache.put(index * 37, "string " + index);
+		}
+		for (int round = 0; round < 20; round++) {
+			// the hot entries are read between each cold one
+			for (int hot = 0; hot < 10; hot++) {
+				assertEquals("string " + hot, cache.get(hot * 37));
+			}
+			int cold = 1000 + round;
+			assertNull(cache.get(cold * 37));
+			cache.put(cold * 37, "string " + cold);
+		}
+		Map<String, Object> statistics = statistics(cache);
+		assertEquals(100, statistics.get("decodeCache.size"));
+		assertEquals(20L, statistics.get("decodeCache.evictions"));
+	}
+
+	@Test
+	public void testKnot() throws Exception {
+		Knot knot = Knots.builder().decodeCache(2).build();
+		Braid braid = knot.braid("this that the other");
+		Braid anotherBraid = knot.braid("the other that this");
+		Braid thirdBraid = knot.braid("this the other that");
+		for (int i = 0; i < 3; i++) {
+			assertEquals("this that the other", braid.get());
+			assertEquals("the other that this", anotherBraid.get());
+		}
+		assertEquals("this the other that", thirdBraid.get());
+		Map<String, Object> statistics = knot.statistics();
+		assertEquals(2, statistics.get("decodeCache.capacity"));
+		assertEquals(4L, statistics.get("decodeCache.hits"));
+		assertEquals(3L, statistics.get("decodeCache.misses"));
+		assertEquals(1L, statistics.get("decodeCache.evictions"));
+	}
+
+	@Test
+	/**
+	 * Many threads read a skewed mix of values through a small cache, which is always evicting.
+	 */
+	public void testConcurrentReaders() throws Exception {
+		final Knot knot = Knots.builder().concurrent(THREADS).decodeCache(64).build();
+		final List<String> strings = new ArrayList<String>();
+		final List<Braid> braids = new ArrayList<Braid>();
+		for (int i = 0; i < 1000; i++) {
+			strings.add("this that the other " + i);
+			braids.add(knot.braid(strings.get(i)));
+		}
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < THREADS; t++) {
+				final Random random = new Random(t);
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						for (int i = 0; i < 100000; i++) {
+							int index = random.nextBoolean() ? random.nextInt(16) : random.nextInt(braids.size());
+							assertEquals(strings.get(index), braids.get(index).get());
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Map<String, Object> statistics = knot.statistics();
+		assertTrue((Long) statistics.get("decodeCache.hits") > 0);
+		assertTrue((Integer) statistics.get("decodeCache.size") <= 64);
+	}
+
+	private static Map<String, Object> statistics(DecodeCache<String> cache) {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		cache.addStatistics(statistics);
+		return statistics;
+	}
+
+}
@@ -0,0 +1,163 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DeduplicationTest {
+
+	private static final int THREADS = 8;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSameIndex() throws Exception {
+		Knot knot = Knots.builder().deduplicate().build();
+		InternalKnot internalKnot = (InternalKnot) knot;
+		int index = internalKnot.addString("United Kingdom");
+		internalKnot.addString("Canada");
+		long spaceUsed = knot.spaceUsed();
+		assertEquals(index, internalKnot.addString(new String("United Kingdom")));
+		assertEquals(spaceUsed, knot.spaceUsed());
+		// still found after the dictionary is flushed
+		knot.flush();
+		assertEquals(index, internalKnot.addString(new String("United Kingdom")));
+	}
+
+	@Test
+	public void testHashCollision() throws Exception {
+		InternalKnot knot = (InternalKnot) Knots.builder().deduplicate().build();
+		// same hash code, and differ at the first char, or only at the end
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		int aa = knot.addString("Aa");
+		assertNotEquals(aa, knot.addString("BB"));
+		assertEquals("AaBB".hashCode(), "AaAa".hashCode());
+		int aaBB = knot.addString("AaBB");
+		assertNotEquals(aaBB, knot.addString("AaAa"));
+		assertEquals(aa, knot.addString("Aa"));
+		assertEquals(aaBB, knot.addString("AaBB"));
+	}
+
+	@Test
+	public void testWholeText() throws Exception {
+		List<String> lines = TestData.readHayekLines();
+		Knot knot = Knots.builder().deduplicate().build();
+		Knot plainKnot = Knots.builder().build();
+		List<Braid> braids = new ArrayList<Braid>();
+		// every line three times
+		for (int i = 0; i < 3; i++) {
+			for (String line : lines) {
+				braids.add(knot.braid(line));
+				plainKnot.braid(line);
+			}
+		}
+		for (int i = 0; i < braids.size(); i++) {
+			assertEquals(lines.get(i % lines.size()), braids.get(i).get());
+		}
+		assertTrue(knot.spaceUsed() < plainKnot.spaceUsed());
+	}
+
+	@Test
+	public void testCanonicalBraids() throws Exception {
+		Knot knot = Knots.builder().canonicalBraids().build();
+		Braid braid = knot.braid("United Kingdom");
+		assertSame(braid, knot.braid(new String("United Kingdom")));
+		assertThat(knot.braid("Canada"), not(sameInstance(braid)));
+	}
+
+	@Test
+	public void testEqualsComparesIndexes() throws Exception {
+		Knot knot = Knots.builder().deduplicate().build();
+		Braid braid = knot.braid("United Kingdom");
+		assertEquals(braid, knot.braid(new String("United Kingdom")));
+		assertNotEquals(braid, knot.braid("Canada"));
+		// Braids from a different Knot are still compared by value
+		assertEquals(braid, Knots.builder().build().braid("United Kingdom"));
+	}
+
+	@Test
+	/**
+	 * Many threads braid the same lines at the same time. Each distinct line must end up with a single Braid.
+	 */
+	public void testConcurrentCanonicalBraids() throws Exception {
+		final Knot knot = Knots.builder().concurrent(THREADS).canonicalBraids().build();
+		final List<String> lines = TestData.readHayekLines();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<List<Braid>>> futures = new ArrayList<Future<List<Braid>>>();
+			for (int t = 0; t < THREADS; t++) {
+				futures.add(executor.submit(new Callable<List<Braid>>() {
+					@Override
+					public List<Braid> call() throws Exception {
+						start.await();
+						List<Braid> braids = new ArrayList<Braid>();
+						for (String line : lines) {
+							braids.add(knot.braid(new String(line)));
+						}
+						return braids;
+					}
+				}));
+			}
+			start.countDown();
+			List<Braid> first = futures.get(0).get();
+			for (Future<List<Braid>> future : futures) {
+				List<Braid> braids = future.get();
+				for (int i = 0; i < lines.size(); i++) {
+					assertEquals(lines.get(i), braids.get(i).get());
+					assertSame(first.get(i), braids.get(i));
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Path file = folder.newFile().toPath();
+		Knot knot = Knots.builder().deduplicate().build();
+		int index = ((InternalKnot) knot).addString("United Kingdom");
+		knot.save(file);
+
+		Knot loaded = Knots.builder().load(file);
+		assertEquals(index, ((InternalKnot) loaded).addString(new String("United Kingdom")));
+	}
+
+}
@@ -0,0 +1,126 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectKnotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testDirectKnot() throws Exception {
+		assertBraidsRoundTrip(Knots.builder().direct().lz78(16, 1.5f).build());
+	}
+
+	@Test
+	public void testDirectConcurrentKnot() throws Exception {
+		assertBraidsRoundTrip(Knots.builder().direct().concurrent(4).build());
+	}
+
+	@Test
+	public void testDirectDictionary() throws Exception {
+		LZ78HashOnlyDictionary dictionary = new LZ78HashOnlyDictionary(2, 0.99f, true);
+		byte[] array = new byte[] { 1, 2, 3 };
+		// enough entries to rehash
+		for (int i = 1; i <= array.length; i++) {
+			dictionary.put(array, 0, i, 100 + i);
+		}
+		assertThat(dictionary.indexOfLongestPossiblePrefix(array, 0, 3), equalTo(2));
+		assertThat(dictionary.get(array, 0, 2)[0], equalTo(102));
+		dictionary.close();
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		Knot knot = Knots.builder().direct().common("common").build();
+		Braid braid = knot.braid("some text");
+		Braid common = knot.braid("common");
+		knot.close();
+		try {
+			braid.get();
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		try {
+			knot.braid("more text");
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		// nothing to read from the Knot
+		assertEquals("common", common.get());
+		// closing twice is harmless
+		knot.close();
+	}
+
+	@Test
+	public void testCloseDeletesMappedFiles() throws Exception {
+		Path directory = folder.newFolder().toPath();
+		Knot knot = Knots.builder().mappedFile(directory).build();
+		knot.braid("some text");
+		// Where the OS allows it, the file is already gone
+		assertTrue(directory.toFile().list().length <= 1);
+		knot.close();
+		assertEquals(0, directory.toFile().list().length);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Path file = folder.newFile().toPath();
+		Knot knot = Knots.builder().direct().build();
+		InternalKnot internalKnot = (InternalKnot) knot;
+		int index = internalKnot.addString("some text");
+		knot.save(file);
+		knot.close();
+
+		Knot loaded = Knots.builder().direct().load(file);
+		assertEquals("some text", ((InternalKnot) loaded).lookupString(index));
+		assertEquals("some more text", loaded.braid("some more text").get());
+		loaded.close();
+	}
+
+	private void assertBraidsRoundTrip(Knot knot) throws Exception {
+		List<String> uncompressed = new ArrayList<String>();
+		List<Braid> compressed = new ArrayList<Braid>();
+		for (String line : TestData.readHayekLines()) {
+			uncompressed.add(line);
+			compressed.add(knot.braid(line));
+		}
+		for (int i = 0; i < uncompressed.size(); i++) {
+			assertEquals(uncompressed.get(i), compressed.get(i).get());
+		}
+		knot.close();
+	}
+
+}
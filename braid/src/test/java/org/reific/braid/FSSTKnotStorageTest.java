@@ -0,0 +1,114 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FSSTKnotStorageTest {
+
+	private static final List<String> SAMPLE = Arrays.asList("http://www.example.com/index.html",
+			"http://www.example.com/about.html", "https://www.example.org/\u00A2\u20AC.html");
+
+	@Test
+	public void testLookupUtf8() throws Exception {
+		FSSTKnotStorage knotStorage = new FSSTKnotStorage(new AutoGrowingByteArray(16, 2),
+				FSSTSymbolTable.train(SAMPLE), false);
+		// including bytes that aren't in the sample at all, which are escaped
+		String[] strings = { "http://www.example.com/contact.html", "", "\u00A2\u20AC", "zzz{|}~",
+				"ftp://example.net/", "" };
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			indexes[i] = knotStorage.store(strings[i]);
+		}
+		DecodeScratch scratch = new DecodeScratch();
+		for (int i = 0; i < strings.length; i++) {
+			knotStorage.lookupUtf8(indexes[i], scratch);
+			assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+			assertEquals(strings[i], knotStorage.lookup(indexes[i]));
+			assertEquals(strings[i], TestData.drain(knotStorage.cursor(indexes[i])));
+		}
+	}
+
+	@Test
+	public void testCompressesFirstString() throws Exception {
+		FSSTKnotStorage knotStorage = new FSSTKnotStorage(new AutoGrowingByteArray(16, 2),
+				FSSTSymbolTable.train(SAMPLE), false);
+		String string = "http://www.example.com/index.html";
+		int index = knotStorage.store(string);
+		int end = knotStorage.store("");
+		assertTrue(end - index < string.length() / 2);
+	}
+
+	@Test
+	public void testTraining() throws Exception {
+		List<String> sample = new ArrayList<String>();
+		for (int i = 0; i < 10000; i++) {
+			sample.add("key-" + i + "-" + Integer.toHexString(i * 7919));
+		}
+		FSSTSymbolTable symbolTable = FSSTSymbolTable.train(sample);
+		assertEquals(FSSTSymbolTable.MAX_SYMBOLS, symbolTable.numSymbols());
+		// the common prefix has grown into a single symbol
+		int code = symbolTable.findSymbol("key-".getBytes(Utf8.CHARSET), 0);
+		assertEquals(4, symbolTable.symbolLength(code));
+		// an empty sample gives a table that escapes every byte
+		assertEquals(0, FSSTSymbolTable.train(new ArrayList<String>()).numSymbols());
+	}
+
+	@Test
+	public void testRecordHeadersAndSnapshot() throws Exception {
+		FSSTKnotStorage knotStorage = new FSSTKnotStorage(new AutoGrowingByteArray(16, 2),
+				FSSTSymbolTable.train(SAMPLE), true);
+		String string = "http://www.example.com/\u00A2\u20AC.html";
+		int index = knotStorage.store(string);
+		assertEquals(string.hashCode(), knotStorage.storedHashCode(index));
+		assertEquals(string.length(), knotStorage.storedLength(index));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		knotStorage.save(new DataOutputStream(bytes));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(KnotSnapshot.FSST_STORAGE, in.readByte());
+		FSSTKnotStorage loaded = FSSTKnotStorage.load(in, new BufferFactory() {
+			@Override
+			public Buffer newBuffer(int minimumCapacity) {
+				return new AutoGrowingByteArray(minimumCapacity, 2);
+			}
+
+			@Override
+			public boolean isDirect() {
+				return false;
+			}
+		});
+		int more = loaded.store("http://www.example.com/index.html");
+		assertEquals(string, loaded.lookup(index));
+		assertEquals(string.hashCode(), loaded.storedHashCode(index));
+		assertEquals("http://www.example.com/index.html", loaded.lookup(more));
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HuffmanBlockBufferTest {
+
+	@Test
+	public void testAcrossBlocks() throws Exception {
+		Buffer buffer = new HuffmanBlockBuffer(new AutoGrowingByteArray(16, 2));
+		Random random = new Random(0);
+		int[] values = new int[10000];
+		byte[] letters = new byte[values.length];
+		int[] positions = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			// skewed, like LZ78 pointers
+			values[i] = random.nextInt(1 << random.nextInt(28));
+			letters[i] = (byte) ('a' + random.nextInt(26));
+			positions[i] = buffer.nextWritePosition();
+			buffer.putVInt(values[i]);
+			buffer.putByte(letters[i]);
+		}
+		assertTrue(buffer.nextWritePosition() > 4 * HuffmanBlockBuffer.BLOCK_SIZE);
+		// in an order that defeats the cache of decoded blocks
+		for (int i = 0; i < values.length; i++) {
+			int j = (int) ((i * 7919L) % values.length);
+			long vInt = buffer.getVInt(positions[j]);
+			assertEquals(values[j], value(vInt));
+			assertEquals(letters[j], buffer.getByte(positions[j] + numBytes(vInt)));
+		}
+	}
+
+	@Test
+	public void testBulkAndRawBlocks() throws Exception {
+		Buffer buffer = new HuffmanBlockBuffer(new AutoGrowingByteArray(16, 2));
+		byte[] random = new byte[3 * HuffmanBlockBuffer.BLOCK_SIZE + 100];
+		new Random(0).nextBytes(random);
+		byte[] text = new byte[3 * HuffmanBlockBuffer.BLOCK_SIZE];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = (byte) "etaoin shrdlu".charAt(i % 13);
+		}
+		// random bytes don't compress, so are stored as they are
+		buffer.putBytes(random, 0, random.length);
+		buffer.putBytes(text, 0, text.length);
+		byte[] copy = new byte[random.length];
+		buffer.getBytes(0, copy, 0, random.length);
+		assertArrayEquals(random, copy);
+		copy = new byte[text.length];
+		buffer.getBytes(random.length, copy, 0, text.length);
+		assertArrayEquals(text, copy);
+		assertEquals(text[0], buffer.getByte(random.length));
+	}
+
+	@Test
+	public void testSingleSymbol() throws Exception {
+		final Buffer buffer = new HuffmanBlockBuffer(new AutoGrowingByteArray(16, 2));
+		for (int i = 0; i < 2 * HuffmanBlockBuffer.BLOCK_SIZE; i++) {
+			buffer.putByte((byte) 'x');
+		}
+		// the 4KB block is coded in 512 bytes, plus its header
+		int size = buffer.getSize();
+		assertTrue(size < HuffmanBlockBuffer.CACHE_SIZE + 3 * HuffmanBlockBuffer.BLOCK_SIZE);
+		assertEquals('x', buffer.getByte(0));
+		assertEquals('x', buffer.getByte(HuffmanBlockBuffer.BLOCK_SIZE + 1));
+		// the cache of decoded blocks is the same size however many threads read
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				buffer.getByte(2);
+			}
+		};
+		reader.start();
+		reader.join();
+		assertEquals(size, buffer.getSize());
+	}
+
+	@Test
+	public void testCodeLengthsLimited() throws Exception {
+		// Fibonacci frequencies give the deepest possible Huffman tree
+		int[] frequencies = new int[256];
+		int a = 1;
+		int b = 1;
+		for (int i = 0; i < 30; i++) {
+			frequencies[i] = a;
+			int next = a + b;
+			a = b;
+			b = next;
+		}
+		int[] lengths = HuffmanBlockBuffer.codeLengths(frequencies);
+		long kraft = 0;
+		for (int i = 0; i < 30; i++) {
+			assertTrue(lengths[i] >= 1 && lengths[i] <= 12);
+			kraft += 1 << (12 - lengths[i]);
+		}
+		assertTrue(kraft <= 1 << 12);
+		assertEquals(0, lengths[30]);
+	}
+
+	private int value(long vInt) {
+		return (int) vInt;
+	}
+
+	private int numBytes(long vInt) {
+		return (int) (vInt >> 32);
+	}
+
+}
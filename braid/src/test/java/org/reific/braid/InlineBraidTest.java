@@ -0,0 +1,94 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class InlineBraidTest {
+
+	@Test
+	public void testShortStringsAreInline() throws Exception {
+		Knot knot = Knots.builder().build();
+		long spaceUsed = knot.spaceUsed();
+		String[] strings = { "Y", "N", "USD", "200", "1234567", "\u00E9t\u00E9", "\u00FF\u0000\u0080" };
+		for (String string : strings) {
+			Braid braid = knot.braid(string);
+			assertTrue(braid instanceof InlineBraid);
+			assertEquals(string, braid.get());
+			assertEquals(string.length(), braid.length());
+			assertEquals(string.hashCode(), braid.hashCode());
+			assertEquals(string, braid.asCharSequence().toString());
+			StringBuilder builder = new StringBuilder();
+			braid.appendTo(builder);
+			assertEquals(string, builder.toString());
+		}
+		assertEquals(spaceUsed, knot.spaceUsed());
+	}
+
+	@Test
+	public void testOtherStringsAreNotInline() throws Exception {
+		Knot knot = Knots.builder().build();
+		assertFalse(knot.braid("12345678") instanceof InlineBraid);
+		assertFalse(knot.braid("\u20AC") instanceof InlineBraid);
+		assertFalse(knot.braid("") instanceof InlineBraid);
+		assertFalse(knot.braid(null) instanceof InlineBraid);
+	}
+
+	@Test
+	public void testEquals() throws Exception {
+		Knot knot = Knots.builder().build();
+		Knot otherKnot = Knots.builder().recordHeaders().build();
+		assertEquals(knot.braid("USD"), otherKnot.braid("USD"));
+		assertEquals(knot.braid("USD"), knot.mutableBraid("USD"));
+		assertEquals(knot.mutableBraid("USD"), knot.braid("USD"));
+		assertFalse(knot.braid("USD").equals(knot.braid("US")));
+		assertFalse(knot.braid("US").equals(knot.braid("US\u0000")));
+		assertTrue(knot.braid("US").compareTo(knot.braid("US\u0000")) < 0);
+		assertTrue(knot.braid("\u00E9").compareTo(knot.braid("\u20AC")) < 0);
+	}
+
+	@Test
+	public void testWriteUtf8() throws Exception {
+		Knot knot = Knots.builder().build();
+		String string = "\u00E9t\u00E9";
+		byte[] expected = string.getBytes(Utf8.CHARSET);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(expected.length, knot.braid(string).writeUtf8(out));
+		assertEquals(string, new String(out.toByteArray(), Utf8.CHARSET));
+
+		ByteBuffer small = ByteBuffer.allocate(expected.length - 1);
+		try {
+			knot.braid(string).writeUtf8(small);
+			fail();
+		} catch (BufferOverflowException e) {
+			// nothing is written
+			assertEquals(0, small.position());
+		}
+	}
+
+}
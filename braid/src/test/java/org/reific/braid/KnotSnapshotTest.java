@@ -0,0 +1,191 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class KnotSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSaveAndLoad() throws Exception {
+		assertSnapshotRestores(Knots.builder(), Knots.builder());
+	}
+
+	@Test
+	public void testSmallBuffers() throws Exception {
+		// Many segments when saved, but loaded into a single segment
+		assertSnapshotRestores(Knots.builder().lz78(16, 1.5f), Knots.builder());
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		assertSnapshotRestores(Knots.builder().concurrent(4), Knots.builder());
+	}
+
+	@Test
+	public void testRelativePointers() throws Exception {
+		assertSnapshotRestores(Knots.builder().lz78Format(Knots.LZ78_FORMAT_RELATIVE_POINTERS).recordHeaders(),
+				Knots.builder());
+	}
+
+	@Test
+	public void testPhraseLengths() throws Exception {
+		assertSnapshotRestores(Knots.builder().lz78Format(Knots.LZ78_FORMAT_PHRASE_LENGTHS).lz78RawFallback(),
+				Knots.builder());
+	}
+
+	@Test
+	public void testMaxPhraseLength() throws Exception {
+		Knot loaded = (Knot) assertSnapshotRestores(Knots.builder().lz78MaxPhraseLength(4).lz78RawFallback(),
+				Knots.builder());
+		// The Strings added after loading are still limited
+		assertEquals(4, loaded.statistics().get("lz78MaxPhraseLength"));
+		assertEquals(4, ((SortedMap<?, ?>) loaded.statistics().get("longestPhraseHistogram")).lastKey());
+	}
+
+	@Test
+	public void testLz78RawFallback() throws Exception {
+		assertSnapshotRestores(Knots.builder().lz78RawFallback().lz78Format(Knots.LZ78_FORMAT_RELATIVE_POINTERS)
+				.recordHeaders(), Knots.builder());
+	}
+
+	@Test
+	public void testLz77() throws Exception {
+		assertSnapshotRestores(Knots.builder().lz77().recordHeaders(), Knots.builder());
+	}
+
+	@Test
+	public void testFsst() throws Exception {
+		assertSnapshotRestores(Knots.builder().fsst(Arrays.asList("this that the other", "the other that this"))
+				.concurrent(2), Knots.builder());
+	}
+
+	@Test
+	public void testAdaptive() throws Exception {
+		assertSnapshotRestores(Knots.builder().adaptive(100).recordHeaders(), Knots.builder());
+		// saved before the choice was made
+		assertSnapshotRestores(Knots.builder().adaptive(100000), Knots.builder());
+	}
+
+	@Test
+	public void testLoadEntropyCoded() throws Exception {
+		assertSnapshotRestores(Knots.builder().entropyCoded(), Knots.builder().entropyCoded());
+	}
+
+	@Test
+	public void testSingleWriter() throws Exception {
+		assertSnapshotRestores(Knots.builder().singleWriter(), Knots.builder());
+	}
+
+	@Test
+	public void testLoadIntoMappedFiles() throws Exception {
+		assertSnapshotRestores(Knots.builder(), Knots.builder().mappedFile(folder.newFolder().toPath()));
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		Path file = folder.newFile().toPath();
+		Knots.builder().build().save(file);
+		Knot loaded = Knots.builder().load(file);
+		assertEquals("abc", loaded.braid("abc").get());
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotASnapshot() throws Exception {
+		Path file = folder.newFile().toPath();
+		Files.write(file, "not a snapshot".getBytes("UTF-8"));
+		Knots.builder().load(file);
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedLz78Options() throws Exception {
+		Path file = folder.newFile().toPath();
+		Knots.builder().build().save(file);
+		byte[] bytes = Files.readAllBytes(file);
+		// after the magic number, the format version and the storage tag
+		assertEquals(LZ78KnotStorage.Options.OPTIONS_VERSION, bytes[9]);
+		bytes[9] = 99;
+		Files.write(file, bytes);
+		Knots.builder().load(file);
+	}
+
+	/**
+	 * @return the loaded Knot, with all the lines added
+	 */
+	private InternalKnot assertSnapshotRestores(Knots.KnotBuilder saveBuilder, Knots.KnotBuilder loadBuilder)
+			throws Exception {
+		List<String> lines = readLines();
+		List<String> firstHalf = lines.subList(0, lines.size() / 2);
+		List<String> secondHalf = lines.subList(lines.size() / 2, lines.size());
+
+		InternalKnot knot = (InternalKnot) saveBuilder.build();
+		int[] indexes = addStrings(knot, firstHalf);
+		Path file = folder.newFile().toPath();
+		((Knot) knot).save(file);
+
+		InternalKnot loaded = (InternalKnot) loadBuilder.load(file);
+		assertLookups(loaded, firstHalf, indexes);
+
+		// The loaded Knot carries on exactly where the original left off
+		int[] moreIndexes = addStrings(loaded, secondHalf);
+		assertLookups(loaded, firstHalf, indexes);
+		assertLookups(loaded, secondHalf, moreIndexes);
+		return loaded;
+	}
+
+	private int[] addStrings(InternalKnot knot, List<String> strings) {
+		int[] indexes = new int[strings.size()];
+		for (int i = 0; i < indexes.length; i++) {
+			indexes[i] = knot.addString(strings.get(i));
+		}
+		return indexes;
+	}
+
+	private void assertLookups(InternalKnot knot, List<String> strings, int[] indexes) {
+		for (int i = 0; i < indexes.length; i++) {
+			assertEquals(strings.get(i), knot.lookupString(indexes[i]));
+		}
+	}
+
+	private List<String> readLines() throws Exception {
+		List<String> lines = new ArrayList<String>();
+		for (String line : TestData.readHayekLines()) {
+			if (!line.isEmpty()) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+}
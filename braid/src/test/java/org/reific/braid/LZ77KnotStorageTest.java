@@ -0,0 +1,117 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LZ77KnotStorageTest {
+
+	@Test
+	public void testLookupUtf8() throws Exception {
+		LZ77KnotStorage knotStorage = new LZ77KnotStorage(new AutoGrowingByteArray(16, 2), 8, false);
+		String[] strings = { "this that the other", "the other that this", "\u00A2\u20AC \u00A2\u20AC", "",
+				"this that the other this that the other", "the other that this" };
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			indexes[i] = knotStorage.store(strings[i]);
+		}
+		DecodeScratch scratch = new DecodeScratch();
+		for (int i = 0; i < strings.length; i++) {
+			knotStorage.lookupUtf8(indexes[i], scratch);
+			assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+			assertEquals(strings[i], knotStorage.lookup(indexes[i]));
+		}
+	}
+
+	@Test
+	public void testMatchesCompress() throws Exception {
+		LZ77KnotStorage knotStorage = new LZ77KnotStorage(new AutoGrowingByteArray(16, 2), 1 << 10, false);
+		String string = "2014-12-10 INFO user-1234 viewed page /account/settings from 10.0.0.1";
+		knotStorage.store(string);
+		int index = knotStorage.store(string);
+		int end = knotStorage.store("");
+		// length, empty literals, then one match covering the whole String
+		assertTrue(end - index < 6);
+		assertEquals(string, knotStorage.lookup(index));
+	}
+
+	@Test
+	public void testHayek() throws Exception {
+		// Small enough that the table grows to its maximum
+		LZ77KnotStorage knotStorage = new LZ77KnotStorage(new AutoGrowingByteArray(128, 1.5f), 1 << 10, true);
+		List<String> strings = new ArrayList<String>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (String line : TestData.readHayekLines()) {
+			strings.add(line);
+			indexes.add(knotStorage.store(line));
+		}
+		for (int i = 0; i < strings.size(); i++) {
+			String string = strings.get(i);
+			int index = indexes.get(i);
+			assertEquals(string, knotStorage.lookup(index));
+			assertEquals(string, TestData.drain(knotStorage.cursor(index)));
+			assertEquals(string.hashCode(), knotStorage.storedHashCode(index));
+			assertEquals(string.length(), knotStorage.storedLength(index));
+		}
+	}
+
+	@Test
+	public void testFlushAndSnapshot() throws Exception {
+		LZ77KnotStorage knotStorage = new LZ77KnotStorage(new AutoGrowingByteArray(16, 2), 1 << 10, false);
+		int before = knotStorage.store("the quick brown fox jumps over the lazy dog");
+		knotStorage.flush();
+		int after = knotStorage.store("the quick brown fox jumps over the lazy dog");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		knotStorage.save(new DataOutputStream(bytes));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(KnotSnapshot.LZ77_STORAGE, in.readByte());
+		LZ77KnotStorage loaded = LZ77KnotStorage.load(in, new BufferFactory() {
+			@Override
+			public Buffer newBuffer(int minimumCapacity) {
+				return new AutoGrowingByteArray(minimumCapacity, 2);
+			}
+
+			@Override
+			public boolean isDirect() {
+				return false;
+			}
+		});
+		int more = loaded.store("the quick brown fox jumps over the lazy dog");
+		assertEquals("the quick brown fox jumps over the lazy dog", loaded.lookup(before));
+		assertEquals("the quick brown fox jumps over the lazy dog", loaded.lookup(after));
+		assertEquals("the quick brown fox jumps over the lazy dog", loaded.lookup(more));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTableSizeNotPowerOfTwo() throws Exception {
+		new LZ77KnotStorage(new AutoGrowingByteArray(16, 2), 1000, false);
+	}
+
+}
@@ -42,4 +42,25 @@ public class LZ78HashOnlyDictionaryTest {
 
 	}
 
+	@Test
+	public void testRemove() throws Exception {
+		// A small table, so the keys collide and wrap around
+		LZ78HashOnlyDictionary dictionary = new LZ78HashOnlyDictionary(7, 0.99f);
+		byte[] array = new byte[] { 1, 2, 3, 4, 5, 6 };
+		for (int i = 0; i < 6; i++) {
+			dictionary.put(array, i, 1, 10 + i);
+		}
+		dictionary.remove(array, 2, 1, 12);
+		// not present
+		dictionary.remove(array, 2, 1, 12);
+		dictionary.remove(array, 3, 1, 99);
+		for (int i = 0; i < 6; i++) {
+			assertThat(dictionary.get(array, i, 1), equalTo(i == 2 ? new int[0] : new int[] { 10 + i }));
+		}
+		for (int i = 0; i < 6; i++) {
+			dictionary.remove(array, i, 1, 10 + i);
+			assertThat(dictionary.get(array, i, 1), equalTo(new int[0]));
+		}
+	}
+
 }
@@ -18,9 +18,126 @@
  */
 package org.reific.braid;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+
+import org.junit.Test;
 
 public class LZ78KnotStorageTest {
 
+	@Test
+	public void testLookupUtf8() throws Exception {
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 2), 2, 0.5f);
+		String[] strings = { "this that the other", "the other that this", "\u00A2\u20AC \u00A2\u20AC", "" };
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			indexes[i] = knotStorage.store(strings[i]);
+		}
+		DecodeScratch scratch = new DecodeScratch();
+		for (int i = 0; i < strings.length; i++) {
+			knotStorage.lookupUtf8(indexes[i], scratch);
+			assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+			assertEquals(strings[i], knotStorage.lookup(indexes[i]));
+		}
+	}
+
+	@Test
+	public void testLookupUtf8GrowsScratch() throws Exception {
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 2), 2, 0.5f);
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < 70000; i++) {
+			builder.append((char) ('a' + i % 26));
+		}
+		String string = builder.toString();
+		int index = knotStorage.store(string);
+		DecodeScratch scratch = new DecodeScratch();
+		knotStorage.lookupUtf8(index, scratch);
+		assertEquals(string, new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+		assertEquals(string, knotStorage.lookup(index));
+	}
+
+	@Test
+	public void testFalsePositiveSingleByteMatch() throws Exception {
+		// Random CJK chars make many single byte phrases, some of which are only hash collisions with the dictionary
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 1.5f), 2, 0.5f);
+		Random random = new Random(42);
+		String[] strings = new String[1000];
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			char[] chars = new char[20];
+			for (int j = 0; j < chars.length; j++) {
+				chars[j] = (char) (0x4E00 + random.nextInt(0x5000));
+			}
+			strings[i] = new String(chars);
+			indexes[i] = knotStorage.store(strings[i]);
+		}
+		for (int i = 0; i < strings.length; i++) {
+			assertEquals(strings[i], knotStorage.lookup(indexes[i]));
+		}
+	}
+
+	@Test
+	public void testRawFallback() throws Exception {
+		for (int format : new int[] { LZ78KnotStorage.ABSOLUTE_POINTERS, LZ78KnotStorage.RELATIVE_POINTERS,
+				LZ78KnotStorage.PHRASE_LENGTHS }) {
+			LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 1.5f),
+					new LZ78KnotStorage.Options(2, 0.5f).recordHeaders(true).format(format).rawFallback(true));
+			Random random = new Random(42);
+			String[] strings = new String[6000];
+			int[] indexes = new int[strings.length];
+			int rawRecords = 0;
+			for (int i = 0; i < strings.length; i++) {
+				// random tokens, which LZ78 would expand, between Strings it compresses
+				strings[i] = i % 2 == 0 ? randomToken(random, 32) : "this that the other the other that this " + i % 10;
+				indexes[i] = knotStorage.store(strings[i]);
+				if (i % 2 == 0 && indexes[i] >= LZ78KnotStorage.RAW_FALLBACK_LEARNING_BYTES) {
+					// length, header, then at most the token itself
+					int size = knotStorage.store("") - indexes[i];
+					assertTrue(size <= 1 + 5 + 32);
+					rawRecords += size == 1 + 5 + 32 ? 1 : 0;
+				}
+			}
+			assertTrue(rawRecords > 500);
+			DecodeScratch scratch = new DecodeScratch();
+			for (int i = 0; i < strings.length; i++) {
+				knotStorage.lookupUtf8(indexes[i], scratch);
+				assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+				assertEquals(strings[i], knotStorage.lookup(indexes[i]));
+				assertEquals(strings[i], TestData.drain(knotStorage.cursor(indexes[i])));
+				assertEquals(strings[i].hashCode(), knotStorage.storedHashCode(indexes[i]));
+			}
+		}
+	}
+
+	private static String randomToken(Random random, int length) {
+		String base64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		char[] token = new char[length];
+		for (int i = 0; i < length; i++) {
+			token[i] = base64.charAt(random.nextInt(base64.length()));
+		}
+		return new String(token);
+	}
+
+	@Test
+	public void testScratchPerThread() throws Exception {
+		DecodeScratch scratch = DecodeScratch.acquire();
+		// nested use gets its own scratch
+		DecodeScratch nested = DecodeScratch.acquire();
+		assertNotSame(scratch, nested);
+		nested.release();
+		scratch.release();
+		DecodeScratch again = DecodeScratch.acquire();
+		assertSame(scratch, again);
+		again.release();
+	}
+
 	//	@Test
 	//	public void testStuff() throws Exception {
 	//		//MockBuffer buffer = new MockBuffer();
@@ -34,4 +151,111 @@ public class LZ78KnotStorageTest {
 	//		//System.out.println(Arrays.toString(knotStorage.lookup(1, 3)));
 	//	}
 
+	@Test
+	public void testPhraseCache() throws Exception {
+		for (int format : new int[] { LZ78KnotStorage.ABSOLUTE_POINTERS, LZ78KnotStorage.RELATIVE_POINTERS,
+				LZ78KnotStorage.PHRASE_LENGTHS }) {
+			// small segments, so phrases span them, and a small cache, so phrases are evicted
+			LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 1.5f),
+					new LZ78KnotStorage.Options(2, 0.5f).recordHeaders(true).format(format).rawFallback(true)
+							.phraseCacheBytes(4096));
+			Random random = new Random(42);
+			String[] strings = new String[3000];
+			int[] indexes = new int[strings.length];
+			for (int i = 0; i < strings.length; i++) {
+				// random tokens, which share no phrases, between Strings that share many
+				strings[i] = i % 5 == 0 ? randomToken(random, 32)
+						: "this that the other \u00A2\u20AC the other that this " + i % 10 + " the other " + i % 7;
+				indexes[i] = knotStorage.store(strings[i]);
+			}
+			DecodeScratch scratch = new DecodeScratch();
+			for (int pass = 0; pass < 3; pass++) {
+				for (int n = 0; n < strings.length; n++) {
+					int i = random.nextInt(strings.length);
+					knotStorage.lookupUtf8(indexes[i], scratch);
+					assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+					assertEquals(strings[i], TestData.drain(knotStorage.cursor(indexes[i])));
+				}
+			}
+			Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+			knotStorage.addStatistics(statistics);
+			assertTrue((Long) statistics.get("lz78PhraseCache.hits") > 0);
+			assertTrue((Long) statistics.get("lz78PhraseCache.evictions") > 0);
+			assertTrue((Long) statistics.get("lz78PhraseCache.weight") <= 4096);
+		}
+	}
+
+	@Test
+	public void testPhraseLengths() throws Exception {
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 1.5f),
+				new LZ78KnotStorage.Options(2, 0.5f).format(LZ78KnotStorage.PHRASE_LENGTHS));
+		String[] strings = new String[2000];
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			// long enough for phrases with long lengths
+			strings[i] = "this that the other " + i % 20 + " \u00A2\u20AC the other that this " + (i * 7919);
+			indexes[i] = knotStorage.store(strings[i]);
+		}
+		DecodeScratch scratch = new DecodeScratch();
+		for (int i = 0; i < strings.length; i++) {
+			knotStorage.lookupUtf8(indexes[i], scratch);
+			assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+			assertEquals(strings[i], TestData.drain(knotStorage.cursor(indexes[i])));
+		}
+		assertEquals("", knotStorage.lookup(knotStorage.store("")));
+	}
+
+	@Test
+	public void testMaxPhraseLength() throws Exception {
+		for (int format : new int[] { LZ78KnotStorage.ABSOLUTE_POINTERS, LZ78KnotStorage.RELATIVE_POINTERS,
+				LZ78KnotStorage.PHRASE_LENGTHS }) {
+			LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 1.5f),
+					new LZ78KnotStorage.Options(2, 0.5f).format(format).maxPhraseLength(8));
+			LZ78KnotStorage unlimited = new LZ78KnotStorage(new AutoGrowingByteArray(16, 1.5f),
+					new LZ78KnotStorage.Options(2, 0.5f).format(format));
+			String[] strings = new String[200];
+			int[] indexes = new int[strings.length];
+			for (int i = 0; i < strings.length; i++) {
+				// long runs, which make ever longer phrases
+				StringBuilder builder = new StringBuilder("run " + i + " ");
+				for (int j = 0; j < 100; j++) {
+					builder.append("-=");
+				}
+				strings[i] = builder.append(" \u00A2\u20AC").toString();
+				indexes[i] = knotStorage.store(strings[i]);
+				unlimited.store(strings[i]);
+			}
+			DecodeScratch scratch = new DecodeScratch();
+			for (int i = 0; i < strings.length; i++) {
+				knotStorage.lookupUtf8(indexes[i], scratch);
+				assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+				assertEquals(strings[i], TestData.drain(knotStorage.cursor(indexes[i])));
+			}
+			assertEquals(8, longestPhraseBucket(knotStorage));
+			assertTrue(longestPhraseBucket(unlimited) >= 64);
+		}
+	}
+
+	private static int longestPhraseBucket(LZ78KnotStorage knotStorage) {
+		Map<String, Object> statistics = new LinkedHashMap<String, Object>();
+		knotStorage.addStatistics(statistics);
+		return (Integer) ((SortedMap<?, ?>) statistics.get("longestPhraseHistogram")).lastKey();
+	}
+
+	@Test
+	public void testRelativePointers() throws Exception {
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 2),
+				new LZ78KnotStorage.Options(2, 0.5f).format(LZ78KnotStorage.RELATIVE_POINTERS));
+		String[] strings = new String[2000];
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			// long enough for both near and far prefixes
+			strings[i] = "this that the other " + i + " \u00A2\u20AC " + (i * 7919);
+			indexes[i] = knotStorage.store(strings[i]);
+		}
+		for (int i = 0; i < strings.length; i++) {
+			assertEquals(strings[i], knotStorage.lookup(indexes[i]));
+		}
+	}
+
 }
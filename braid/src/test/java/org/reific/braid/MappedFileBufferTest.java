@@ -0,0 +1,88 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFileBufferTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testGrowing() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		Buffer buffer = new MappedFileBuffer(directory, 1, 1.5f);
+		assertEquals(MappedFileBuffer.MIN_SIZE, buffer.getSize());
+
+		// Fill the first segment with 3 byte VInts, leaving a 2 byte gap at the end
+		int numVInts = MappedFileBuffer.MIN_SIZE / 3;
+		for (int i = 0; i < numVInts; i++) {
+			buffer.putVInt(16_384 + i);
+		}
+		assertEquals(numVInts * 3, buffer.nextWritePosition());
+		buffer.putVInt(Integer.MAX_VALUE);
+		buffer.putByte((byte) 'a');
+		assertEquals(numVInts * 3 + 6, buffer.nextWritePosition());
+		assertEquals(MappedFileBuffer.MIN_SIZE + (int) (MappedFileBuffer.MIN_SIZE * 1.5f), buffer.getSize());
+
+		for (int i = 0; i < numVInts; i++) {
+			assertEquals(16_384 + i, value(buffer.getVInt(i * 3)));
+			assertEquals(3, numBytes(buffer.getVInt(i * 3)));
+		}
+		assertEquals(Integer.MAX_VALUE, value(buffer.getVInt(numVInts * 3)));
+		assertEquals(5, numBytes(buffer.getVInt(numVInts * 3)));
+		assertEquals('a', buffer.getByte(numVInts * 3 + 5));
+		// Deleted once mapped, or (where the OS doesn't allow that) when the buffer is closed
+		buffer.close();
+		assertEquals(0, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testMappedFileKnot() throws Exception {
+		final Knot knot = Knots.builder().mappedFile(folder.getRoot().toPath()).build();
+		List<String> uncompressed = new ArrayList<String>();
+		List<Braid> compressed = new ArrayList<Braid>();
+
+		for (String line : TestData.readHayekLines()) {
+			uncompressed.add(line);
+			compressed.add(knot.braid(line));
+		}
+		for (int i = 0; i < uncompressed.size(); i++) {
+			assertEquals(uncompressed.get(i), compressed.get(i).get());
+		}
+	}
+
+	private int value(long vInt) {
+		return (int) vInt;
+	}
+
+	private int numBytes(long vInt) {
+		return (int) (vInt >> 32);
+	}
+
+}
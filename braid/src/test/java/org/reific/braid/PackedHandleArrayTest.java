@@ -0,0 +1,94 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PackedHandleArrayTest {
+
+	@Test
+	public void testIncreasingHandles() throws Exception {
+		PackedHandleArray packed = new PackedHandleArray();
+		IntHandleArray plain = new IntHandleArray();
+		int handle = 0;
+		for (int i = 0; i < 10000; i++) {
+			handle += 20 + i % 20;
+			packed.add(handle);
+			plain.add(handle);
+		}
+		assertSame(plain, packed);
+		// each block of 64 handles spans about 64 * 30 bytes, which takes 11 bits per handle
+		assertTrue(packed.spaceUsed() < plain.spaceUsed() / 2);
+	}
+
+	@Test
+	public void testRandomEdits() throws Exception {
+		PackedHandleArray packed = new PackedHandleArray();
+		IntHandleArray plain = new IntHandleArray();
+		Random random = new Random(0);
+		int[] interesting = { Knot.NULL_HANDLE, Knot.EMPTY_STRING_HANDLE, 0, Integer.MAX_VALUE, 1000 };
+		for (int i = 0; i < 5000; i++) {
+			int handle = random.nextBoolean() ? interesting[random.nextInt(interesting.length)] : random.nextInt(1 << 20);
+			int operation = random.nextInt(10);
+			if (operation < 5 || plain.size() == 0) {
+				packed.add(handle);
+				plain.add(handle);
+			}
+			else if (operation < 7) {
+				int index = random.nextInt(plain.size());
+				packed.set(index, handle);
+				plain.set(index, handle);
+			}
+			else if (operation < 9) {
+				int index = random.nextInt(plain.size() + 1);
+				int[] handles = { handle, random.nextInt(), Knot.NULL_HANDLE };
+				packed.insert(index, handles);
+				plain.insert(index, handles);
+			}
+			else {
+				int index = random.nextInt(plain.size());
+				packed.remove(index);
+				plain.remove(index);
+			}
+		}
+		assertSame(plain, packed);
+		packed.clear();
+		assertEquals(0, packed.size());
+	}
+
+	private static void assertSame(HandleArray expected, HandleArray actual) {
+		List<Integer> expectedHandles = new ArrayList<Integer>();
+		List<Integer> actualHandles = new ArrayList<Integer>();
+		for (int i = 0; i < expected.size(); i++) {
+			expectedHandles.add(expected.get(i));
+		}
+		for (int i = 0; i < actual.size(); i++) {
+			actualHandles.add(actual.get(i));
+		}
+		assertEquals(expectedHandles, actualHandles);
+	}
+
+}
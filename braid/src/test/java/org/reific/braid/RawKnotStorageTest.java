@@ -0,0 +1,86 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Test;
+
+public class RawKnotStorageTest {
+
+	@Test
+	public void testLookupUtf8() throws Exception {
+		RawKnotStorage knotStorage = new RawKnotStorage(new AutoGrowingByteArray(16, 2), true);
+		// ASCII, Latin-1, and beyond Latin-1
+		String[] strings = { "this that the other", "caf\u00E9 cr\u00E8me", "\u00A2\u20AC \u00A2\u20AC", "" };
+		int[] indexes = new int[strings.length];
+		for (int i = 0; i < strings.length; i++) {
+			indexes[i] = knotStorage.store(strings[i]);
+		}
+		DecodeScratch scratch = new DecodeScratch();
+		for (int i = 0; i < strings.length; i++) {
+			knotStorage.lookupUtf8(indexes[i], scratch);
+			assertEquals(strings[i], new String(scratch.bytes, 0, scratch.length, Utf8.CHARSET));
+			assertEquals(strings[i], knotStorage.lookup(indexes[i]));
+			assertEquals(strings[i], TestData.drain(knotStorage.cursor(indexes[i])));
+			assertEquals(strings[i].hashCode(), knotStorage.storedHashCode(indexes[i]));
+			assertEquals(strings[i].length(), knotStorage.storedLength(indexes[i]));
+		}
+	}
+
+	@Test
+	public void testLatin1OneBytePerChar() throws Exception {
+		RawKnotStorage knotStorage = new RawKnotStorage(new AutoGrowingByteArray(16, 2), false);
+		int index = knotStorage.store("caf\u00E9 cr\u00E8me");
+		int end = knotStorage.store("");
+		// length, then one byte per char
+		assertEquals(1 + 10, end - index);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		RawKnotStorage knotStorage = new RawKnotStorage(new AutoGrowingByteArray(16, 2), false);
+		int before = knotStorage.store("caf\u00E9 cr\u00E8me");
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		knotStorage.save(new DataOutputStream(bytes));
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertEquals(KnotSnapshot.RAW_STORAGE, in.readByte());
+		RawKnotStorage loaded = RawKnotStorage.load(in, new BufferFactory() {
+			@Override
+			public Buffer newBuffer(int minimumCapacity) {
+				return new AutoGrowingByteArray(minimumCapacity, 2);
+			}
+
+			@Override
+			public boolean isDirect() {
+				return false;
+			}
+		});
+		int after = loaded.store("the quick brown fox");
+		assertEquals("caf\u00E9 cr\u00E8me", loaded.lookup(before));
+		assertEquals("the quick brown fox", loaded.lookup(after));
+	}
+
+}
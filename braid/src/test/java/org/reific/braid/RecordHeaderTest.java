@@ -0,0 +1,151 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RecordHeaderTest {
+
+	// ASCII, 2 and 3 byte UTF-8, a surrogate pair, and an unpaired surrogate (stored as '?')
+	private static final String[] STRINGS = { "this that the other", "the other that this", "\u00A2\u20AC \u00A2\u20AC",
+			"G clef \uD834\uDD1E", "broken \uD834 pair", "a" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testStoredHeader() throws Exception {
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 2),
+				new LZ78KnotStorage.Options(2, 0.5f).recordHeaders(true));
+		assertTrue(knotStorage.hasRecordHeaders());
+		int[] indexes = new int[STRINGS.length];
+		for (int i = 0; i < STRINGS.length; i++) {
+			indexes[i] = knotStorage.store(STRINGS[i]);
+		}
+		for (int i = 0; i < STRINGS.length; i++) {
+			String stored = knotStorage.lookup(indexes[i]);
+			assertEquals(stored.hashCode(), knotStorage.storedHashCode(indexes[i]));
+			assertEquals(stored.length(), knotStorage.storedLength(indexes[i]));
+			assertEquals(stored.equals(STRINGS[i]), !Utf8.hasUnpairedSurrogate(STRINGS[i]));
+		}
+		assertTrue(knotStorage.storedAscii(indexes[0]));
+		assertFalse(knotStorage.storedAscii(indexes[2]));
+		assertFalse(knotStorage.storedAscii(indexes[3]));
+		// '?' is ASCII
+		assertTrue(knotStorage.storedAscii(indexes[4]));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testNoHeader() throws Exception {
+		LZ78KnotStorage knotStorage = new LZ78KnotStorage(new AutoGrowingByteArray(16, 2), 2, 0.5f);
+		assertFalse(knotStorage.hasRecordHeaders());
+		knotStorage.storedHashCode(knotStorage.store("test"));
+	}
+
+	@Test
+	public void testLengthAndHashCode() throws Exception {
+		Knot[] knots = { Knots.builder().build(), Knots.builder().recordHeaders().build(),
+				Knots.builder().recordHeaders().concurrent(2).build(),
+				Knots.builder().recordHeaders().deduplicate().build() };
+		for (Knot knot : knots) {
+			for (String string : STRINGS) {
+				Braid braid = knot.braid(string);
+				MutableBraid mutableBraid = knot.mutableBraid(string);
+				String stored = braid.get();
+				assertEquals(stored.length(), braid.length());
+				assertEquals(stored.hashCode(), braid.hashCode());
+				assertEquals(stored.length(), mutableBraid.length());
+				assertEquals(stored.hashCode(), mutableBraid.hashCode());
+				assertEquals(stored, braid.asCharSequence().toString());
+			}
+			assertEquals(-1, knot.braid(null).length());
+			assertEquals(-1, knot.mutableBraid(null).length());
+			assertEquals(0, knot.braid("").length());
+		}
+	}
+
+	@Test
+	public void testHashSet() throws Exception {
+		Knot knot = Knots.builder().recordHeaders().build();
+		Set<Braid> braids = new HashSet<Braid>();
+		List<String> strings = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			String string = "string number " + i % 500;
+			strings.add(string);
+			braids.add(knot.braid(string));
+		}
+		assertEquals(500, braids.size());
+		for (String string : strings) {
+			assertTrue(braids.contains(knot.braid(string)));
+		}
+	}
+
+	@Test
+	public void testHeaderCost() throws Exception {
+		Knot knot = Knots.builder().lz78(1024 * 1024).build();
+		Knot headerKnot = Knots.builder().lz78(1024 * 1024).recordHeaders().build();
+		InternalKnot internalKnot = (InternalKnot) knot;
+		InternalKnot internalHeaderKnot = (InternalKnot) headerKnot;
+		for (int i = 0; i < 100; i++) {
+			internalKnot.addString("short string " + i);
+			internalHeaderKnot.addString("short string " + i);
+		}
+		// 4 bytes of hash, and one of length and flags. Prefix pointers into the larger buffer can take a few more bytes.
+		int extra = internalHeaderKnot.addString("end") - internalKnot.addString("end");
+		assertTrue(extra >= 100 * 5);
+		assertTrue(extra < 100 * 6);
+	}
+
+	@Test
+	public void testSnapshot() throws Exception {
+		Path file = folder.newFile().toPath();
+		Knot knot = Knots.builder().recordHeaders().build();
+		List<Braid> braids = new ArrayList<Braid>();
+		for (String string : STRINGS) {
+			braids.add(knot.braid(string));
+		}
+		knot.save(file);
+		Knot loaded = Knots.builder().load(file);
+		InternalKnot internalKnot = (InternalKnot) loaded;
+		for (int i = 0; i < STRINGS.length; i++) {
+			if (braids.get(i) instanceof InlineBraid) {
+				// nothing in the Knot to check
+				continue;
+			}
+			int index = ((BraidImpl) braids.get(i)).index();
+			// the headers would be decoded as tokens if the snapshot lost them
+			assertEquals(braids.get(i).get(), internalKnot.lookupString(index));
+			assertEquals(braids.get(i).hashCode(), internalKnot.hashCodeOf(index));
+			assertEquals(braids.get(i).length(), internalKnot.lengthOf(index));
+		}
+	}
+
+}
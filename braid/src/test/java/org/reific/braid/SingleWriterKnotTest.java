@@ -0,0 +1,116 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.junit.Test;
+
+public class SingleWriterKnotTest {
+
+	private static final int READERS = 6;
+
+	@Test
+	/**
+	 * One thread braids the full text (into a Knot with a small initial buffer, so it is constantly growing), while other
+	 * threads continually read back random Braids that have already been written.
+	 */
+	public void testReadersDuringGrowth() throws Exception {
+		final Knot knot = Knots.builder().singleWriter().lz78(16, 1.5f).build();
+		final List<String> lines = TestData.readHayekLines();
+		final AtomicReferenceArray<Braid> braids = new AtomicReferenceArray<Braid>(lines.size());
+		// number of braids that have been handed over to the readers
+		final AtomicInteger written = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+		try {
+			List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+			for (int r = 0; r < READERS; r++) {
+				final long seed = r;
+				readers.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						Random random = new Random(seed);
+						int reads = 0;
+						int available;
+						while ((available = written.get()) < lines.size()) {
+							if (available > 0) {
+								int i = random.nextInt(available);
+								assertEquals(lines.get(i), braids.get(i).get());
+								reads++;
+							}
+						}
+						return reads;
+					}
+				}));
+			}
+			Future<?> writer = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for (int i = 0; i < lines.size(); i++) {
+						braids.lazySet(i, knot.braid(lines.get(i)));
+						written.lazySet(i + 1);
+					}
+					return null;
+				}
+			});
+			writer.get();
+			for (Future<Integer> reader : readers) {
+				reader.get();
+			}
+			for (int i = 0; i < lines.size(); i++) {
+				assertEquals(lines.get(i), braids.get(i).get());
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		final Knot knot = Knots.builder().singleWriter().build();
+		List<String> lines = TestData.readHayekLines();
+		List<Braid> braids = new ArrayList<Braid>();
+		for (String line : lines) {
+			braids.add(knot.braid(line));
+			knot.flush();
+		}
+		for (int i = 0; i < lines.size(); i++) {
+			assertEquals(lines.get(i), braids.get(i).get());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHandleNeverStored() throws Exception {
+		Knot knot = Knots.builder().singleWriter().build();
+		knot.braid("stored");
+		knot.get(1000);
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Text for tests to store, and to read back, always as UTF-8 whatever the platform's default charset is.
+ */
+final class TestData {
+
+	private TestData() {
+	}
+
+	/**
+	 * @return the lines of The Road to Serfdom, including the empty ones
+	 */
+	static List<String> readHayekLines() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		InputStream stream = TestData.class.getResourceAsStream("/hayek-road-to-serfdom.txt");
+		try (BufferedReader br = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+			for (String line; (line = br.readLine()) != null;) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * @return the rest of the String that {@code cursor} is reading, decoded from UTF-8
+	 */
+	static String drain(ByteCursor cursor) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (int b; (b = cursor.next()) != -1;) {
+			bytes.write(b);
+		}
+		return new String(bytes.toByteArray(), Utf8.CHARSET);
+	}
+
+	/**
+	 * @return around 3MB of generated log lines, the same ones every time
+	 */
+	static List<String> logLines() {
+		String[] actions = { "logged in", "logged out", "viewed page /home", "viewed page /account/settings",
+				"purchased item", "failed login" };
+		Random random = new Random(0);
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 50000; i++) {
+			lines.add("2014-12-" + (10 + i / 5000) + " INFO user-" + random.nextInt(50000) + " "
+					+ actions[random.nextInt(actions.length)] + " from 10.0." + random.nextInt(256) + "."
+					+ random.nextInt(256));
+		}
+		return lines;
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+    Braid - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class WriteUtf8Test {
+
+	@Test
+	public void testWriteUtf8() throws Exception {
+		Knot knot = Knots.builder().common("common").build();
+		String[] strings = { "this that the other", "\u00A2 \u20AC \u00A2\u20AC", "\uD834\uDD1E", "common", "" };
+		for (String string : strings) {
+			assertWrites(string, knot.braid(string));
+			assertWrites(string, knot.mutableBraid(string));
+		}
+	}
+
+	@Test
+	public void testNull() throws Exception {
+		Knot knot = Knots.builder().build();
+		ByteBuffer buffer = ByteBuffer.allocate(10);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(-1, knot.braid(null).writeUtf8(buffer));
+		assertEquals(-1, knot.braid(null).writeUtf8(out));
+		assertEquals(-1, knot.mutableBraid(null).writeUtf8(buffer));
+		assertEquals(-1, knot.mutableBraid(null).writeUtf8(out));
+		assertEquals(0, buffer.position());
+		assertEquals(0, out.size());
+	}
+
+	@Test
+	public void testBufferOverflow() throws Exception {
+		Knot knot = Knots.builder().build();
+		ByteBuffer buffer = ByteBuffer.allocate(4);
+		try {
+			knot.braid("too long").writeUtf8(buffer);
+			fail();
+		} catch (BufferOverflowException e) {
+			// nothing written
+			assertEquals(0, buffer.position());
+		}
+	}
+
+	private void assertWrites(String expected, Braid braid) throws Exception {
+		byte[] expectedBytes = expected.getBytes(Utf8.CHARSET);
+
+		ByteBuffer buffer = ByteBuffer.allocate(100);
+		buffer.put((byte) 1);
+		assertEquals(expectedBytes.length, braid.writeUtf8(buffer));
+		assertEquals(1 + expectedBytes.length, buffer.position());
+		assertArrayEquals(expectedBytes, Arrays.copyOfRange(buffer.array(), 1, buffer.position()));
+
+		ByteBuffer directBuffer = ByteBuffer.allocateDirect(100);
+		assertEquals(expectedBytes.length, braid.writeUtf8(directBuffer));
+		directBuffer.flip();
+		assertEquals(ByteBuffer.wrap(expectedBytes), directBuffer);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(expectedBytes.length, braid.writeUtf8(out));
+		assertArrayEquals(expectedBytes, out.toByteArray());
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+    Seam - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid.apitest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.reific.braid.BraidHashMap;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+public class BraidHashMapTest {
+
+	@Test
+	public void testRandomOperations() throws Exception {
+		for (Knot knot : new Knot[] { Knots.builder().build(), Knots.builder().recordHeaders().build() }) {
+			BraidHashMap<Integer> map = new BraidHashMap<Integer>(knot);
+			Map<String, Integer> expected = new HashMap<String, Integer>();
+			Random random = new Random(0);
+			for (int i = 0; i < 20000; i++) {
+				// a small key space, so there are plenty of updates and removals
+				int k = random.nextInt(2000);
+				String key = k == 0 ? null : k == 1 ? "" : "key number " + k;
+				int operation = random.nextInt(4);
+				if (operation < 2) {
+					assertEquals(expected.put(key, i), map.put(key, i));
+				}
+				else if (operation == 2) {
+					assertEquals(expected.remove(key), map.remove(key));
+				}
+				else {
+					assertEquals(expected.get(key), map.get(key));
+					assertEquals(expected.containsKey(key), map.containsKey(key));
+				}
+				assertEquals(expected.size(), map.size());
+			}
+			assertEquals(expected, map);
+			assertEquals(map, expected);
+			assertEquals(expected.hashCode(), map.hashCode());
+			assertEquals(expected.keySet(), map.keySet());
+			assertFalse(map.containsKey(Integer.valueOf(3)));
+			map.clear();
+			assertTrue(map.isEmpty());
+			assertNull(map.get("key number 3"));
+		}
+	}
+
+	@Test
+	public void testIteratorRemove() throws Exception {
+		BraidHashMap<Integer> map = new BraidHashMap<Integer>(Knots.builder().build(), 4);
+		Map<String, Integer> expected = new HashMap<String, Integer>();
+		for (int i = 0; i < 1000; i++) {
+			map.put("key number " + i, i);
+			expected.put("key number " + i, i);
+		}
+		int visited = 0;
+		for (Iterator<Map.Entry<String, Integer>> iterator = map.entrySet().iterator(); iterator.hasNext();) {
+			Map.Entry<String, Integer> entry = iterator.next();
+			visited++;
+			assertEquals(expected.get(entry.getKey()), entry.getValue());
+			if (entry.getValue() % 3 != 0) {
+				iterator.remove();
+				expected.remove(entry.getKey());
+			}
+			else {
+				entry.setValue(-entry.getValue());
+				expected.put(entry.getKey(), entry.getValue());
+			}
+		}
+		// every entry is visited once, even though removals shift the others
+		assertEquals(1000, visited);
+		assertEquals(expected, map);
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testFailFast() throws Exception {
+		BraidHashMap<Integer> map = new BraidHashMap<Integer>(Knots.builder().build());
+		map.put("one", 1);
+		map.put("two", 2);
+		Iterator<String> iterator = map.keySet().iterator();
+		iterator.next();
+		map.put("three", 3);
+		iterator.next();
+	}
+
+	@Test
+	public void testFootprint() throws Exception {
+		Knot knot = Knots.builder().build();
+		BraidHashMap<Boolean> map = new BraidHashMap<Boolean>(knot);
+		long stringsSize = 0;
+		for (int i = 0; i < 100000; i++) {
+			String key = "/account/" + i + "/settings/notifications?user=" + (i * 7919);
+			map.put(key, Boolean.TRUE);
+			// a String and its array (as Latin-1 bytes since Java 9, or twice that as chars before), with 8 byte alignment
+			stringsSize += 24 + ((16 + key.length() + 7) & ~7);
+		}
+		// entries, and a table of twice as many slots
+		long hashMapSize = 100000 * 32 + 2 * 100000 * 4 + stringsSize;
+		// Most of the Knot is the LZ78 dictionary until it is flushed
+		assertTrue(map.tableSpaceUsed() + knot.spaceUsed() < hashMapSize);
+		knot.flush();
+		assertTrue(map.tableSpaceUsed() + knot.spaceUsed() < hashMapSize / 2);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+    Seam - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid.apitest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+import org.reific.braid.BraidList;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+public class BraidListTest {
+
+	private static final List<String> STRINGS = Arrays.asList("this that the other", null, "", "USD",
+			"the other that this", "this that the other", "\u00E9t\u00E9 \u20AC");
+
+	@Test
+	public void testListOperations() throws Exception {
+		for (boolean packedHandles : new boolean[] { false, true }) {
+			Knot knot = Knots.builder().build();
+			BraidList list = new BraidList(knot, packedHandles);
+			List<String> expected = new ArrayList<String>();
+			assertTrue(list.isEmpty());
+
+			list.addAll(STRINGS);
+			expected.addAll(STRINGS);
+			assertEquals(expected, list);
+			assertEquals(list, expected);
+			assertEquals(expected.hashCode(), list.hashCode());
+
+			list.add(2, "inserted");
+			expected.add(2, "inserted");
+			list.addAll(1, STRINGS);
+			expected.addAll(1, STRINGS);
+			assertEquals(expected.set(7, "replaced"), list.set(7, "replaced"));
+			assertEquals(expected.remove(3), list.remove(3));
+			assertEquals(expected, list);
+			assertEquals(expected.indexOf("replaced"), list.indexOf("replaced"));
+			assertEquals(expected.subList(2, 6), list.subList(2, 6));
+
+			list.clear();
+			assertEquals(0, list.size());
+		}
+	}
+
+	@Test
+	public void testEqualsSameKnot() throws Exception {
+		Knot knot = Knots.builder().recordHeaders().build();
+		BraidList list = new BraidList(knot);
+		BraidList packed = new BraidList(knot, true);
+		list.addAll(STRINGS);
+		packed.addAll(STRINGS);
+		assertEquals(list, packed);
+		assertEquals(list.hashCode(), packed.hashCode());
+		packed.set(0, "this that the others");
+		assertFalse(list.equals(packed));
+	}
+
+	@Test
+	public void testPackedHandlesAreSmaller() throws Exception {
+		Knot knot = Knots.builder().build();
+		BraidList list = new BraidList(knot);
+		BraidList packed = new BraidList(knot, true);
+		for (int i = 0; i < 10000; i++) {
+			String string = "this that the other " + i;
+			list.add(string);
+			packed.add(string);
+		}
+		assertEquals(list, packed);
+		assertTrue(packed.handleSpaceUsed() < list.handleSpaceUsed() / 2);
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testFailFast() throws Exception {
+		BraidList list = new BraidList(Knots.builder().build());
+		list.addAll(STRINGS);
+		Iterator<String> iterator = list.iterator();
+		iterator.next();
+		list.add("more");
+		iterator.next();
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testIndexOutOfBounds() throws Exception {
+		BraidList list = new BraidList(Knots.builder().build());
+		list.addAll(STRINGS);
+		list.get(STRINGS.size());
+	}
+
+}
@@ -58,7 +58,24 @@ public class EqualsHashcodeTest {
 				() -> Knots.builder().common("a").build(),
 				() -> Knots.builder().common("a", "Hello").build(),
 				() -> Knots.builder().common("", "Hello").build(),
-				() -> Knots.builder().lz78(8).build()
+				() -> Knots.builder().lz78(8).build(),
+				() -> Knots.builder().concurrent(2).build(),
+				() -> Knots.builder().singleWriter().build(),
+				() -> Knots.builder().deduplicate().build(),
+				() -> Knots.builder().recordHeaders().build(),
+				() -> Knots.builder().lz78Format(Knots.LZ78_FORMAT_RELATIVE_POINTERS).build(),
+				() -> Knots.builder().lz78Format(Knots.LZ78_FORMAT_PHRASE_LENGTHS).build(),
+				() -> Knots.builder().lz78RawFallback().build(),
+				() -> Knots.builder().decodeCache(16).build(),
+				() -> Knots.builder().lz78PhraseCache(4096).build(),
+				() -> Knots.builder().lz78MaxPhraseLength(16).build(),
+				() -> Knots.builder().lz77().build(),
+				() -> Knots.builder().lz77().recordHeaders().concurrent(2).build(),
+				() -> Knots.builder().entropyCoded().singleWriter().build(),
+				() -> Knots.builder().fsst(Arrays.asList("Hello", "World", "\u00A2\u20AC")).build(),
+				() -> Knots.builder().adaptive(2).recordHeaders().build(),
+				() -> Knots.builder().recordHeaders().deduplicate().concurrent(2).build(),
+				() -> Knots.builder().canonicalBraids().concurrent(2).build()
 				);
 
 		Collection<Object[]> data = new ArrayList<>();
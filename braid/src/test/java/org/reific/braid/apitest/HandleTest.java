@@ -0,0 +1,86 @@
+/*
+    Seam - Library for Transparent Compression of Java Strings.
+
+    Copyright (C) 2014 James Scriven
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.reific.braid.apitest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.reific.braid.Braid;
+import org.reific.braid.Knot;
+import org.reific.braid.Knots;
+
+public class HandleTest {
+
+	private static final String[] STRINGS = { null, "", "a", "USD", "this that the other", "the other that this",
+			"this that the other", "\u00E9t\u00E9 \u20AC", "\uD834\uDD1E" };
+
+	@Test
+	public void testHandles() throws Exception {
+		Knot[] knots = { Knots.builder().build(), Knots.builder().recordHeaders().build(),
+				Knots.builder().deduplicate().build(), Knots.builder().concurrent(2).build(),
+				Knots.builder().common("a").rememberLast(1).build() };
+		for (Knot knot : knots) {
+			int[] handles = new int[STRINGS.length];
+			for (int i = 0; i < STRINGS.length; i++) {
+				handles[i] = knot.store(STRINGS[i]);
+			}
+			assertEquals(Knot.NULL_HANDLE, handles[0]);
+			assertEquals(Knot.EMPTY_STRING_HANDLE, handles[1]);
+			for (int i = 0; i < STRINGS.length; i++) {
+				assertEquals(STRINGS[i], knot.get(handles[i]));
+				int expectedHash = STRINGS[i] == null ? Braid.SET_TO_NULL_HASH : STRINGS[i].hashCode();
+				assertEquals(expectedHash, knot.handleHashCode(handles[i]));
+				for (int j = 0; j < STRINGS.length; j++) {
+					boolean expected = STRINGS[i] == null ? STRINGS[j] == null : STRINGS[i].equals(STRINGS[j]);
+					assertEquals(expected, knot.handleEquals(handles[i], handles[j]));
+					assertEquals(expected, knot.handleEquals(handles[i], STRINGS[j]));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testInvalidHandle() throws Exception {
+		Knot knot = Knots.builder().build();
+		int handle = knot.store("this that the other");
+		try {
+			knot.get(-3);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			knot.handleEquals(handle, Integer.MIN_VALUE);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertNull(knot.get(Knot.NULL_HANDLE));
+		assertFalse(knot.handleEquals(handle, Knot.NULL_HANDLE));
+		assertTrue(knot.handleEquals(Knot.EMPTY_STRING_HANDLE, Knot.EMPTY_STRING_HANDLE));
+		// prefixes
+		assertFalse(knot.handleEquals(handle, "this that the othe"));
+		assertFalse(knot.handleEquals(handle, "this that the others"));
+	}
+
+}